@@ -30,6 +30,7 @@ import androidx.core.view.WindowCompat;
 import androidx.viewpager2.widget.ViewPager2;
 
 import com.bumptech.glide.Glide;
+import com.felle.fusic.data.MediaLibraryRepository;
 import com.felle.fusic.databinding.ActivityMainBinding;
 import com.felle.fusic.ui.music.MusicItem;
 import com.felle.fusic.ui.pages.nowplaying.NowPlayingActivity;
@@ -343,8 +344,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void clearAllFragmentCaches() {
-        com.felle.fusic.ui.album.AlbumFragment.clearCache();
-        com.felle.fusic.ui.artist.ArtistFragment.clearCache();
+        MediaLibraryRepository.getInstance(this).refresh();
     }
 
     private void showRefreshToast(String message) {
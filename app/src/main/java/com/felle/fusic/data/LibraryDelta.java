@@ -0,0 +1,145 @@
+package com.felle.fusic.data;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.felle.fusic.ui.album.AlbumItem;
+import com.felle.fusic.ui.artist.ArtistItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes applied to the library by one incremental sync. Song changes are an ordered
+ * list of remove, insert and change operations against the title-sorted song list;
+ * album and artist changes come as precomputed diffs of the derived lists. The lists the
+ * changes lead to travel with them, so a listener binds exactly the state its updates
+ * describe even when later syncs have already replaced the library.
+ */
+public final class LibraryDelta {
+
+    public static final int REMOVE = 0;
+    public static final int INSERT = 1;
+    public static final int CHANGE = 2;
+
+    private final int previousSongCount;
+    private final int previousAlbumCount;
+    private final int previousArtistCount;
+    private final List<Operation> operations;
+    private final long[] changedIds;
+    private final DiffUtil.DiffResult albumDiff;
+    private final DiffUtil.DiffResult artistDiff;
+    private final TrackList songs;
+    private final List<AlbumItem> albums;
+    private final List<ArtistItem> artists;
+
+    LibraryDelta(int previousSongCount, int previousAlbumCount, int previousArtistCount,
+                 List<Operation> operations, long[] changedIds, DiffUtil.DiffResult albumDiff,
+                 DiffUtil.DiffResult artistDiff, TrackList songs, List<AlbumItem> albums,
+                 List<ArtistItem> artists) {
+        this.previousSongCount = previousSongCount;
+        this.previousAlbumCount = previousAlbumCount;
+        this.previousArtistCount = previousArtistCount;
+        this.operations = operations;
+        this.changedIds = changedIds;
+        this.albumDiff = albumDiff;
+        this.artistDiff = artistDiff;
+        this.songs = songs;
+        this.albums = albums;
+        this.artists = artists;
+    }
+
+    public int getPreviousSongCount() {
+        return previousSongCount;
+    }
+
+    public int getPreviousAlbumCount() {
+        return previousAlbumCount;
+    }
+
+    public int getPreviousArtistCount() {
+        return previousArtistCount;
+    }
+
+    /** The song list after this delta */
+    public TrackList getSongs() {
+        return songs;
+    }
+
+    /** The album list after this delta */
+    public List<AlbumItem> getAlbums() {
+        return albums;
+    }
+
+    /** The artist list after this delta */
+    public List<ArtistItem> getArtists() {
+        return artists;
+    }
+
+    /** Ids of the songs this delta removed or changed; songs it only added are not listed */
+    public long[] getChangedIds() {
+        return changedIds;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public DiffUtil.DiffResult getAlbumDiff() {
+        return albumDiff;
+    }
+
+    public DiffUtil.DiffResult getArtistDiff() {
+        return artistDiff;
+    }
+
+    /**
+     * Notify the adapter about each affected row. Call after the adapter has been
+     * switched to the new song list, since the operations are replayed in order.
+     */
+    public void dispatchSongUpdates(RecyclerView.Adapter<?> adapter) {
+        for (Operation operation : operations) {
+            switch (operation.type) {
+                case REMOVE:
+                    adapter.notifyItemRemoved(operation.position);
+                    break;
+                case INSERT:
+                    adapter.notifyItemInserted(operation.position);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemChanged(operation.position);
+                    break;
+            }
+        }
+    }
+
+    static final class Operation {
+        final int type;
+        final int position;
+
+        Operation(int type, int position) {
+            this.type = type;
+            this.position = position;
+        }
+    }
+
+    static final class Builder {
+        private final List<Operation> operations = new ArrayList<>();
+
+        void remove(int position) {
+            operations.add(new Operation(REMOVE, position));
+        }
+
+        void insert(int position) {
+            operations.add(new Operation(INSERT, position));
+        }
+
+        void change(int position) {
+            operations.add(new Operation(CHANGE, position));
+        }
+
+        List<Operation> build() {
+            return operations;
+        }
+    }
+}
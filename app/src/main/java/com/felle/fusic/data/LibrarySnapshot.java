@@ -0,0 +1,196 @@
+package com.felle.fusic.data;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary copy of the last MediaStore scan, read back through a memory map
+ * so the library can be shown at cold start before MediaStore is queried again.
+ *
+ * Layout: header with the sync watermark, a table of distinct strings, then one
+ * fixed-size record per track that points into the string table. Artist and album
+ * names are stored once.
+ */
+final class LibrarySnapshot {
+
+    private static final String TAG = "LibrarySnapshot";
+    private static final String FILE_NAME = "library.snapshot";
+
+    private static final int MAGIC = 0x46534E50;
+    private static final int VERSION = 3;
+    // Title, artist, album, path and folded search key
+    private static final int STRING_FIELDS = 5;
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 4 + STRING_FIELDS * 4;
+
+    private final AtomicFile file;
+
+    LibrarySnapshot(Context context) {
+        this.file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /** Tracks of the last scan and the MediaStore watermark they were read at */
+    static final class Contents {
+        static final Contents EMPTY = new Contents(TrackTable.EMPTY, 0, 0);
+
+        final TrackTable tracks;
+        final long generation;
+        final long dateModified;
+
+        Contents(TrackTable tracks, long generation, long dateModified) {
+            this.tracks = tracks;
+            this.generation = generation;
+            this.dateModified = dateModified;
+        }
+    }
+
+    /** Read the snapshot, or return empty contents if it is missing or unreadable */
+    Contents read() {
+        File baseFile = file.getBaseFile();
+        if (!baseFile.exists()) {
+            return Contents.EMPTY;
+        }
+
+        try (FileInputStream input = file.openRead();
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return Contents.EMPTY;
+            }
+
+            long generation = buffer.getLong();
+            long dateModified = buffer.getLong();
+
+            int stringCount = buffer.getInt();
+            String[] strings = new String[stringCount];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < stringCount; i++) {
+                int length = buffer.getInt();
+                if (length < 0) {
+                    continue;
+                }
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buffer.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            int trackCount = buffer.getInt();
+            if (buffer.remaining() < (long) trackCount * RECORD_SIZE) {
+                return Contents.EMPTY;
+            }
+
+            TrackTable.Builder tracks = new TrackTable.Builder(trackCount);
+            for (int i = 0; i < trackCount; i++) {
+                long id = buffer.getLong();
+                long duration = buffer.getLong();
+                long albumId = buffer.getLong();
+                int trackNumber = buffer.getInt();
+                String title = stringAt(strings, buffer);
+                String artist = stringAt(strings, buffer);
+                String album = stringAt(strings, buffer);
+                String path = stringAt(strings, buffer);
+                String searchKey = stringAt(strings, buffer);
+                if (searchKey == null) {
+                    searchKey = SearchIndex.searchKey(title, artist, album);
+                }
+
+                tracks.add(id, title, artist, album, duration, path, albumId, trackNumber, searchKey);
+            }
+            return new Contents(tracks.build(), generation, dateModified);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable library snapshot", e);
+            file.delete();
+            return Contents.EMPTY;
+        }
+    }
+
+    /** Replace the snapshot atomically with the given tracks */
+    void write(TrackTable tracks, long generation, long dateModified) {
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] refs = new int[tracks.size() * STRING_FIELDS];
+
+        for (int i = 0; i < tracks.size(); i++) {
+            int base = i * STRING_FIELDS;
+            refs[base] = intern(tracks.getTitle(i), stringIds, strings);
+            refs[base + 1] = intern(tracks.getArtist(i), stringIds, strings);
+            refs[base + 2] = intern(tracks.getAlbum(i), stringIds, strings);
+            refs[base + 3] = intern(tracks.getPath(i), stringIds, strings);
+            refs[base + 4] = intern(tracks.getSearchKey(i), stringIds, strings);
+        }
+
+        FileOutputStream output = null;
+        try {
+            output = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeLong(dateModified);
+
+            out.writeInt(strings.size());
+            for (String value : strings) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(tracks.size());
+            for (int i = 0; i < tracks.size(); i++) {
+                out.writeLong(tracks.getId(i));
+                out.writeLong(tracks.getDuration(i));
+                out.writeLong(tracks.getAlbumId(i));
+                out.writeInt(tracks.getTrackNumber(i));
+                for (int field = 0; field < STRING_FIELDS; field++) {
+                    out.writeInt(refs[i * STRING_FIELDS + field]);
+                }
+            }
+
+            out.flush();
+            file.finishWrite(output);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing library snapshot", e);
+            if (output != null) {
+                file.failWrite(output);
+            }
+        }
+    }
+
+    private static int intern(String value, Map<String, Integer> stringIds, List<String> strings) {
+        if (value == null) {
+            return -1;
+        }
+        Integer existing = stringIds.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        int id = strings.size();
+        strings.add(value);
+        stringIds.put(value, id);
+        return id;
+    }
+
+    private static String stringAt(String[] strings, ByteBuffer buffer) {
+        int ref = buffer.getInt();
+        return ref >= 0 && ref < strings.length ? strings[ref] : null;
+    }
+}
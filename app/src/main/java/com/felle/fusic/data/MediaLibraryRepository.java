@@ -0,0 +1,1036 @@
+package com.felle.fusic.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.felle.fusic.ui.album.AlbumItem;
+import com.felle.fusic.ui.artist.ArtistItem;
+import com.felle.fusic.ui.music.MusicItem;
+import com.felle.fusic.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide music library. MediaStore is scanned once and the song, album and
+ * artist views are derived from that single pass in memory, so every screen reads
+ * the same data instead of running its own query. The last scan is kept in a
+ * {@link LibrarySnapshot} so a cold start can show the library before MediaStore answers.
+ * After that a ContentObserver keeps it current by syncing only the rows that changed.
+ * Tracks are held column-wise in a {@link TrackTable}; the lists handed out are
+ * {@link TrackList} views over it.
+ */
+public class MediaLibraryRepository {
+
+    private static final String TAG = "MediaLibraryRepository";
+
+    private static volatile MediaLibraryRepository instance;
+
+    public interface OnLibraryChangedListener {
+        void onLibraryChanged();
+
+        /** Called after an incremental sync; lists that cannot replay the delta just reload */
+        default void onLibraryDelta(LibraryDelta delta) {
+            onLibraryChanged();
+        }
+
+        default void onLibraryLoadFailed() {
+        }
+    }
+
+    private static final long SYNC_DEBOUNCE_MS = 1500;
+    private static final int MAX_SQL_VARIABLES = 900;
+
+    private final Context appContext;
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnLibraryChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private final LibrarySnapshot snapshot;
+    private final SearchIndex searchIndex = new SearchIndex();
+
+    private volatile Library library = Library.EMPTY;
+    private volatile boolean isLoaded = false;
+    private volatile boolean isLoading = false;
+    private volatile boolean isSearchIndexReady = false;
+    private boolean isWatching = false;
+
+    // MediaStore watermark of the last sync, only touched on the executor
+    private long syncGeneration = 0;
+    private long syncDateModified = 0;
+
+    private final Runnable syncRunnable = this::sync;
+
+    private final ContentObserver mediaObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // MediaStore fires one notification per row during a scan, so wait for the burst to settle
+            mainHandler.removeCallbacks(syncRunnable);
+            mainHandler.postDelayed(syncRunnable, SYNC_DEBOUNCE_MS);
+        }
+    };
+
+    private MediaLibraryRepository(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.snapshot = new LibrarySnapshot(appContext);
+    }
+
+    public static MediaLibraryRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MediaLibraryRepository.class) {
+                if (instance == null) {
+                    instance = new MediaLibraryRepository(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void addListener(OnLibraryChangedListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(OnLibraryChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isLoaded() {
+        return isLoaded;
+    }
+
+    public boolean isLoading() {
+        return isLoading;
+    }
+
+    /** Load the library unless it is already loaded or a load is running */
+    public void load() {
+        if (isLoaded) {
+            mainHandler.post(this::notifyLibraryChanged);
+            return;
+        }
+        initialLoad();
+    }
+
+    /** Bring the library up to date, applying only what changed in MediaStore */
+    public void refresh() {
+        if (!isLoaded) {
+            initialLoad();
+            return;
+        }
+        sync();
+    }
+
+    private synchronized void initialLoad() {
+        if (isLoading) return;
+        isLoading = true;
+
+        executorService.execute(() -> {
+            // Show the last known library right away, then catch up with MediaStore
+            LibrarySnapshot.Contents cached = snapshot.read();
+            if (cached.tracks.size() > 0) {
+                library = Library.build(sortedTable(cached.tracks));
+                syncGeneration = cached.generation;
+                syncDateModified = cached.dateModified;
+                isLoaded = true;
+                isLoading = false;
+                mainHandler.post(this::notifyLibraryChanged);
+                mainHandler.post(this::startWatching);
+                buildSearchIndex(library.table);
+                applySync();
+                return;
+            }
+
+            ScanResult scanned;
+            try {
+                scanned = queryTracks(null, null);
+            } catch (Exception e) {
+                Log.e(TAG, "Error scanning music library", e);
+                isLoading = false;
+                mainHandler.post(this::notifyLibraryLoadFailed);
+                return;
+            }
+
+            TrackTable tracks = sortedTable(scanned.tracks.build());
+            library = Library.build(tracks);
+            syncGeneration = scanned.maxGeneration;
+            syncDateModified = scanned.maxDateModified;
+            snapshot.write(tracks, syncGeneration, syncDateModified);
+
+            isLoaded = true;
+            isLoading = false;
+            mainHandler.post(this::notifyLibraryChanged);
+            mainHandler.post(this::startWatching);
+            buildSearchIndex(tracks);
+        });
+    }
+
+    /** Runs on the executor once the first library is visible, so it never delays showing it */
+    private void buildSearchIndex(TrackTable table) {
+        searchIndex.clear();
+        for (int row = 0; row < table.size(); row++) {
+            searchIndex.put(table.getId(row), table.getSearchKey(row));
+        }
+        isSearchIndexReady = true;
+    }
+
+    private void startWatching() {
+        if (isWatching) return;
+        isWatching = true;
+        appContext.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, mediaObserver);
+    }
+
+    private void sync() {
+        mainHandler.removeCallbacks(syncRunnable);
+        executorService.execute(this::applySync);
+    }
+
+    /**
+     * Query only rows that changed since the last watermark plus the current id set,
+     * then fold inserts, updates and deletes into the library as one delta.
+     */
+    private void applySync() {
+        Library current = library;
+        ScanResult changed;
+        Set<Long> liveIds;
+        try {
+            changed = queryChangedTracks();
+            liveIds = queryLiveIds();
+        } catch (Exception e) {
+            Log.e(TAG, "Error syncing music library", e);
+            return;
+        }
+
+        TrackTable.Builder upserts = changed.tracks;
+        Set<Long> seen = new HashSet<>();
+        TrackTable changedTable = upserts.build();
+        for (int row = 0; row < changedTable.size(); row++) {
+            seen.add(changedTable.getId(row));
+        }
+
+        // Rows that appeared without moving the watermark (e.g. another volume) are fetched by id
+        List<Long> missing = new ArrayList<>();
+        for (Long id : liveIds) {
+            if (!current.contains(id) && !seen.contains(id)) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            try {
+                TrackTable added = queryTracksById(missing).tracks.build();
+                for (int row = 0; row < added.size(); row++) {
+                    upserts.addRow(added, row);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error resolving new tracks", e);
+            }
+        }
+
+        Set<Long> removedIds = new HashSet<>();
+        for (int row = 0; row < current.table.size(); row++) {
+            long id = current.table.getId(row);
+            if (!liveIds.contains(id)) {
+                removedIds.add(id);
+            }
+        }
+
+        syncGeneration = Math.max(syncGeneration, changed.maxGeneration);
+        syncDateModified = Math.max(syncDateModified, changed.maxDateModified);
+
+        applyDelta(current, upserts.build(), removedIds);
+    }
+
+    /** Drop a deleted song from every derived view */
+    public void removeSong(long songId) {
+        executorService.execute(() -> {
+            Library current = library;
+            if (!current.contains(songId)) return;
+
+            Set<Long> removedIds = new HashSet<>();
+            removedIds.add(songId);
+            applyDelta(current, TrackTable.EMPTY, removedIds);
+        });
+    }
+
+    /**
+     * Fold upserts and removals into the title-sorted table. Rows are tracked as
+     * references into either the current table (non-negative) or the upsert table
+     * (encoded as {@code -(row + 1)}) so nothing is copied until the new table is built.
+     */
+    private void applyDelta(Library current, TrackTable upserts, Set<Long> removedIds) {
+        TrackTable table = current.table;
+        List<Integer> working = new ArrayList<>(table.size() + upserts.size());
+        for (int row = 0; row < table.size(); row++) {
+            working.add(row);
+        }
+        LibraryDelta.Builder operations = new LibraryDelta.Builder();
+
+        List<Integer> inserts = new ArrayList<>();
+        Map<Long, Integer> inPlaceUpdates = new HashMap<>();
+        Set<Long> toRemove = new HashSet<>(removedIds);
+
+        for (int upsertRow = 0; upsertRow < upserts.size(); upsertRow++) {
+            long id = upserts.getId(upsertRow);
+            if (removedIds.contains(id)) continue;
+
+            int position = current.rowsById.get(id);
+            if (position == LongIntHashMap.NO_VALUE) {
+                inserts.add(upsertRow);
+                continue;
+            }
+
+            if (table.sameRow(position, upserts, upsertRow)) continue;
+
+            if (keepsPosition(table, position, upserts, upsertRow)) {
+                inPlaceUpdates.put(id, upsertRow);
+            } else {
+                // A changed sort key moves the row, so it is removed and inserted again
+                toRemove.add(id);
+                inserts.add(upsertRow);
+            }
+        }
+
+        if (toRemove.isEmpty() && inserts.isEmpty() && inPlaceUpdates.isEmpty()) {
+            return;
+        }
+
+        long[] changedIds = new long[toRemove.size() + inPlaceUpdates.size()];
+        int changed = 0;
+        for (Long id : toRemove) {
+            changedIds[changed++] = id;
+        }
+        for (Long id : inPlaceUpdates.keySet()) {
+            changedIds[changed++] = id;
+        }
+
+        List<Integer> removePositions = new ArrayList<>();
+        for (Long id : toRemove) {
+            int position = current.rowsById.get(id);
+            if (position != LongIntHashMap.NO_VALUE) {
+                removePositions.add(position);
+            }
+        }
+        Collections.sort(removePositions, Collections.reverseOrder());
+        for (int position : removePositions) {
+            working.remove(position);
+            operations.remove(position);
+        }
+
+        for (int upsertRow : inserts) {
+            int position = insertionPoint(working, table, upserts, upsertRow);
+            working.add(position, -(upsertRow + 1));
+            operations.insert(position);
+        }
+
+        List<Integer> inPlace = new ArrayList<>(inPlaceUpdates.values());
+        for (int i = 0; i < working.size() && !inPlaceUpdates.isEmpty(); i++) {
+            int ref = working.get(i);
+            if (ref < 0) continue;
+            Integer update = inPlaceUpdates.remove(table.getId(ref));
+            if (update != null) {
+                working.set(i, -(update + 1));
+                operations.change(i);
+            }
+        }
+
+        TrackTable.Builder merged = new TrackTable.Builder(working.size());
+        for (int ref : working) {
+            if (ref >= 0) {
+                merged.addRow(table, ref);
+            } else {
+                merged.addRow(upserts, -ref - 1);
+            }
+        }
+
+        if (isSearchIndexReady) {
+            for (Long id : toRemove) {
+                searchIndex.remove(id);
+            }
+            for (int upsertRow : inserts) {
+                indexRow(upserts, upsertRow);
+            }
+            for (int upsertRow : inPlace) {
+                indexRow(upserts, upsertRow);
+            }
+        }
+
+        TrackTable mergedTable = merged.build();
+        Library updated = Library.build(mergedTable);
+        LibraryDelta delta = new LibraryDelta(
+                current.songs.size(),
+                current.albums.size(),
+                current.artists.size(),
+                operations.build(),
+                changedIds,
+                DiffUtil.calculateDiff(new AlbumDiffCallback(current.albums, updated.albums)),
+                DiffUtil.calculateDiff(new ArtistDiffCallback(current.artists, updated.artists)),
+                updated.songs,
+                updated.albums,
+                updated.artists
+        );
+
+        library = updated;
+        snapshot.write(mergedTable, syncGeneration, syncDateModified);
+        mainHandler.post(() -> notifyLibraryDelta(delta));
+    }
+
+    private void indexRow(TrackTable table, int row) {
+        searchIndex.put(table.getId(row), table.getSearchKey(row));
+    }
+
+    /** Songs whose title, artist or album contains the folded query, in title order */
+    private TrackList exactSearch(Library current, String folded) {
+        RowList rows = new RowList();
+        if (isSearchIndexReady) {
+            searchIndex.search(folded, id -> {
+                int row = current.rowsById.get(id);
+                if (row != LongIntHashMap.NO_VALUE) {
+                    rows.add(row);
+                }
+            });
+        } else if (!folded.isEmpty()) {
+            TrackTable table = current.table;
+            for (int row = 0; row < table.size(); row++) {
+                if (table.getSearchKey(row).contains(folded)) {
+                    rows.add(row);
+                }
+            }
+        }
+
+        // Rows are in title order, so sorting them restores the song list order
+        return new TrackList(current.table, rows.sorted());
+    }
+
+    /** The best ranked matches of a search and how many songs matched overall */
+    public static final class RankedSongs {
+        public final List<MusicItem> songs;
+        public final int totalMatches;
+
+        RankedSongs(List<MusicItem> songs, int totalMatches) {
+            this.songs = songs;
+            this.totalMatches = totalMatches;
+        }
+
+        public boolean hasMore() {
+            return songs.size() < totalMatches;
+        }
+    }
+
+    /**
+     * Ranked search that tolerates typos and returns at most {@code limit} songs, best
+     * first. Ask again with a larger limit to page further down the ranking.
+     * Call it off the main thread.
+     */
+    public RankedSongs searchRanked(String query, int limit) {
+        Library current = library;
+        String folded = SearchIndex.fold(query);
+
+        if (!isSearchIndexReady) {
+            // Until the index exists, fall back to exact matches in title order
+            TrackList matches = exactSearch(current, folded);
+            int[] rows = new int[Math.min(limit, matches.size())];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = matches.rowAt(i);
+            }
+            return new RankedSongs(new TrackList(current.table, rows), matches.size());
+        }
+
+        SearchIndex.Ranked ranked = searchIndex.rank(folded, limit, current.rowsById);
+        return new RankedSongs(new TrackList(current.table, ranked.rows), ranked.totalMatches);
+    }
+
+    /** All songs sorted by title */
+    public TrackList getSongs() {
+        return library.songs;
+    }
+
+    public List<AlbumItem> getAlbums() {
+        return library.albums;
+    }
+
+    public List<ArtistItem> getArtists() {
+        return library.artists;
+    }
+
+    /** Songs of an album in track order */
+    public List<MusicItem> getSongsForAlbum(long albumId) {
+        Library current = library;
+        int[] rows = current.albumRows.get(albumId);
+        return rows != null ? new TrackList(current.table, rows) : Collections.emptyList();
+    }
+
+    /** Songs of an artist ordered by album, track and title */
+    public List<MusicItem> getSongsForArtist(String artistName) {
+        Library current = library;
+        int[] rows = current.artistRows.get(artistName);
+        return rows != null ? new TrackList(current.table, rows) : Collections.emptyList();
+    }
+
+    public MusicItem getSong(long songId) {
+        return library.getSong(songId);
+    }
+
+    /**
+     * Id of the library song stored at the path, or -1 if there is none. When the path
+     * does not match exactly the file name is tried, provided only one song has it, so
+     * playlists written with relative paths or on another device still resolve.
+     */
+    public long findSongIdByPath(String path) {
+        Library current = library;
+        int row = current.findRowByPath(path);
+        return row >= 0 ? current.table.getId(row) : -1;
+    }
+
+    /** Songs resolved for a list of ids, in the order the ids were given */
+    public static final class ResolvedSongs {
+        public final List<MusicItem> songs;
+        public final List<Long> missingIds;
+
+        ResolvedSongs(List<MusicItem> songs, List<Long> missingIds) {
+            this.songs = songs;
+            this.missingIds = missingIds;
+        }
+    }
+
+    /**
+     * Resolve ids to songs, serving them from the in-memory index and fetching the rest
+     * from MediaStore in batched IN queries. Ids MediaStore no longer knows are reported
+     * as missing. Blocks on MediaStore, so call it off the main thread.
+     */
+    public ResolvedSongs resolveSongs(long[] ids) {
+        Library current = library;
+        Map<Long, MusicItem> resolved = new HashMap<>(ids.length * 2);
+        List<Long> unresolved = new ArrayList<>();
+
+        for (long id : ids) {
+            MusicItem song = current.getSong(id);
+            if (song != null) {
+                resolved.put(id, song);
+            } else if (!resolved.containsKey(id)) {
+                unresolved.add(id);
+            }
+        }
+
+        if (!unresolved.isEmpty()) {
+            try {
+                TrackTable fetched = queryTracksById(unresolved).tracks.build();
+                for (int row = 0; row < fetched.size(); row++) {
+                    resolved.put(fetched.getId(row), fetched.toMusicItem(row));
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error resolving songs", e);
+                // Without an answer from MediaStore nothing can be called missing
+                unresolved.clear();
+            }
+        }
+
+        List<MusicItem> songs = new ArrayList<>(ids.length);
+        List<Long> missingIds = new ArrayList<>();
+        for (long id : ids) {
+            MusicItem song = resolved.get(id);
+            if (song != null) {
+                songs.add(song);
+            } else if (!unresolved.isEmpty()) {
+                missingIds.add(id);
+            }
+        }
+        return new ResolvedSongs(songs, missingIds);
+    }
+
+    private void notifyLibraryChanged() {
+        for (OnLibraryChangedListener listener : listeners) {
+            listener.onLibraryChanged();
+        }
+    }
+
+    private void notifyLibraryDelta(LibraryDelta delta) {
+        for (OnLibraryChangedListener listener : listeners) {
+            listener.onLibraryDelta(delta);
+        }
+    }
+
+    private void notifyLibraryLoadFailed() {
+        for (OnLibraryChangedListener listener : listeners) {
+            listener.onLibraryLoadFailed();
+        }
+    }
+
+    private ScanResult queryChangedTracks() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && syncGeneration > 0) {
+            return queryTracks(MediaStore.Audio.Media.GENERATION_MODIFIED + " > ?",
+                    new String[]{String.valueOf(syncGeneration)});
+        }
+        // DATE_MODIFIED has one second resolution, so rows from the last second are read again
+        return queryTracks(MediaStore.Audio.Media.DATE_MODIFIED + " >= ?",
+                new String[]{String.valueOf(syncDateModified)});
+    }
+
+    private ScanResult queryTracksById(List<Long> ids) {
+        ScanResult result = new ScanResult();
+        for (int start = 0; start < ids.size(); start += MAX_SQL_VARIABLES) {
+            int end = Math.min(start + MAX_SQL_VARIABLES, ids.size());
+            StringBuilder selection = new StringBuilder(MediaStore.Audio.Media._ID + " IN (");
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                args[i - start] = String.valueOf(ids.get(i));
+            }
+            selection.append(')');
+            queryTracks(selection.toString(), args, result);
+        }
+        return result;
+    }
+
+    private Set<Long> queryLiveIds() {
+        Set<Long> ids = new HashSet<>();
+        String[] projection = {MediaStore.Audio.Media._ID};
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
+
+        try (Cursor cursor = appContext.getContentResolver().query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projection, selection, null, null)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private ScanResult queryTracks(String extraSelection, String[] selectionArgs) {
+        ScanResult result = new ScanResult();
+        queryTracks(extraSelection, selectionArgs, result);
+        return result;
+    }
+
+    private void queryTracks(String extraSelection, String[] selectionArgs, ScanResult result) {
+        ContentResolver contentResolver = appContext.getContentResolver();
+        Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        boolean hasGeneration = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+
+        List<String> projection = new ArrayList<>(Arrays.asList(
+                MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media.ARTIST,
+                MediaStore.Audio.Media.ALBUM,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.DATA,
+                MediaStore.Audio.Media.ALBUM_ID,
+                MediaStore.Audio.Media.TRACK,
+                MediaStore.Audio.Media.DATE_MODIFIED
+        ));
+        if (hasGeneration) {
+            projection.add(MediaStore.Audio.Media.GENERATION_MODIFIED);
+        }
+
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
+        if (extraSelection != null) {
+            selection += " AND " + extraSelection;
+        }
+
+        try (Cursor cursor = contentResolver.query(musicUri, projection.toArray(new String[0]),
+                selection, selectionArgs, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
+                int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
+                int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
+                int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
+                int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
+                int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
+                int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
+                int trackColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TRACK);
+                int dateModifiedColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_MODIFIED);
+                int generationColumn = hasGeneration
+                        ? cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.GENERATION_MODIFIED)
+                        : -1;
+
+                do {
+                    long id = cursor.getLong(idColumn);
+                    String title = cursor.getString(titleColumn);
+                    String artist = cursor.getString(artistColumn);
+                    String album = cursor.getString(albumColumn);
+                    long duration = cursor.getLong(durationColumn);
+                    String path = cursor.getString(pathColumn);
+                    long albumId = cursor.getLong(albumIdColumn);
+                    int trackNumber = cursor.getInt(trackColumn);
+
+                    result.tracks.add(id, title, artist, album, duration, path, albumId, trackNumber);
+                    result.maxDateModified = Math.max(result.maxDateModified, cursor.getLong(dateModifiedColumn));
+                    if (generationColumn >= 0) {
+                        result.maxGeneration = Math.max(result.maxGeneration, cursor.getLong(generationColumn));
+                    }
+
+                } while (cursor.moveToNext());
+            }
+        }
+    }
+
+    private static TrackTable sortedTable(TrackTable tracks) {
+        Integer[] order = new Integer[tracks.size()];
+        for (int row = 0; row < order.length; row++) {
+            order[row] = row;
+        }
+        Arrays.sort(order, (a, b) -> Library.compareSongs(tracks, a, tracks, b));
+
+        TrackTable.Builder sorted = new TrackTable.Builder(order.length);
+        for (int row : order) {
+            sorted.addRow(tracks, row);
+        }
+        return sorted.build();
+    }
+
+    private static boolean keepsPosition(TrackTable table, int position, TrackTable upserts, int upsertRow) {
+        return (position == 0 || Library.compareSongs(table, position - 1, upserts, upsertRow) <= 0) &&
+                (position == table.size() - 1 ||
+                        Library.compareSongs(upserts, upsertRow, table, position + 1) <= 0);
+    }
+
+    private static int insertionPoint(List<Integer> working, TrackTable table, TrackTable upserts, int upsertRow) {
+        int low = 0;
+        int high = working.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int ref = working.get(mid);
+            int result = ref >= 0
+                    ? Library.compareSongs(table, ref, upserts, upsertRow)
+                    : Library.compareSongs(upserts, -ref - 1, upserts, upsertRow);
+            if (result <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class ScanResult {
+        final TrackTable.Builder tracks = new TrackTable.Builder(0);
+        long maxGeneration = 0;
+        long maxDateModified = 0;
+    }
+
+    private static final class AlbumDiffCallback extends DiffUtil.Callback {
+        private final List<AlbumItem> oldList;
+        private final List<AlbumItem> newList;
+
+        AlbumDiffCallback(List<AlbumItem> oldList, List<AlbumItem> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            AlbumItem oldItem = oldList.get(oldPosition);
+            AlbumItem newItem = newList.get(newPosition);
+            return oldItem.getAlbumId() == newItem.getAlbumId() &&
+                    Objects.equals(oldItem.getAlbumName(), newItem.getAlbumName());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            AlbumItem oldItem = oldList.get(oldPosition);
+            AlbumItem newItem = newList.get(newPosition);
+            return oldItem.getSongCount() == newItem.getSongCount() &&
+                    Objects.equals(oldItem.getArtistName(), newItem.getArtistName());
+        }
+    }
+
+    private static final class ArtistDiffCallback extends DiffUtil.Callback {
+        private final List<ArtistItem> oldList;
+        private final List<ArtistItem> newList;
+
+        ArtistDiffCallback(List<ArtistItem> oldList, List<ArtistItem> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return Objects.equals(oldList.get(oldPosition).getArtistName(),
+                    newList.get(newPosition).getArtistName());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            ArtistItem oldItem = oldList.get(oldPosition);
+            ArtistItem newItem = newList.get(newPosition);
+            return oldItem.getSongCount() == newItem.getSongCount() &&
+                    oldItem.getTotalDuration() == newItem.getTotalDuration() &&
+                    Objects.equals(oldItem.getArtistImageUri(), newItem.getArtistImageUri());
+        }
+    }
+
+    /** Immutable result of one scan together with every view derived from it */
+    private static final class Library {
+
+        static final Library EMPTY = build(TrackTable.EMPTY);
+
+        /** Rows in title order, so a row index is also the song's list position */
+        final TrackTable table;
+        final TrackList songs;
+        final List<AlbumItem> albums;
+        final List<ArtistItem> artists;
+        final LongIntHashMap rowsById;
+        final Map<Long, int[]> albumRows;
+        final Map<String, int[]> artistRows;
+        // Built on the first path lookup; most sessions never resolve a path
+        private volatile PathIndex pathIndex;
+
+        private Library(TrackTable table, List<AlbumItem> albums, List<ArtistItem> artists,
+                        LongIntHashMap rowsById, Map<Long, int[]> albumRows,
+                        Map<String, int[]> artistRows) {
+            this.table = table;
+            this.songs = new TrackList(table);
+            this.albums = albums;
+            this.artists = artists;
+            this.rowsById = rowsById;
+            this.albumRows = albumRows;
+            this.artistRows = artistRows;
+        }
+
+        boolean contains(long songId) {
+            return rowsById.containsKey(songId);
+        }
+
+        MusicItem getSong(long songId) {
+            int row = rowsById.get(songId);
+            return row != LongIntHashMap.NO_VALUE ? table.toMusicItem(row) : null;
+        }
+
+        /** Row of the song at the path, falling back to a file name only one song has */
+        int findRowByPath(String path) {
+            PathIndex index = pathIndex;
+            if (index == null) {
+                index = new PathIndex(table);
+                pathIndex = index;
+            }
+            return index.find(path);
+        }
+
+        static int compareSongs(TrackTable a, int rowA, TrackTable b, int rowB) {
+            int result = compareText(a.getTitle(rowA), b.getTitle(rowB));
+            return result != 0 ? result : Long.compare(a.getId(rowA), b.getId(rowB));
+        }
+
+        static Library build(TrackTable table) {
+            int size = table.size();
+            LongIntHashMap rowsById = new LongIntHashMap(size);
+            Map<String, AlbumItem> albumMap = new HashMap<>();
+            Map<String, ArtistItem> artistMap = new HashMap<>();
+            Map<Long, RowList> albumTracks = new HashMap<>();
+            Map<String, RowList> artistTracks = new HashMap<>();
+
+            for (int row = 0; row < size; row++) {
+                rowsById.put(table.getId(row), row);
+                long albumId = table.getAlbumId(row);
+
+                String albumName = table.getAlbum(row);
+                if (albumName != null && !albumName.trim().isEmpty()) {
+                    String albumKey = albumId + "_" + albumName;
+                    AlbumItem albumItem = albumMap.get(albumKey);
+                    if (albumItem == null) {
+                        String artistName = table.getArtist(row);
+                        albumMap.put(albumKey, new AlbumItem(
+                                albumId,
+                                albumName,
+                                artistName != null ? artistName : "Unknown Artist",
+                                table.getAlbumArtUri(row),
+                                1
+                        ));
+                    } else {
+                        albumItem.setSongCount(albumItem.getSongCount() + 1);
+                    }
+                }
+
+                RowList inAlbum = albumTracks.get(albumId);
+                if (inAlbum == null) {
+                    inAlbum = new RowList();
+                    albumTracks.put(albumId, inAlbum);
+                }
+                inAlbum.add(row);
+
+                String artistName = table.getArtist(row);
+                if (artistName != null && !artistName.trim().isEmpty() &&
+                        !artistName.equals("<unknown>")) {
+                    ArtistItem artistItem = artistMap.get(artistName);
+                    if (artistItem == null) {
+                        artistMap.put(artistName, new ArtistItem(
+                                artistName,
+                                table.getAlbumArtUri(row),
+                                1,
+                                table.getDuration(row)
+                        ));
+                    } else {
+                        artistItem.setSongCount(artistItem.getSongCount() + 1);
+                        artistItem.addDuration(table.getDuration(row));
+                    }
+                }
+
+                if (artistName != null) {
+                    RowList byArtist = artistTracks.get(artistName);
+                    if (byArtist == null) {
+                        byArtist = new RowList();
+                        artistTracks.put(artistName, byArtist);
+                    }
+                    byArtist.add(row);
+                }
+            }
+
+            List<AlbumItem> albums = new ArrayList<>(albumMap.values());
+            Collections.sort(albums, (a, b) -> compareText(a.getAlbumName(), b.getAlbumName()));
+
+            List<ArtistItem> artists = new ArrayList<>(artistMap.values());
+            Collections.sort(artists, (a, b) -> compareText(a.getArtistName(), b.getArtistName()));
+
+            Comparator<Integer> albumOrder = (a, b) -> {
+                int result = Integer.compare(table.getTrackNumber(a), table.getTrackNumber(b));
+                return result != 0 ? result : compareText(table.getTitle(a), table.getTitle(b));
+            };
+            Comparator<Integer> artistOrder = (a, b) -> {
+                int result = compareText(table.getAlbum(a), table.getAlbum(b));
+                return result != 0 ? result : albumOrder.compare(a, b);
+            };
+
+            Map<Long, int[]> albumRows = new HashMap<>(albumTracks.size() * 2);
+            for (Map.Entry<Long, RowList> entry : albumTracks.entrySet()) {
+                albumRows.put(entry.getKey(), entry.getValue().sorted(albumOrder));
+            }
+
+            Map<String, int[]> artistRows = new LinkedHashMap<>(artistTracks.size() * 2);
+            for (Map.Entry<String, RowList> entry : artistTracks.entrySet()) {
+                artistRows.put(entry.getKey(), entry.getValue().sorted(artistOrder));
+            }
+
+            return new Library(
+                    table,
+                    Collections.unmodifiableList(albums),
+                    Collections.unmodifiableList(artists),
+                    rowsById,
+                    albumRows,
+                    artistRows
+            );
+        }
+
+        private static int compareText(String a, String b) {
+            return String.CASE_INSENSITIVE_ORDER.compare(a != null ? a : "", b != null ? b : "");
+        }
+    }
+
+    /** Hash lookups from file path, and from bare file name, to table row */
+    private static final class PathIndex {
+
+        private static final int AMBIGUOUS = -2;
+
+        private final Map<String, Integer> rowsByPath;
+        private final Map<String, Integer> rowsByFileName;
+
+        PathIndex(TrackTable table) {
+            int size = table.size();
+            rowsByPath = new HashMap<>(size * 2);
+            rowsByFileName = new HashMap<>(size * 2);
+            for (int row = 0; row < size; row++) {
+                String path = table.getPath(row);
+                if (path == null) continue;
+                rowsByPath.put(path, row);
+                String fileName = fileName(path);
+                Integer existing = rowsByFileName.put(fileName, row);
+                if (existing != null) {
+                    rowsByFileName.put(fileName, AMBIGUOUS);
+                }
+            }
+        }
+
+        int find(String path) {
+            Integer row = rowsByPath.get(path);
+            if (row == null) {
+                row = rowsByFileName.get(fileName(path));
+            }
+            return row != null && row != AMBIGUOUS ? row : -1;
+        }
+
+        private static String fileName(String path) {
+            return path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /** Growable list of table rows used while grouping */
+    private static final class RowList {
+        private int[] rows = new int[4];
+        private int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(rows, size);
+        }
+
+        int[] sorted() {
+            int[] result = Arrays.copyOf(rows, size);
+            Arrays.sort(result);
+            return result;
+        }
+
+        int[] sorted(Comparator<Integer> order) {
+            Integer[] boxed = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                boxed[i] = rows[i];
+            }
+            Arrays.sort(boxed, order);
+
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = boxed[i];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.felle.fusic.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.felle.fusic.ui.music.MusicItem;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Title-sorted song list read from MediaStore one page at a time. It reports the full
+ * row count up front so scroll position and fast scroll cover the whole library, while
+ * rows that are not loaded yet come back as null until their page arrives. Used to
+ * show something while the repository is still doing its first full scan.
+ *
+ * Not thread safe: call everything except the constructor on the main thread.
+ */
+public final class PagedSongList extends AbstractList<MusicItem>
+        implements RandomAccess, ComponentCallbacks2 {
+
+    private static final String TAG = "PagedSongList";
+
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_PAGES = 1;
+    // Pages kept on each side of the last requested one when memory runs low
+    private static final int TRIM_WINDOW_PAGES = 2;
+    private static final int MAX_RESIDENT_PAGES = 20;
+
+    private static final String SELECTION = MediaStore.Audio.Media.IS_MUSIC + " != 0";
+    private static final String SORT_ORDER = MediaStore.Audio.Media.TITLE + " COLLATE NOCASE ASC, " +
+            MediaStore.Audio.Media._ID + " ASC";
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.ALBUM_ID
+    };
+
+    public interface Callback {
+        /** The row count is known and the first page is loaded */
+        void onReady(PagedSongList list);
+
+        /** Rows in the range are now loaded and should be rebound */
+        void onRangeLoaded(int start, int count);
+    }
+
+    private final Context appContext;
+    private final Callback callback;
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<Integer, MusicItem[]> pages = new HashMap<>();
+    private final Set<Integer> pendingPages = new HashSet<>();
+    private int size = 0;
+    private int lastRequestedPage = 0;
+    private boolean closed = false;
+
+    public PagedSongList(Context context, Callback callback) {
+        this.appContext = context.getApplicationContext();
+        this.callback = callback;
+    }
+
+    /** Count the rows and load the first page before reporting ready */
+    public void open() {
+        appContext.registerComponentCallbacks(this);
+        executorService.execute(() -> {
+            int count;
+            MusicItem[] firstPage;
+            try {
+                count = queryCount();
+                firstPage = count > 0 ? queryPage(0) : new MusicItem[0];
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading first page", e);
+                return;
+            }
+
+            mainHandler.post(() -> {
+                if (closed) return;
+                size = count;
+                pages.put(0, firstPage);
+                callback.onReady(this);
+            });
+        });
+    }
+
+    /** Stop loading and release every page */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        appContext.unregisterComponentCallbacks(this);
+        executorService.shutdownNow();
+        pages.clear();
+        pendingPages.clear();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** The song at the index, or null while its page is still loading */
+    @Override
+    public MusicItem get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        int page = index / PAGE_SIZE;
+        lastRequestedPage = page;
+        for (int neighbour = page - PREFETCH_PAGES; neighbour <= page + PREFETCH_PAGES; neighbour++) {
+            requestPage(neighbour);
+        }
+
+        MusicItem[] rows = pages.get(page);
+        int offset = index - page * PAGE_SIZE;
+        return rows != null && offset < rows.length ? rows[offset] : null;
+    }
+
+    /** Songs whose pages are loaded, in list order */
+    public List<MusicItem> getLoadedItems() {
+        List<MusicItem> loaded = new ArrayList<>();
+        int pageCount = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int page = 0; page < pageCount; page++) {
+            MusicItem[] rows = pages.get(page);
+            if (rows == null) continue;
+            for (MusicItem item : rows) {
+                loaded.add(item);
+            }
+        }
+        return loaded;
+    }
+
+    private void requestPage(int page) {
+        if (closed || page < 0 || page * PAGE_SIZE >= size ||
+                pages.containsKey(page) || !pendingPages.add(page)) {
+            return;
+        }
+
+        executorService.execute(() -> {
+            MusicItem[] rows;
+            try {
+                rows = queryPage(page);
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading page " + page, e);
+                mainHandler.post(() -> pendingPages.remove(page));
+                return;
+            }
+
+            mainHandler.post(() -> {
+                pendingPages.remove(page);
+                if (closed) return;
+                pages.put(page, rows);
+                if (pages.size() > MAX_RESIDENT_PAGES) {
+                    trimPages(MAX_RESIDENT_PAGES / 2);
+                }
+                callback.onRangeLoaded(page * PAGE_SIZE, rows.length);
+            });
+        });
+    }
+
+    /** Drop pages further than the given distance from where the user last looked */
+    private void trimPages(int window) {
+        Iterator<Integer> iterator = pages.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (Math.abs(iterator.next() - lastRequestedPage) > window) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mainHandler.post(() -> trimPages(TRIM_WINDOW_PAGES));
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mainHandler.post(() -> trimPages(TRIM_WINDOW_PAGES));
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    private int queryCount() {
+        try (Cursor cursor = appContext.getContentResolver().query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Audio.Media._ID}, SELECTION, null, null)) {
+            return cursor != null ? cursor.getCount() : 0;
+        }
+    }
+
+    private MusicItem[] queryPage(int page) {
+        ContentResolver contentResolver = appContext.getContentResolver();
+        int offset = page * PAGE_SIZE;
+
+        Cursor cursor;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // Android 11 rejects LIMIT inside the sort order, so the paging goes through query args
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, SELECTION);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, SORT_ORDER);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, PAGE_SIZE);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+            cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    PROJECTION, queryArgs, null);
+        } else {
+            cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    PROJECTION, SELECTION, null,
+                    SORT_ORDER + " LIMIT " + PAGE_SIZE + " OFFSET " + offset);
+        }
+
+        List<MusicItem> rows = new ArrayList<>(PAGE_SIZE);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    rows.add(new MusicItem(
+                            cursor.getLong(0),
+                            cursor.getString(1),
+                            cursor.getString(2),
+                            cursor.getString(3),
+                            cursor.getLong(4),
+                            cursor.getString(5),
+                            cursor.getLong(6)
+                    ));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return rows.toArray(new MusicItem[0]);
+    }
+}
@@ -0,0 +1,514 @@
+package com.felle.fusic.data;
+
+import com.felle.fusic.util.LongIntHashMap;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram inverted index over the title, artist and album of every song. Each song gets
+ * a stable slot; a posting list holds the sorted slots of songs whose fields contain the
+ * trigram. A query intersects the lists of its own trigrams, smallest first, and checks
+ * the few survivors against the stored key, so a keystroke no longer touches every track.
+ *
+ * Updated in place as songs are added or removed. All methods are synchronized: updates
+ * come from the library executor while queries run on the caller's thread.
+ */
+final class SearchIndex {
+
+    private static final int GRAM_LENGTH = 3;
+    static final char FIELD_SEPARATOR = '\u0000';
+
+    // Title, artist, album
+    private static final int[] FIELD_WEIGHTS = {3, 2, 1};
+    private static final int MATCH_WHOLE = 7;
+    private static final int MATCH_PREFIX = 6;
+    private static final int MATCH_WORD = 5;
+    private static final int MATCH_INFIX = 3;
+    // Minus the edit distance, so one edit scores 2 and two edits score 1
+    private static final int MATCH_FUZZY = 3;
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern PUNCTUATION = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Trigram to its list in postingLists, so a lookup never boxes the key. A list that
+    // empties keeps its place; the trigram is likely to come back with the next song.
+    private final LongIntHashMap postingIndex = new LongIntHashMap();
+    private Postings[] postingLists = new Postings[256];
+    private int postingCount = 0;
+    private final LongIntHashMap slotsById = new LongIntHashMap();
+
+    private long[] slotIds = new long[64];
+    private String[] slotKeys = new String[64];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+
+    // Reused between queries to keep a search from allocating per candidate
+    private int[] scratch = new int[64];
+    private int[] counts = new int[64];
+    private int[] previousRow = new int[16];
+    private int[] currentRow = new int[16];
+
+    /** Receives the id of each song that matches a query */
+    interface Matches {
+        void accept(long id);
+    }
+
+    /**
+     * Folded form used for both indexed text and queries: compatibility decomposition
+     * (so full-width and ligature forms match their plain letters), diacritics removed,
+     * language-neutral lowercase, and runs of punctuation and spaces collapsed to one space.
+     */
+    static String fold(String text) {
+        if (text == null || text.isEmpty()) return "";
+
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        folded = COMBINING_MARKS.matcher(folded).replaceAll("");
+        folded = folded.toLowerCase(Locale.ROOT);
+        folded = PUNCTUATION.matcher(folded).replaceAll(" ");
+        return folded.trim();
+    }
+
+    /** Folded title, artist and album joined into the key a song is matched against */
+    static String searchKey(String title, String artist, String album) {
+        return fold(title) + FIELD_SEPARATOR + fold(artist) + FIELD_SEPARATOR + fold(album);
+    }
+
+    synchronized int size() {
+        return slotsById.size();
+    }
+
+    synchronized void clear() {
+        postingIndex.clear();
+        Arrays.fill(postingLists, 0, postingCount, null);
+        postingCount = 0;
+        slotsById.clear();
+        Arrays.fill(slotKeys, 0, slotCount, null);
+        slotCount = 0;
+        freeCount = 0;
+    }
+
+    /** Index a song under its precomputed search key, replacing any earlier entry */
+    synchronized void put(long id, String key) {
+        remove(id);
+
+        int slot = allocateSlot();
+        slotIds[slot] = id;
+        slotKeys[slot] = key;
+        slotsById.put(id, slot);
+
+        for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+            long gram = gramAt(key, i);
+            if (gram < 0) continue;
+
+            Postings list = postingsFor(gram);
+            if (list == null) {
+                list = new Postings();
+                if (postingCount == postingLists.length) {
+                    postingLists = Arrays.copyOf(postingLists, postingCount * 2);
+                }
+                postingIndex.put(gram, postingCount);
+                postingLists[postingCount++] = list;
+            }
+            list.add(slot);
+        }
+    }
+
+    synchronized void remove(long id) {
+        int slot = slotsById.remove(id);
+        if (slot == LongIntHashMap.NO_VALUE) return;
+
+        String key = slotKeys[slot];
+        for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+            long gram = gramAt(key, i);
+            if (gram < 0) continue;
+
+            Postings list = postingsFor(gram);
+            if (list != null) {
+                list.remove(slot);
+            }
+        }
+
+        slotKeys[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Report every song whose title, artist or album contains the folded query.
+     * Queries shorter than a trigram fall back to a scan of the stored keys.
+     */
+    synchronized void search(String foldedQuery, Matches matches) {
+        if (foldedQuery.isEmpty()) return;
+
+        if (foldedQuery.length() < GRAM_LENGTH) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                String key = slotKeys[slot];
+                if (key != null && key.contains(foldedQuery)) {
+                    matches.accept(slotIds[slot]);
+                }
+            }
+            return;
+        }
+
+        int candidates = intersect(foldedQuery);
+
+        // Trigrams can match out of order, so confirm the whole query against the key
+        for (int i = 0; i < candidates; i++) {
+            int slot = scratch[i];
+            if (slotKeys[slot].contains(foldedQuery)) {
+                matches.accept(slotIds[slot]);
+            }
+        }
+    }
+
+    /** Rows of the best matches in rank order, plus how many songs matched in total */
+    static final class Ranked {
+        static final Ranked EMPTY = new Ranked(new int[0], 0);
+
+        final int[] rows;
+        final int totalMatches;
+
+        Ranked(int[] rows, int totalMatches) {
+            this.rows = rows;
+            this.totalMatches = totalMatches;
+        }
+    }
+
+    /**
+     * Score every candidate and keep the best {@code limit} in a bounded heap. Exact
+     * matches rank by where the query hits (whole field, prefix, word start, infix)
+     * times the field weight; longer queries also admit matches within a small edit
+     * distance, found by counting shared trigrams. Ties keep song list order.
+     *
+     * @param rowsById maps ids to rows of the library being shown; unknown ids are skipped
+     */
+    synchronized Ranked rank(String foldedQuery, int limit, LongIntHashMap rowsById) {
+        if (foldedQuery.isEmpty() || limit <= 0) return Ranked.EMPTY;
+
+        int maxEdits = foldedQuery.length() < 4 ? 0 : foldedQuery.length() < 8 ? 1 : 2;
+        TopK top = new TopK(limit);
+        int total = 0;
+
+        int candidates;
+        if (foldedQuery.length() < GRAM_LENGTH) {
+            candidates = allSlots();
+        } else if (maxEdits == 0) {
+            candidates = intersect(foldedQuery);
+        } else {
+            candidates = countShared(foldedQuery, maxEdits);
+        }
+
+        for (int i = 0; i < candidates; i++) {
+            int slot = scratch[i];
+            String key = slotKeys[slot];
+            if (key == null) continue;
+
+            int score = score(key, foldedQuery, maxEdits);
+            if (score <= 0) continue;
+
+            int row = rowsById.get(slotIds[slot]);
+            if (row == LongIntHashMap.NO_VALUE) continue;
+
+            total++;
+            top.offer(score, row);
+        }
+        return new Ranked(top.drainRows(), total);
+    }
+
+    private int allSlots() {
+        ensureScratch(slotCount);
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotKeys[slot] != null) {
+                scratch[count++] = slot;
+            }
+        }
+        return count;
+    }
+
+    /** Slots holding every trigram of the query, copied into scratch */
+    private int intersect(String foldedQuery) {
+        Postings smallest = null;
+        for (int i = 0; i + GRAM_LENGTH <= foldedQuery.length(); i++) {
+            Postings list = postingsFor(gramAt(foldedQuery, i));
+            if (list == null || list.size == 0) return 0;
+            if (smallest == null || list.size < smallest.size) {
+                smallest = list;
+            }
+        }
+        if (smallest == null) return 0;
+
+        ensureScratch(smallest.size);
+        System.arraycopy(smallest.slots, 0, scratch, 0, smallest.size);
+        int candidates = smallest.size;
+        for (int i = 0; i + GRAM_LENGTH <= foldedQuery.length() && candidates > 0; i++) {
+            Postings list = postingsFor(gramAt(foldedQuery, i));
+            if (list != smallest) {
+                candidates = list.retainIn(scratch, candidates);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Slots sharing enough distinct trigrams with the query to be within the edit budget.
+     * One edit destroys at most three trigrams, so that many may be missing per edit.
+     */
+    private int countShared(String foldedQuery, int maxEdits) {
+        if (counts.length < slotCount) {
+            counts = new int[Math.max(slotCount, counts.length * 2)];
+        }
+
+        int distinct = 0;
+        int touched = 0;
+        for (int i = 0; i + GRAM_LENGTH <= foldedQuery.length(); i++) {
+            long gram = gramAt(foldedQuery, i);
+            if (seenEarlier(foldedQuery, i, gram)) continue;
+            distinct++;
+
+            Postings list = postingsFor(gram);
+            if (list == null) continue;
+            for (int j = 0; j < list.size; j++) {
+                int slot = list.slots[j];
+                if (counts[slot]++ == 0) {
+                    ensureScratch(touched + 1);
+                    scratch[touched++] = slot;
+                }
+            }
+        }
+
+        int threshold = Math.max(1, distinct - GRAM_LENGTH * maxEdits);
+        int candidates = 0;
+        for (int i = 0; i < touched; i++) {
+            int slot = scratch[i];
+            if (counts[slot] >= threshold) {
+                scratch[candidates++] = slot;
+            }
+            counts[slot] = 0;
+        }
+        return candidates;
+    }
+
+    private Postings postingsFor(long gram) {
+        int index = postingIndex.get(gram);
+        return index == LongIntHashMap.NO_VALUE ? null : postingLists[index];
+    }
+
+    private static boolean seenEarlier(String text, int index, long gram) {
+        for (int i = 0; i < index; i++) {
+            if (gramAt(text, i) == gram) return true;
+        }
+        return false;
+    }
+
+    /** Best field score of the key, 0 if no field matches */
+    private int score(String key, String query, int maxEdits) {
+        int best = 0;
+        int start = 0;
+        for (int field = 0; field < FIELD_WEIGHTS.length; field++) {
+            int end = key.indexOf(FIELD_SEPARATOR, start);
+            if (end < 0) end = key.length();
+
+            int match = matchClass(key, start, end, query, maxEdits);
+            best = Math.max(best, match * FIELD_WEIGHTS[field]);
+            start = end + 1;
+            if (start > key.length()) break;
+        }
+        return best;
+    }
+
+    private int matchClass(String key, int start, int end, String query, int maxEdits) {
+        int length = query.length();
+        if (end - start < length - maxEdits) return 0;
+
+        int best = 0;
+        for (int index = key.indexOf(query, start); index >= 0 && index + length <= end;
+             index = key.indexOf(query, index + 1)) {
+            if (index == start) {
+                return end - start == length ? MATCH_WHOLE : MATCH_PREFIX;
+            }
+            best = Math.max(best, key.charAt(index - 1) == ' ' ? MATCH_WORD : MATCH_INFIX);
+            if (best == MATCH_WORD) break;
+        }
+        if (best > 0 || maxEdits == 0) return best;
+
+        int distance = substringDistance(key, start, end, query, maxEdits);
+        return distance <= maxEdits ? MATCH_FUZZY - distance : 0;
+    }
+
+    /** Smallest edit distance between the query and any substring of key[start, end) */
+    private int substringDistance(String key, int start, int end, String query, int maxEdits) {
+        int length = query.length();
+        if (previousRow.length <= length) {
+            previousRow = new int[length + 1];
+            currentRow = new int[length + 1];
+        }
+        for (int j = 0; j <= length; j++) {
+            previousRow[j] = j;
+        }
+
+        int best = length;
+        for (int i = start; i < end; i++) {
+            char c = key.charAt(i);
+            currentRow[0] = 0;
+            for (int j = 1; j <= length; j++) {
+                int cost = query.charAt(j - 1) == c ? 0 : 1;
+                currentRow[j] = Math.min(previousRow[j - 1] + cost,
+                        Math.min(previousRow[j], currentRow[j - 1]) + 1);
+            }
+            best = Math.min(best, currentRow[length]);
+            if (best == 0) break;
+
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        return best;
+    }
+
+    private void ensureScratch(int size) {
+        if (scratch.length < size) {
+            scratch = Arrays.copyOf(scratch, Math.max(size, scratch.length * 2));
+        }
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == slotIds.length) {
+            slotIds = Arrays.copyOf(slotIds, slotCount * 2);
+            slotKeys = Arrays.copyOf(slotKeys, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    /** Pack three chars into one key, or -1 if the gram crosses a field boundary */
+    private static long gramAt(String text, int start) {
+        char a = text.charAt(start);
+        char b = text.charAt(start + 1);
+        char c = text.charAt(start + 2);
+        if (a == FIELD_SEPARATOR || b == FIELD_SEPARATOR || c == FIELD_SEPARATOR) {
+            return -1;
+        }
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    /** Bounded min-heap of (score, row) packed into longs; the root is the weakest kept entry */
+    private static final class TopK {
+        private final long[] heap;
+        private int size;
+
+        TopK(int capacity) {
+            heap = new long[capacity];
+        }
+
+        void offer(int score, int row) {
+            // Higher score first, then lower row, i.e. earlier in title order
+            long entry = ((long) score << 32) | (Integer.MAX_VALUE - row);
+            if (size < heap.length) {
+                heap[size] = entry;
+                siftUp(size++);
+            } else if (entry > heap[0]) {
+                heap[0] = entry;
+                siftDown(0);
+            }
+        }
+
+        int[] drainRows() {
+            long[] entries = Arrays.copyOf(heap, size);
+            Arrays.sort(entries);
+            int[] rows = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = Integer.MAX_VALUE - (int) entries[size - 1 - i];
+            }
+            return rows;
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (heap[parent] <= heap[index]) return;
+                swap(parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int left = index * 2 + 1;
+                if (left >= size) return;
+                int smallest = left + 1 < size && heap[left + 1] < heap[left] ? left + 1 : left;
+                if (heap[index] <= heap[smallest]) return;
+                swap(index, smallest);
+                index = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long value = heap[a];
+            heap[a] = heap[b];
+            heap[b] = value;
+        }
+    }
+
+    /** Sorted, duplicate-free slot list */
+    private static final class Postings {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            // Slots are mostly handed out in increasing order, so appending is the common case
+            if (size > 0 && slots[size - 1] >= slot) {
+                int index = Arrays.binarySearch(slots, 0, size, slot);
+                if (index >= 0) return;
+                insertAt(-index - 1, slot);
+                return;
+            }
+            insertAt(size, slot);
+        }
+
+        void remove(int slot) {
+            int index = Arrays.binarySearch(slots, 0, size, slot);
+            if (index < 0) return;
+            System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+            size--;
+        }
+
+        /** Keep only the sorted candidates that are also in this list; returns the new count */
+        int retainIn(int[] candidates, int count) {
+            int kept = 0;
+            int i = 0;
+            int j = 0;
+            while (i < count && j < size) {
+                int candidate = candidates[i];
+                int slot = slots[j];
+                if (candidate == slot) {
+                    candidates[kept++] = candidate;
+                    i++;
+                    j++;
+                } else if (candidate < slot) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return kept;
+        }
+
+        private void insertAt(int index, int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            System.arraycopy(slots, index, slots, index + 1, size - index);
+            slots[index] = slot;
+            size++;
+        }
+    }
+}
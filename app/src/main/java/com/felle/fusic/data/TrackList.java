@@ -0,0 +1,75 @@
+package com.felle.fusic.data;
+
+import android.net.Uri;
+
+import com.felle.fusic.ui.music.MusicItem;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list view over rows of a {@link TrackTable}. Adapters bind through the
+ * column accessors; {@link #get(int)} only materialises a MusicItem when one is needed,
+ * for example to hand a song to the player.
+ */
+public final class TrackList extends AbstractList<MusicItem> implements RandomAccess {
+
+    private final TrackTable table;
+    private final int[] rows;
+
+    /** View over every row of the table in table order */
+    TrackList(TrackTable table) {
+        this(table, null);
+    }
+
+    /** View over the given rows, in the given order */
+    TrackList(TrackTable table, int[] rows) {
+        this.table = table;
+        this.rows = rows;
+    }
+
+    int rowAt(int index) {
+        return row(index);
+    }
+
+    private int row(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return rows != null ? rows[index] : index;
+    }
+
+    @Override
+    public int size() {
+        return rows != null ? rows.length : table.size();
+    }
+
+    @Override
+    public MusicItem get(int index) {
+        return table.toMusicItem(row(index));
+    }
+
+    public long getId(int index) {
+        return table.getId(row(index));
+    }
+
+    public String getTitle(int index) {
+        return table.getTitle(row(index));
+    }
+
+    public String getArtist(int index) {
+        return table.getArtist(row(index));
+    }
+
+    public String getAlbum(int index) {
+        return table.getAlbum(row(index));
+    }
+
+    public long getDuration(int index) {
+        return table.getDuration(row(index));
+    }
+
+    public Uri getAlbumArtUri(int index) {
+        return table.getAlbumArtUri(row(index));
+    }
+}
@@ -0,0 +1,221 @@
+package com.felle.fusic.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import com.felle.fusic.ui.music.MusicItem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Struct-of-arrays storage for the scanned library. Numeric columns live in primitive
+ * arrays and artist and album names are interned into small pools, so memory grows with
+ * the number of distinct strings rather than with one object graph per track.
+ * Rows are immutable once built.
+ */
+public final class TrackTable {
+
+    static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+
+    static final TrackTable EMPTY = new Builder(0).build();
+
+    private final int size;
+    private final long[] ids;
+    private final long[] durations;
+    private final long[] albumIds;
+    private final int[] trackNumbers;
+    private final String[] titles;
+    private final String[] paths;
+    private final String[] searchKeys;
+    private final int[] artistRefs;
+    private final int[] albumRefs;
+    private final String[] artistPool;
+    private final String[] albumPool;
+
+    private TrackTable(Builder builder) {
+        this.size = builder.size;
+        this.ids = Arrays.copyOf(builder.ids, size);
+        this.durations = Arrays.copyOf(builder.durations, size);
+        this.albumIds = Arrays.copyOf(builder.albumIds, size);
+        this.trackNumbers = Arrays.copyOf(builder.trackNumbers, size);
+        this.titles = Arrays.copyOf(builder.titles, size);
+        this.paths = Arrays.copyOf(builder.paths, size);
+        this.searchKeys = Arrays.copyOf(builder.searchKeys, size);
+        this.artistRefs = Arrays.copyOf(builder.artistRefs, size);
+        this.albumRefs = Arrays.copyOf(builder.albumRefs, size);
+        this.artistPool = builder.artistPool.toArray();
+        this.albumPool = builder.albumPool.toArray();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    public String getTitle(int row) {
+        return titles[row];
+    }
+
+    public String getArtist(int row) {
+        int ref = artistRefs[row];
+        return ref >= 0 ? artistPool[ref] : null;
+    }
+
+    public String getAlbum(int row) {
+        int ref = albumRefs[row];
+        return ref >= 0 ? albumPool[ref] : null;
+    }
+
+    public long getDuration(int row) {
+        return durations[row];
+    }
+
+    public String getPath(int row) {
+        return paths[row];
+    }
+
+    public long getAlbumId(int row) {
+        return albumIds[row];
+    }
+
+    public int getTrackNumber(int row) {
+        return trackNumbers[row];
+    }
+
+    /** Folded title, artist and album, computed once when the row was scanned */
+    String getSearchKey(int row) {
+        return searchKeys[row];
+    }
+
+    /** Album art URI, built on demand instead of being stored per track */
+    public Uri getAlbumArtUri(int row) {
+        return ContentUris.withAppendedId(ALBUM_ART_URI, albumIds[row]);
+    }
+
+    /** Materialise a row for APIs that still pass MusicItem around */
+    public MusicItem toMusicItem(int row) {
+        return new MusicItem(ids[row], titles[row], getArtist(row), getAlbum(row),
+                durations[row], paths[row], albumIds[row]);
+    }
+
+    boolean sameRow(int row, TrackTable other, int otherRow) {
+        return ids[row] == other.ids[otherRow] &&
+                durations[row] == other.durations[otherRow] &&
+                albumIds[row] == other.albumIds[otherRow] &&
+                trackNumbers[row] == other.trackNumbers[otherRow] &&
+                Objects.equals(titles[row], other.titles[otherRow]) &&
+                Objects.equals(getArtist(row), other.getArtist(otherRow)) &&
+                Objects.equals(getAlbum(row), other.getAlbum(otherRow)) &&
+                Objects.equals(paths[row], other.paths[otherRow]);
+    }
+
+    static final class Builder {
+        private int size;
+        private long[] ids;
+        private long[] durations;
+        private long[] albumIds;
+        private int[] trackNumbers;
+        private String[] titles;
+        private String[] paths;
+        private String[] searchKeys;
+        private int[] artistRefs;
+        private int[] albumRefs;
+        private final StringPool artistPool = new StringPool();
+        private final StringPool albumPool = new StringPool();
+
+        Builder(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            ids = new long[capacity];
+            durations = new long[capacity];
+            albumIds = new long[capacity];
+            trackNumbers = new int[capacity];
+            titles = new String[capacity];
+            paths = new String[capacity];
+            searchKeys = new String[capacity];
+            artistRefs = new int[capacity];
+            albumRefs = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(long id, String title, String artist, String album, long duration,
+                 String path, long albumId, int trackNumber) {
+            add(id, title, artist, album, duration, path, albumId, trackNumber,
+                    SearchIndex.searchKey(title, artist, album));
+        }
+
+        void add(long id, String title, String artist, String album, long duration,
+                 String path, long albumId, int trackNumber, String searchKey) {
+            ensureCapacity(size + 1);
+            searchKeys[size] = searchKey;
+            ids[size] = id;
+            titles[size] = title;
+            artistRefs[size] = artistPool.intern(artist);
+            albumRefs[size] = albumPool.intern(album);
+            durations[size] = duration;
+            paths[size] = path;
+            albumIds[size] = albumId;
+            trackNumbers[size] = trackNumber;
+            size++;
+        }
+
+        void addRow(TrackTable source, int row) {
+            add(source.ids[row], source.titles[row], source.getArtist(row), source.getAlbum(row),
+                    source.durations[row], source.paths[row], source.albumIds[row],
+                    source.trackNumbers[row], source.searchKeys[row]);
+        }
+
+        TrackTable build() {
+            return new TrackTable(this);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= ids.length) return;
+
+            int newCapacity = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            durations = Arrays.copyOf(durations, newCapacity);
+            albumIds = Arrays.copyOf(albumIds, newCapacity);
+            trackNumbers = Arrays.copyOf(trackNumbers, newCapacity);
+            titles = Arrays.copyOf(titles, newCapacity);
+            paths = Arrays.copyOf(paths, newCapacity);
+            searchKeys = Arrays.copyOf(searchKeys, newCapacity);
+            artistRefs = Arrays.copyOf(artistRefs, newCapacity);
+            albumRefs = Arrays.copyOf(albumRefs, newCapacity);
+        }
+    }
+
+    private static final class StringPool {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private String[] values = new String[16];
+        private int count;
+
+        int intern(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer existing = refs.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count] = value;
+            refs.put(value, count);
+            return count++;
+        }
+
+        String[] toArray() {
+            return Arrays.copyOf(values, count);
+        }
+    }
+}
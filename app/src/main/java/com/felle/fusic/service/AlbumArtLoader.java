@@ -0,0 +1,163 @@
+package com.felle.fusic.service;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.felle.fusic.ui.music.MusicItem;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes the album art MusicService shows in its notification and media session on a
+ * thread of its own. Covers are kept in a small LRU keyed by album and target size, so a
+ * play/pause or the next track of the same album reuses the bitmap. Songs without an
+ * embedded picture are remembered by song, not album, so they are not opened again on
+ * every refresh while other tracks of the album still get their cover.
+ */
+final class AlbumArtLoader {
+
+    interface Callback {
+        void onAlbumArtLoaded(MusicItem song, Bitmap albumArt);
+    }
+
+    private static final String TAG = "AlbumArtLoader";
+    // A 256dp cover is about 1 MB at xxxhdpi; room for the albums around the current one
+    private static final int CACHE_BYTES = 8 * 1024 * 1024;
+    private static final int MISSING_ENTRIES = 64;
+    private static final int TARGET_SIZE_DP = 256;
+
+    private final Context appContext;
+    private final Handler callbackHandler;
+    private final int targetSize;
+    private final ExecutorService decoder =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "AlbumArtLoader"));
+
+    private final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    // Song ids, since one track of an album can embed a picture another lacks
+    private final LruCache<Long, Boolean> missing = new LruCache<>(MISSING_ENTRIES);
+    // Only the latest request is decoded; skipped-past songs are dropped when their turn comes
+    private volatile long latestSongId = -1;
+
+    /** @param callbackHandler where load results are delivered */
+    AlbumArtLoader(Context context, Handler callbackHandler) {
+        this.appContext = context.getApplicationContext();
+        this.callbackHandler = callbackHandler;
+        this.targetSize = (int) (TARGET_SIZE_DP * context.getResources().getDisplayMetrics().density);
+    }
+
+    /** The art for the song if it has been decoded already, otherwise null */
+    Bitmap getCached(MusicItem song) {
+        return cache.get(keyFor(song));
+    }
+
+    /** Whether the song is known to have no embedded picture */
+    boolean isMissing(MusicItem song) {
+        return missing.get(song.getId()) != null;
+    }
+
+    /**
+     * Decode the song's art in the background and hand it to the callback on the callback
+     * handler. Nothing is delivered when the song has no art or a newer request replaced it.
+     */
+    void load(MusicItem song, Callback callback) {
+        String key = keyFor(song);
+        long songId = song.getId();
+        latestSongId = songId;
+        decoder.execute(() -> {
+            if (songId != latestSongId) return;
+
+            Bitmap albumArt = cache.get(key);
+            if (albumArt == null && missing.get(songId) == null) {
+                albumArt = decode(song);
+                if (albumArt != null) {
+                    cache.put(key, albumArt);
+                } else {
+                    missing.put(songId, Boolean.TRUE);
+                }
+            }
+            if (albumArt != null) {
+                Bitmap result = albumArt;
+                callbackHandler.post(() -> callback.onAlbumArtLoaded(song, result));
+            }
+        });
+    }
+
+    void shutdown() {
+        decoder.shutdownNow();
+        cache.evictAll();
+    }
+
+    private String keyFor(MusicItem song) {
+        // Songs the library has no album for get a cover of their own
+        String owner = song.getAlbumId() >= 0 ? "album:" + song.getAlbumId() : "song:" + song.getId();
+        return owner + "@" + targetSize;
+    }
+
+    private Bitmap decode(MusicItem song) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(appContext, Uri.parse(song.getPath()));
+            byte[] albumArtBytes = retriever.getEmbeddedPicture();
+            if (albumArtBytes == null) {
+                return null;
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(albumArtBytes, 0, albumArtBytes.length, options);
+
+            options.inSampleSize = calculateInSampleSize(options, targetSize, targetSize);
+            options.inJustDecodeBounds = false;
+
+            Bitmap bitmap = BitmapFactory.decodeByteArray(albumArtBytes, 0, albumArtBytes.length, options);
+            if (bitmap == null) {
+                return null;
+            }
+
+            int size = Math.min(bitmap.getWidth(), bitmap.getHeight());
+            return Bitmap.createBitmap(bitmap,
+                    (bitmap.getWidth() - size) / 2,
+                    (bitmap.getHeight() - size) / 2,
+                    size, size);
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading album art: " + e.getMessage(), e);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.w(TAG, "Error releasing retriever", e);
+            }
+        }
+    }
+
+    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        final int height = options.outHeight;
+        final int width = options.outWidth;
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            while ((halfHeight / inSampleSize) >= reqHeight
+                    && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,229 @@
+package com.felle.fusic.service;
+
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Volume ramps for MusicService, run on a scheduler thread of their own so a slow prepare
+ * or a burst of commands on the playback thread cannot make a fade stutter. The ticker
+ * only ever calls setVolume; starting, stopping and recycling players stays with the
+ * service, which gets each fade's completion posted back to its playback handler.
+ * Fades follow an equal-power curve, so a fade-out and a fade-in of the same length keep
+ * the combined loudness steady.
+ */
+final class Crossfader {
+
+    private static final String TAG = "Crossfader";
+    // About 50 volume steps a second, fine enough that no step is audible
+    private static final long TICK_MS = 20;
+
+    private static final class Fade {
+        final MediaPlayer player;
+        final float from;
+        final float to;
+        final long startTime;
+        final long duration;
+        final Runnable onDone;
+        float gain;
+
+        Fade(MediaPlayer player, float from, float to, long duration, Runnable onDone) {
+            this.player = player;
+            this.from = from;
+            this.to = to;
+            this.startTime = SystemClock.uptimeMillis();
+            this.duration = Math.max(1, duration);
+            this.onDone = onDone;
+            this.gain = from;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Crossfader"));
+    private final Handler handler;
+
+    // Guards fades, ticker and volumeScale; the ticker sets volumes while holding it
+    private final Object lock = new Object();
+    private final List<Fade> fades = new ArrayList<>();
+    private ScheduledFuture<?> ticker;
+    private float volumeScale = 1f;
+
+    private ScheduledFuture<?> pending;
+
+    /** @param handler where fade completions and scheduled actions run */
+    Crossfader(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Ramp a player's volume from one gain to another. Any fade already running on the
+     * player is dropped without its completion, and onDone, if given, runs on the
+     * handler once the ramp reaches its end.
+     */
+    void fade(MediaPlayer player, float from, float to, long durationMs, Runnable onDone) {
+        synchronized (lock) {
+            removeFadesLocked(player);
+            Fade fade = new Fade(player, from, to, durationMs, onDone);
+            fades.add(fade);
+            setVolumeLocked(player, from);
+            if (ticker == null) {
+                ticker = scheduler.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** The gain last applied to the player, 1 when it is not being faded */
+    float gainOf(MediaPlayer player) {
+        synchronized (lock) {
+            for (Fade fade : fades) {
+                if (fade.player == player) return fade.gain;
+            }
+            return 1f;
+        }
+    }
+
+    /** Stop fading the player where it is, without running the fade's completion */
+    void cancel(MediaPlayer player) {
+        synchronized (lock) {
+            removeFadesLocked(player);
+            stopTickerIfIdleLocked();
+        }
+    }
+
+    /**
+     * Jump every fade to its end and run the completions right away on the calling
+     * thread, for when playback is paused, stopped or seeked in the middle of a fade.
+     */
+    void finishAll() {
+        List<Fade> finished;
+        synchronized (lock) {
+            finished = new ArrayList<>(fades);
+            fades.clear();
+            for (Fade fade : finished) {
+                setVolumeLocked(fade.player, fade.to);
+            }
+            stopTickerIfIdleLocked();
+        }
+        for (Fade fade : finished) {
+            if (fade.onDone != null) fade.onDone.run();
+        }
+    }
+
+    /**
+     * Scale every volume, e.g. while ducking for another app. Fading players pick the
+     * scale up on their next step; the steady players given, those not fading, are set
+     * at once.
+     */
+    void setVolumeScale(float scale, MediaPlayer... steadyPlayers) {
+        synchronized (lock) {
+            volumeScale = scale;
+            for (MediaPlayer player : steadyPlayers) {
+                if (player != null && !isFadingLocked(player)) {
+                    setVolumeLocked(player, 1f);
+                }
+            }
+        }
+    }
+
+    /** Set a player that is not being faded to full volume under the current scale */
+    void applyFullVolume(MediaPlayer player) {
+        synchronized (lock) {
+            if (!isFadingLocked(player)) {
+                setVolumeLocked(player, 1f);
+            }
+        }
+    }
+
+    /** Run action on the handler after delayMs, replacing any action scheduled before */
+    void schedule(long delayMs, Runnable action) {
+        cancelScheduled();
+        pending = scheduler.schedule(() -> handler.post(action), Math.max(0, delayMs),
+                TimeUnit.MILLISECONDS);
+    }
+
+    void cancelScheduled() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    void shutdown() {
+        cancelScheduled();
+        finishAll();
+        scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        List<Fade> finished = null;
+        synchronized (lock) {
+            long now = SystemClock.uptimeMillis();
+            Iterator<Fade> iterator = fades.iterator();
+            while (iterator.hasNext()) {
+                Fade fade = iterator.next();
+                float progress = Math.min(1f, (now - fade.startTime) / (float) fade.duration);
+                setVolumeLocked(fade.player, shape(fade, progress));
+                if (progress >= 1f) {
+                    iterator.remove();
+                    if (finished == null) finished = new ArrayList<>();
+                    finished.add(fade);
+                }
+            }
+            stopTickerIfIdleLocked();
+        }
+        if (finished != null) {
+            for (Fade fade : finished) {
+                if (fade.onDone != null) handler.post(fade.onDone);
+            }
+        }
+    }
+
+    /** Equal-power curve: rising fades follow sin, falling ones cos */
+    private static float shape(Fade fade, float progress) {
+        double angle = progress * Math.PI / 2;
+        float curve = fade.to > fade.from ? (float) Math.sin(angle) : 1f - (float) Math.cos(angle);
+        return fade.from + (fade.to - fade.from) * curve;
+    }
+
+    private void setVolumeLocked(MediaPlayer player, float gain) {
+        for (Fade fade : fades) {
+            if (fade.player == player) fade.gain = gain;
+        }
+        float volume = gain * volumeScale;
+        try {
+            player.setVolume(volume, volume);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not set volume", e);
+        }
+    }
+
+    private boolean isFadingLocked(MediaPlayer player) {
+        for (Fade fade : fades) {
+            if (fade.player == player) return true;
+        }
+        return false;
+    }
+
+    private void removeFadesLocked(MediaPlayer player) {
+        Iterator<Fade> iterator = fades.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().player == player) iterator.remove();
+        }
+    }
+
+    private void stopTickerIfIdleLocked() {
+        if (fades.isEmpty() && ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+}
@@ -7,18 +7,18 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
-import android.media.MediaMetadataRetriever;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -29,13 +29,15 @@ import androidx.media.session.MediaButtonReceiver;
 
 import com.felle.fusic.MainActivity;
 import com.felle.fusic.R;
+import com.felle.fusic.data.MediaLibraryRepository;
 import com.felle.fusic.ui.music.MusicItem;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MusicService extends Service implements
         MediaPlayer.OnPreparedListener,
@@ -58,6 +60,8 @@ public class MusicService extends Service implements
     public static final String ACTION_TOGGLE_SHUFFLE = "ACTION_TOGGLE_SHUFFLE";
     public static final String ACTION_TOGGLE_REPEAT = "ACTION_TOGGLE_REPEAT";
     public static final String ACTION_SET_PLAYLIST = "ACTION_SET_PLAYLIST";
+    // Playlist given as "music_ids" (long[]), resolved here so callers need not load the songs
+    public static final String ACTION_PLAY_IDS = "ACTION_PLAY_IDS";
 
     public static final String ACTION_MUSIC_UPDATED = "ACTION_MUSIC_UPDATED";
     public static final String ACTION_PLAYBACK_STATE_CHANGED = "ACTION_PLAYBACK_STATE_CHANGED";
@@ -69,26 +73,88 @@ public class MusicService extends Service implements
     public static final int REPEAT_ALL = 1;
     public static final int REPEAT_ONE = 2;
 
+    // Fade on manual skips when crossfade is on, short enough not to delay the new track
+    private static final long SKIP_FADE_MS = 400;
+    // How far the crossfade may start later than planned before it is re-armed instead
+    private static final long CROSSFADE_SLACK_MS = 250;
+    // A skip waits this long for the next one before loading its track, so a burst of
+    // skips prepares only the track it ends on
+    private static final long SKIP_SETTLE_MS = 200;
+    // How often a playing track's published position is read back from its player
+    private static final long POSITION_REFRESH_MS = 1000;
+
+    // State published to the session, the notification and the UI, coalesced per pass
+    private static final int PUBLISH_METADATA = 1;
+    private static final int PUBLISH_NOTIFICATION = 1 << 1;
+    private static final int PUBLISH_MUSIC = 1 << 2;
+    private static final int PUBLISH_PLAYBACK = 1 << 3;
+    private static final int PUBLISH_QUEUE = 1 << 4;
+
+    /**
+     * Where the current track was at its last state change. Players are owned by the
+     * playback thread, so bound activities read this instead of asking a player.
+     */
+    private static final class PositionState {
+        final long position;
+        final long duration;
+        final long updateTime;
+        final boolean advancing;
+
+        PositionState(long position, long duration, boolean advancing) {
+            this.position = position;
+            this.duration = duration;
+            this.updateTime = SystemClock.elapsedRealtime();
+            this.advancing = advancing;
+        }
+    }
+
+    // Player and queue state belongs to the playback thread; the volatile fields are also
+    // read by bound activities
     private MediaPlayer mediaPlayer;
+    // Gapless: the track after the current one, prepared ahead and chained to play next
+    private MediaPlayer nextPlayer;
+    private MusicItem nextPlayerSong;
+    private int nextPlayerIndex = -1;
+    private boolean isNextPlayerChained = false;
+    private boolean isNextPlayerPrepared = false;
+    // A player kept after its track ended, reset and waiting to be reused for the next one
+    private MediaPlayer sparePlayer;
+    private boolean fadeInOnStart = false;
+    // Whether the track being loaded starts once prepared; a pause during the load clears it
+    private boolean playWhenPrepared = true;
     private MediaSessionCompat mediaSession;
     private AudioManager audioManager;
     private AudioFocusRequest audioFocusRequest;
     private NotificationManager notificationManager;
 
-    private MusicItem currentSong;
-    private boolean isPlaying = false;
+    private volatile MusicItem currentSong;
+    private volatile boolean isPlaying = false;
     private boolean isPrepared = false;
-    private boolean isServiceDestroyed = false;
-    private Handler handler = new Handler(Looper.getMainLooper());
-
-    private List<MusicItem> playlist = new ArrayList<>();
-    private List<MusicItem> originalPlaylist = new ArrayList<>();
-    private int currentIndex = -1;
-
-    private boolean isShuffleEnabled = false;
-    private int repeatMode = REPEAT_OFF;
+    private volatile boolean isServiceDestroyed = false;
+
+    // Player control runs here; the main thread only hands commands over
+    private HandlerThread playbackThread;
+    private Handler playbackHandler;
+    private Crossfader crossfader;
+    private final Runnable prepareTask = this::prepareCurrentSong;
+    private final Runnable publishTask = this::publishPending;
+    private final Runnable positionTask = this::refreshPosition;
+    private volatile PositionState publishedPosition = new PositionState(0, 0, false);
+    private int pendingPublish = 0;
+    // The queue as last published, for bound activities reading from the main thread
+    private volatile PlayQueue.Snapshot publishedQueue = PlayQueue.Snapshot.EMPTY;
+    private AlbumArtLoader albumArtLoader;
+
+    private final PlayQueue queue = new PlayQueue();
+
+    private volatile boolean isShuffleEnabled = false;
+    private volatile int repeatMode = REPEAT_OFF;
     private Random random = new Random();
 
+    private final ExecutorService idResolver = Executors.newSingleThreadExecutor();
+    // Only the latest ACTION_PLAY_IDS starts playing, and none that a stop came after
+    private volatile int playIdsRequest = 0;
+
     public class MusicBinder extends Binder {
         public MusicService getService() {
             return MusicService.this;
@@ -102,9 +168,16 @@ public class MusicService extends Service implements
         audioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
         notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 
+        playbackThread = new HandlerThread("MusicPlayback", Process.THREAD_PRIORITY_AUDIO);
+        playbackThread.start();
+        playbackHandler = new Handler(playbackThread.getLooper());
+        crossfader = new Crossfader(playbackHandler);
+        albumArtLoader = new AlbumArtLoader(this, playbackHandler);
+
         createNotificationChannel();
-        initializeMediaPlayer();
         initializeMediaSession();
+        // Players deliver their callbacks to the thread that created them
+        playbackHandler.post(this::initializeMediaPlayer);
     }
 
     private void createNotificationChannel() {
@@ -122,20 +195,49 @@ public class MusicService extends Service implements
     }
 
     private void initializeMediaPlayer() {
-        mediaPlayer = new MediaPlayer();
+        mediaPlayer = obtainPlayer();
         mediaPlayer.setOnPreparedListener(this);
-        mediaPlayer.setOnCompletionListener(this);
-        mediaPlayer.setOnErrorListener(this);
+    }
+
+    /** A player ready for setDataSource, reusing the spare one when there is one */
+    private MediaPlayer obtainPlayer() {
+        MediaPlayer player = sparePlayer;
+        sparePlayer = null;
+        if (player == null) {
+            player = new MediaPlayer();
+            player.setOnCompletionListener(this);
+            player.setOnErrorListener(this);
+        }
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             AudioAttributes audioAttributes = new AudioAttributes.Builder()
                     .setUsage(AudioAttributes.USAGE_MEDIA)
                     .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
                     .build();
-            mediaPlayer.setAudioAttributes(audioAttributes);
+            player.setAudioAttributes(audioAttributes);
         } else {
-            mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+            player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        }
+        crossfader.applyFullVolume(player);
+        return player;
+    }
+
+    /** Reset a player whose track is done and keep it as the spare, or release it */
+    private void recyclePlayer(MediaPlayer player) {
+        if (player == null) {
+            return;
+        }
+        crossfader.cancel(player);
+        try {
+            player.reset();
+            if (sparePlayer == null && !isServiceDestroyed) {
+                sparePlayer = player;
+                return;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error resetting media player: " + e.getMessage(), e);
         }
+        player.release();
     }
 
     private void initializeMediaSession() {
@@ -163,12 +265,12 @@ public class MusicService extends Service implements
 
             @Override
             public void onSkipToNext() {
-                playNext();
+                playNext(SKIP_SETTLE_MS);
             }
 
             @Override
             public void onSkipToPrevious() {
-                playPrevious();
+                playPrevious(SKIP_SETTLE_MS);
             }
 
             @Override
@@ -195,7 +297,7 @@ public class MusicService extends Service implements
                         break;
                 }
             }
-        });
+        }, playbackHandler);
 
         mediaSession.setActive(true);
     }
@@ -208,61 +310,77 @@ public class MusicService extends Service implements
             return START_NOT_STICKY;
         }
 
+        if (intent != null && intent.getAction() != null) {
+            playbackHandler.post(() -> handleCommand(intent));
+        }
+
+        return START_STICKY;
+    }
+
+    /** Run one command on the playback thread, in the order the commands arrived */
+    private void handleCommand(Intent intent) {
+        if (isServiceDestroyed) {
+            return;
+        }
+
         try {
-            if (intent != null && intent.getAction() != null) {
-                String action = intent.getAction();
-
-                switch (action) {
-                    case ACTION_PLAY:
-                        MusicItem musicItem = intent.getParcelableExtra("music_item");
-                        if (musicItem != null) {
-                            playMusic(musicItem);
-                        } else {
-                            resumeMusic();
-                        }
-                        break;
-                    case ACTION_PAUSE:
-                        pauseMusic();
-                        break;
-                    case ACTION_TOGGLE_PLAY_PAUSE:
-                        togglePlayPause();
-                        break;
-                    case ACTION_NEXT:
-                        playNext();
-                        break;
-                    case ACTION_PREVIOUS:
-                        playPrevious();
-                        break;
-                    case ACTION_STOP:
-                        stopMusic();
-                        break;
-                    case ACTION_SEEK:
-                        int seekPosition = intent.getIntExtra("seek_position", 0);
-                        seekTo(seekPosition);
-                        break;
-                    case ACTION_REQUEST_STATE:
-                        broadcastCurrentState();
-                        break;
-                    case ACTION_TOGGLE_SHUFFLE:
-                        toggleShuffle();
-                        break;
-                    case ACTION_TOGGLE_REPEAT:
-                        toggleRepeat();
-                        break;
-                    case ACTION_SET_PLAYLIST:
-                        ArrayList<MusicItem> newPlaylist = intent.getParcelableArrayListExtra("playlist");
-                        int startIndex = intent.getIntExtra("start_index", 0);
-                        if (newPlaylist != null) {
-                            setPlaylist(newPlaylist, startIndex);
-                        }
-                        break;
-                }
+            String action = intent.getAction();
+
+            switch (action) {
+                case ACTION_PLAY:
+                    MusicItem musicItem = intent.getParcelableExtra("music_item");
+                    if (musicItem != null) {
+                        playMusic(musicItem);
+                    } else {
+                        resumeMusic();
+                    }
+                    break;
+                case ACTION_PAUSE:
+                    pauseMusic();
+                    break;
+                case ACTION_TOGGLE_PLAY_PAUSE:
+                    togglePlayPause();
+                    break;
+                case ACTION_NEXT:
+                    playNext(SKIP_SETTLE_MS);
+                    break;
+                case ACTION_PREVIOUS:
+                    playPrevious(SKIP_SETTLE_MS);
+                    break;
+                case ACTION_STOP:
+                    stopMusic();
+                    break;
+                case ACTION_SEEK:
+                    int seekPosition = intent.getIntExtra("seek_position", 0);
+                    seekTo(seekPosition);
+                    break;
+                case ACTION_REQUEST_STATE:
+                    broadcastCurrentState();
+                    break;
+                case ACTION_TOGGLE_SHUFFLE:
+                    toggleShuffle();
+                    break;
+                case ACTION_TOGGLE_REPEAT:
+                    toggleRepeat();
+                    break;
+                case ACTION_SET_PLAYLIST:
+                    ArrayList<MusicItem> newPlaylist = intent.getParcelableArrayListExtra("playlist");
+                    int startIndex = intent.getIntExtra("start_index", 0);
+                    if (newPlaylist != null) {
+                        setPlaylist(newPlaylist, startIndex);
+                    }
+                    break;
+                case ACTION_PLAY_IDS:
+                    long[] musicIds = intent.getLongArrayExtra("music_ids");
+                    if (musicIds != null && musicIds.length > 0) {
+                        playFromIds(musicIds, intent.getIntExtra("start_index", 0),
+                                intent.getBooleanExtra("shuffle", false));
+                    }
+                    break;
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error in onStartCommand: " + e.getMessage(), e);
+            Log.e(TAG, "Error handling command: " + e.getMessage(), e);
         }
-
-        return START_STICKY;
     }
 
     private boolean requestAudioFocus() {
@@ -291,20 +409,58 @@ public class MusicService extends Service implements
     }
 
     private void setPlaylist(List<MusicItem> newPlaylist, int startIndex) {
-        originalPlaylist.clear();
-        originalPlaylist.addAll(newPlaylist);
-
-        playlist.clear();
-        playlist.addAll(newPlaylist);
+        queue.setSongs(newPlaylist);
+        queue.setCurrentIndex(Math.max(0, Math.min(startIndex, queue.size() - 1)));
 
         if (isShuffleEnabled) {
-            shufflePlaylist(startIndex);
-        } else {
-            currentIndex = Math.max(0, Math.min(startIndex, playlist.size() - 1));
+            queue.shuffle(random);
         }
+        refreshNextPlayer();
+        requestPublish(PUBLISH_QUEUE);
+    }
+
+    /**
+     * Resolve the ids off the main thread, then play them as the playlist starting at
+     * startIndex. Ids the library no longer has are dropped; if the start song is one of
+     * them playback starts at the first song.
+     */
+    private void playFromIds(long[] musicIds, int startIndex, boolean shuffle) {
+        int request = ++playIdsRequest;
+        long startId = musicIds[Math.max(0, Math.min(startIndex, musicIds.length - 1))];
+        MediaLibraryRepository repository = MediaLibraryRepository.getInstance(this);
+
+        idResolver.execute(() -> {
+            List<MusicItem> songs = repository.resolveSongs(musicIds).songs;
+            playbackHandler.post(() -> {
+                if (isServiceDestroyed || request != playIdsRequest || songs.isEmpty()) return;
+
+                int start = 0;
+                for (int i = 0; i < songs.size(); i++) {
+                    if (songs.get(i).getId() == startId) {
+                        start = i;
+                        break;
+                    }
+                }
+
+                if (shuffle && !isShuffleEnabled) {
+                    isShuffleEnabled = true;
+                    broadcastShuffleState();
+                }
+                setPlaylist(songs, start);
+                playMusic(queue.get(queue.getCurrentIndex()));
+            });
+        });
     }
 
     private void playMusic(MusicItem musicItem) {
+        playMusic(musicItem, 0);
+    }
+
+    /**
+     * Make musicItem the current song at once and load it after prepareDelayMs, unless
+     * another song replaces it first
+     */
+    private void playMusic(MusicItem musicItem, long prepareDelayMs) {
         if (isServiceDestroyed || musicItem == null) {
             return;
         }
@@ -315,51 +471,67 @@ public class MusicService extends Service implements
         }
 
         try {
+            releaseNextPlayer();
             if (mediaPlayer != null) {
+                // A song still waiting to load keeps the fade-in its skip asked for
+                fadeInOnStart = false;
                 try {
-                    if (mediaPlayer.isPlaying()) {
-                        mediaPlayer.stop();
+                    if (isPrepared && mediaPlayer.isPlaying() && isCrossfadeEnabled()) {
+                        // Skipping mid-track: dip the old track out while the new one fades in
+                        MediaPlayer outgoing = mediaPlayer;
+                        crossfader.fade(outgoing, crossfader.gainOf(outgoing), 0f, SKIP_FADE_MS,
+                                () -> recyclePlayer(outgoing));
+                        fadeInOnStart = true;
+                    } else {
+                        if (mediaPlayer.isPlaying()) {
+                            mediaPlayer.stop();
+                        }
+                        recyclePlayer(mediaPlayer);
                     }
-                    mediaPlayer.release();
                 } catch (Exception e) {
                     Log.e(TAG, "Error stopping previous media player: " + e.getMessage(), e);
                 }
                 mediaPlayer = null;
             }
+            isPrepared = false;
 
             currentSong = musicItem;
+            playWhenPrepared = true;
+            publishPosition(0, musicItem.getDuration(), false);
 
-            if (playlist.isEmpty()) {
+            if (queue.isEmpty()) {
                 ArrayList<MusicItem> singleSongPlaylist = new ArrayList<>();
                 singleSongPlaylist.add(musicItem);
                 setPlaylist(singleSongPlaylist, 0);
             } else {
-                updateCurrentIndex(musicItem);
-
-                if (currentIndex == -1) {
-                    playlist.add(musicItem);
-                    originalPlaylist.add(musicItem);
-                    currentIndex = playlist.size() - 1;
+                int index = queue.indexOf(musicItem.getId());
+                if (index == -1) {
+                    index = queue.append(musicItem);
                 }
+                queue.setCurrentIndex(index);
             }
 
-            initializeMediaPlayer();
-            mediaPlayer.setDataSource(this, Uri.parse(musicItem.getPath()));
-            mediaPlayer.prepareAsync();
-
-        } catch (IOException e) {
-            Log.e(TAG, "IOException in playMusic: " + e.getMessage(), e);
+            broadcastMusicUpdate();
+            playbackHandler.removeCallbacks(prepareTask);
+            playbackHandler.postDelayed(prepareTask, prepareDelayMs);
         } catch (Exception e) {
             Log.e(TAG, "Unexpected error in playMusic: " + e.getMessage(), e);
         }
     }
 
-    private void updateCurrentIndex(MusicItem musicItem) {
-        for (int i = 0; i < playlist.size(); i++) {
-            if (playlist.get(i).getId() == musicItem.getId()) {
-                currentIndex = i;
-                break;
-            }
+    private void prepareCurrentSong() {
+        if (isServiceDestroyed || currentSong == null || mediaPlayer != null) {
+            return;
+        }
+
+        try {
+            initializeMediaPlayer();
+            mediaPlayer.setDataSource(this, Uri.parse(currentSong.getPath()));
+            mediaPlayer.prepareAsync();
+        } catch (IOException e) {
+            Log.e(TAG, "IOException in prepareCurrentSong: " + e.getMessage(), e);
+        } catch (Exception e) {
+            Log.e(TAG, "Unexpected error in prepareCurrentSong: " + e.getMessage(), e);
         }
     }
 
@@ -374,9 +546,13 @@ public class MusicService extends Service implements
         }
 
         try {
-            if (mediaPlayer != null && isPrepared && !mediaPlayer.isPlaying()) {
+            if (currentSong != null && (mediaPlayer == null || !isPrepared)) {
+                // Still loading; onPrepared starts it
+                playWhenPrepared = true;
+            } else if (mediaPlayer != null && isPrepared && !mediaPlayer.isPlaying()) {
                 mediaPlayer.start();
                 isPlaying = true;
+                scheduleCrossfade();
                 updatePlaybackState();
                 showNotification();
                 broadcastPlaybackState();
@@ -392,7 +568,19 @@ public class MusicService extends Service implements
         }
 
         try {
-            if (mediaPlayer != null && isPlaying && mediaPlayer.isPlaying()) {
+            if (mediaPlayer == null || !isPrepared) {
+                // Still loading: remember the pause so onPrepared does not start the track
+                playWhenPrepared = false;
+                if (isPlaying) {
+                    isPlaying = false;
+                    updatePlaybackState();
+                    showNotification();
+                    broadcastPlaybackState();
+                }
+            } else if (isPlaying && mediaPlayer.isPlaying()) {
+                // A transition cut short by the pause completes at once
+                crossfader.cancelScheduled();
+                crossfader.finishAll();
                 mediaPlayer.pause();
                 isPlaying = false;
                 updatePlaybackState();
@@ -410,6 +598,13 @@ public class MusicService extends Service implements
         }
 
         try {
+            // Nothing still queued for the song being stopped may start or show it again
+            playIdsRequest++;
+            playbackHandler.removeCallbacks(prepareTask);
+            playbackHandler.removeCallbacks(publishTask);
+            pendingPublish = 0;
+            crossfader.finishAll();
+            releaseNextPlayer();
             if (mediaPlayer != null) {
                 try {
                     if (mediaPlayer.isPlaying()) {
@@ -425,7 +620,7 @@ public class MusicService extends Service implements
             isPlaying = false;
             isPrepared = false;
             currentSong = null;
-            currentIndex = -1;
+            queue.setCurrentIndex(-1);
 
             abandonAudioFocus();
             updatePlaybackState();
@@ -445,23 +640,23 @@ public class MusicService extends Service implements
         }
     }
 
-    private void playNext() {
-        if (isServiceDestroyed || playlist.isEmpty()) {
+    private void playNext(long prepareDelayMs) {
+        if (isServiceDestroyed || queue.isEmpty()) {
             return;
         }
 
         try {
             MusicItem nextSong = getNextSong();
             if (nextSong != null) {
-                playMusic(nextSong);
+                playMusic(nextSong, prepareDelayMs);
             }
         } catch (Exception e) {
             Log.e(TAG, "Error in playNext: " + e.getMessage(), e);
         }
     }
 
-    private void playPrevious() {
-        if (isServiceDestroyed || playlist.isEmpty()) {
+    private void playPrevious(long prepareDelayMs) {
+        if (isServiceDestroyed || queue.isEmpty()) {
             return;
         }
 
@@ -482,7 +677,7 @@ public class MusicService extends Service implements
 
             MusicItem previousSong = getPreviousSong();
             if (previousSong != null) {
-                playMusic(previousSong);
+                playMusic(previousSong, prepareDelayMs);
             } else {
                 if (mediaPlayer != null) {
                     try {
@@ -502,7 +697,9 @@ public class MusicService extends Service implements
     private void seekTo(int position) {
         if (mediaPlayer != null && isPrepared) {
             try {
+                crossfader.finishAll();
                 mediaPlayer.seekTo(position);
+                scheduleCrossfade();
                 updatePlaybackState();
                 showNotification();
                 Log.d(TAG, "Seeked to position: " + position);
@@ -513,18 +710,19 @@ public class MusicService extends Service implements
     }
 
     private MusicItem getNextSong() {
-        if (playlist.isEmpty()) {
+        if (queue.isEmpty()) {
             return null;
         }
 
-        if (currentIndex < 0 || currentIndex >= playlist.size()) {
-            currentIndex = 0;
-            return playlist.get(currentIndex);
+        int currentIndex = queue.getCurrentIndex();
+        if (currentIndex < 0 || currentIndex >= queue.size()) {
+            queue.setCurrentIndex(0);
+            return queue.get(0);
         }
 
         int nextIndex = currentIndex + 1;
 
-        if (nextIndex >= playlist.size()) {
+        if (nextIndex >= queue.size()) {
             if (repeatMode == REPEAT_ALL) {
                 nextIndex = 0;
             } else {
@@ -532,37 +730,38 @@ public class MusicService extends Service implements
             }
         }
 
-        if (nextIndex >= 0 && nextIndex < playlist.size()) {
-            currentIndex = nextIndex;
-            return playlist.get(currentIndex);
+        if (nextIndex >= 0 && nextIndex < queue.size()) {
+            queue.setCurrentIndex(nextIndex);
+            return queue.get(nextIndex);
         } else {
             return null;
         }
     }
 
     private MusicItem getPreviousSong() {
-        if (playlist.isEmpty()) {
+        if (queue.isEmpty()) {
             return null;
         }
 
-        if (currentIndex < 0 || currentIndex >= playlist.size()) {
-            currentIndex = playlist.size() - 1;
-            return playlist.get(currentIndex);
+        int currentIndex = queue.getCurrentIndex();
+        if (currentIndex < 0 || currentIndex >= queue.size()) {
+            queue.setCurrentIndex(queue.size() - 1);
+            return queue.get(queue.size() - 1);
         }
 
         int prevIndex = currentIndex - 1;
 
         if (prevIndex < 0) {
             if (repeatMode == REPEAT_ALL) {
-                prevIndex = playlist.size() - 1;
+                prevIndex = queue.size() - 1;
             } else {
                 return null;
             }
         }
 
-        if (prevIndex >= 0 && prevIndex < playlist.size()) {
-            currentIndex = prevIndex;
-            return playlist.get(currentIndex);
+        if (prevIndex >= 0 && prevIndex < queue.size()) {
+            queue.setCurrentIndex(prevIndex);
+            return queue.get(prevIndex);
         } else {
             return null;
         }
@@ -576,7 +775,7 @@ public class MusicService extends Service implements
                 }
                 break;
             case REPEAT_ALL:
-                playNext();
+                playNext(0);
                 break;
             case REPEAT_OFF:
             default:
@@ -599,10 +798,13 @@ public class MusicService extends Service implements
         isShuffleEnabled = enabled;
 
         if (isShuffleEnabled) {
-            shufflePlaylist(currentIndex);
+            shufflePlaylist();
         } else {
-            restoreOriginalOrder();
+            // The original order is kept alongside the shuffled one; switching back is free
+            queue.unshuffle();
         }
+        refreshNextPlayer();
+        requestPublish(PUBLISH_QUEUE);
 
         updatePlaybackState();
         broadcastShuffleState();
@@ -615,59 +817,24 @@ public class MusicService extends Service implements
 
     private void setRepeatMode(int mode) {
         repeatMode = mode;
+        applyLooping();
+        refreshNextPlayer();
         updatePlaybackState();
         broadcastRepeatState();
     }
 
-    private void shufflePlaylist(int currentPlayingIndex) {
-        if (playlist.isEmpty()) return;
-
-        MusicItem currentPlayingSong = null;
-        if (currentPlayingIndex >= 0 && currentPlayingIndex < playlist.size()) {
-            currentPlayingSong = playlist.get(currentPlayingIndex);
-        }
-
-        playlist.clear();
-        playlist.addAll(originalPlaylist);
+    private void shufflePlaylist() {
+        if (queue.isEmpty()) return;
 
-        if (currentPlayingSong != null) {
-            playlist.remove(currentPlayingSong);
-        }
-
-        Collections.shuffle(playlist, random);
-
-        if (currentPlayingSong != null) {
-            playlist.add(0, currentPlayingSong);
-            currentIndex = 0;
-        } else {
-            currentIndex = -1;
-        }
-    }
-
-    private void restoreOriginalOrder() {
-        MusicItem currentPlayingSong = null;
-        if (currentIndex >= 0 && currentIndex < playlist.size()) {
-            currentPlayingSong = playlist.get(currentIndex);
-        }
-
-        playlist.clear();
-        playlist.addAll(originalPlaylist);
-
-        currentIndex = -1;
-        if (currentPlayingSong != null) {
-            for (int i = 0; i < playlist.size(); i++) {
-                if (playlist.get(i).getId() == currentPlayingSong.getId()) {
-                    currentIndex = i;
-                    break;
-                }
-            }
-        }
+        // The current song, if any, leads the new order
+        queue.shuffle(random);
     }
 
     private void updatePlaybackState() {
         int state = isPlaying ? PlaybackStateCompat.STATE_PLAYING :
                 isPrepared ? PlaybackStateCompat.STATE_PAUSED : PlaybackStateCompat.STATE_STOPPED;
         long position = isPrepared && mediaPlayer != null ? mediaPlayer.getCurrentPosition() : 0;
+        publishPosition(position, currentDuration(), isPlaying && isPrepared);
 
         PlaybackStateCompat playbackState = new PlaybackStateCompat.Builder()
                 .setActions(
@@ -688,6 +855,36 @@ public class MusicService extends Service implements
         updateMediaSessionModes();
     }
 
+    private long currentDuration() {
+        if (isPrepared && mediaPlayer != null) {
+            return mediaPlayer.getDuration();
+        }
+        return currentSong != null ? currentSong.getDuration() : 0;
+    }
+
+    /**
+     * Publish the position for readers on other threads. While it advances it is read
+     * back from the player every second, which also catches loops and drift.
+     */
+    private void publishPosition(long position, long duration, boolean advancing) {
+        publishedPosition = new PositionState(position, duration, advancing);
+        playbackHandler.removeCallbacks(positionTask);
+        if (advancing) {
+            playbackHandler.postDelayed(positionTask, POSITION_REFRESH_MS);
+        }
+    }
+
+    private void refreshPosition() {
+        if (isServiceDestroyed || mediaPlayer == null || !isPrepared) {
+            return;
+        }
+        try {
+            publishPosition(mediaPlayer.getCurrentPosition(), mediaPlayer.getDuration(), isPlaying);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not read playback position", e);
+        }
+    }
+
     private void updateMediaSessionModes() {
         int shuffleMode = isShuffleEnabled ?
                 PlaybackStateCompat.SHUFFLE_MODE_ALL : PlaybackStateCompat.SHUFFLE_MODE_NONE;
@@ -712,6 +909,74 @@ public class MusicService extends Service implements
     }
 
     private void updateMediaMetadata() {
+        requestPublish(PUBLISH_METADATA);
+    }
+
+    private void showNotification() {
+        requestPublish(PUBLISH_NOTIFICATION);
+    }
+
+    private void broadcastMusicUpdate() {
+        requestPublish(PUBLISH_MUSIC | PUBLISH_QUEUE);
+    }
+
+    private void broadcastPlaybackState() {
+        requestPublish(PUBLISH_PLAYBACK);
+    }
+
+    /**
+     * Publish once the commands already queued have run, so a burst of changes reaches the
+     * session, the notification and the UI as its final state only
+     */
+    private void requestPublish(int what) {
+        if (isServiceDestroyed) {
+            return;
+        }
+        if (pendingPublish == 0) {
+            playbackHandler.post(publishTask);
+        }
+        pendingPublish |= what;
+    }
+
+    private void publishPending() {
+        int what = pendingPublish;
+        pendingPublish = 0;
+        if (isServiceDestroyed || what == 0) {
+            return;
+        }
+
+        if ((what & PUBLISH_QUEUE) != 0) {
+            publishedQueue = queue.snapshot();
+        }
+        Bitmap art = null;
+        if ((what & (PUBLISH_METADATA | PUBLISH_NOTIFICATION)) != 0 && currentSong != null) {
+            art = albumArtLoader.getCached(currentSong);
+            if (art == null && !albumArtLoader.isMissing(currentSong)) {
+                // Go out without art now and again once the cover is decoded
+                albumArtLoader.load(currentSong, this::onAlbumArtLoaded);
+            }
+        }
+        if ((what & PUBLISH_METADATA) != 0) {
+            publishMetadata(art);
+        }
+        if ((what & PUBLISH_NOTIFICATION) != 0) {
+            publishNotification(art);
+        }
+        if ((what & PUBLISH_MUSIC) != 0) {
+            sendMusicUpdate();
+        }
+        if ((what & PUBLISH_PLAYBACK) != 0) {
+            sendPlaybackState();
+        }
+    }
+
+    private void onAlbumArtLoaded(MusicItem song, Bitmap albumArt) {
+        if (currentSong != null && currentSong.getId() == song.getId()) {
+            requestPublish(PUBLISH_METADATA | PUBLISH_NOTIFICATION);
+        }
+    }
+
+    private void publishMetadata(Bitmap albumArt) {
         if (currentSong == null) return;
 
         MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder()
@@ -723,7 +988,6 @@ public class MusicService extends Service implements
             builder.putLong(MediaMetadataCompat.METADATA_KEY_DURATION, mediaPlayer.getDuration());
         }
 
-        Bitmap albumArt = getAlbumArt(currentSong);
         if (albumArt != null) {
             builder.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, albumArt);
             builder.putBitmap(MediaMetadataCompat.METADATA_KEY_ART, albumArt);
@@ -732,7 +996,7 @@ public class MusicService extends Service implements
         mediaSession.setMetadata(builder.build());
     }
 
-    private void showNotification() {
+    private void publishNotification(Bitmap albumArt) {
         if (currentSong == null) return;
 
         Intent activityIntent = new Intent(this, MainActivity.class);
@@ -769,7 +1033,6 @@ public class MusicService extends Service implements
                         .setCancelButtonIntent(MediaButtonReceiver.buildMediaButtonPendingIntent(
                                 this, PlaybackStateCompat.ACTION_STOP)));
 
-        Bitmap albumArt = getAlbumArt(currentSong);
         if (albumArt != null) {
             builder.setLargeIcon(albumArt);
 
@@ -781,88 +1044,282 @@ public class MusicService extends Service implements
         startForeground(NOTIFICATION_ID, builder.build());
     }
 
-    private Bitmap getAlbumArt(MusicItem musicItem) {
-        try {
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(this, Uri.parse(musicItem.getPath()));
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        isPrepared = true;
+        applyLooping();
+        if (fadeInOnStart) {
+            fadeInOnStart = false;
+            crossfader.fade(mp, 0f, 1f, SKIP_FADE_MS, null);
+        }
+        updateMediaMetadata();
+        if (playWhenPrepared) {
+            resumeMusic();
+        } else {
+            updatePlaybackState();
+            showNotification();
+            broadcastPlaybackState();
+        }
+        broadcastMusicUpdate();
+        refreshNextPlayer();
+    }
 
-            byte[] albumArtBytes = retriever.getEmbeddedPicture();
-            retriever.release();
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        if (mp != mediaPlayer) {
+            return;
+        }
+        if (isNextPlayerChained) {
+            // The chained player took over without a gap; catch the service state up with it
+            recyclePlayer(promoteNextPlayer());
+            refreshNextPlayer();
+        } else if (isNextPlayerPrepared) {
+            // The track ended before its crossfade could start; go straight to the next one
+            nextPlayer.start();
+            recyclePlayer(promoteNextPlayer());
+            refreshNextPlayer();
+        } else {
+            handleSongCompletion();
+        }
+    }
 
-            if (albumArtBytes != null) {
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeByteArray(albumArtBytes, 0, albumArtBytes.length, options);
+    /**
+     * Index of the track that plays when the current one ends on its own, or -1 if
+     * playback stops there. REPEAT_ONE is left to the player's looping.
+     */
+    private int peekNextIndex() {
+        int currentIndex = queue.getCurrentIndex();
+        if (queue.isEmpty() || currentIndex < 0 || currentIndex >= queue.size()
+                || repeatMode == REPEAT_ONE) {
+            return -1;
+        }
+        int nextIndex = currentIndex + 1;
+        if (nextIndex >= queue.size()) {
+            return repeatMode == REPEAT_ALL ? 0 : -1;
+        }
+        return nextIndex;
+    }
 
-                int targetSize = (int) (256 * getResources().getDisplayMetrics().density);
-                options.inSampleSize = calculateInSampleSize(options, targetSize, targetSize);
-                options.inJustDecodeBounds = false;
+    /**
+     * Make the prepared next player match what now comes after the current track. Called
+     * whenever the current track, the queue, shuffle or repeat change; a player that is
+     * still right is kept, anything else is dropped and the right track prepared instead.
+     */
+    private void refreshNextPlayer() {
+        if (isServiceDestroyed || mediaPlayer == null || !isPrepared
+                || (!PlaybackPreferences.isGaplessEnabled(this) && !isCrossfadeEnabled())) {
+            releaseNextPlayer();
+            return;
+        }
 
-                Bitmap bitmap = BitmapFactory.decodeByteArray(albumArtBytes, 0, albumArtBytes.length, options);
+        int nextIndex = peekNextIndex();
+        MusicItem nextSong = nextIndex >= 0 ? queue.get(nextIndex) : null;
+        if (nextSong == null) {
+            releaseNextPlayer();
+            return;
+        }
+        if (nextPlayer != null && nextPlayerSong != null && nextPlayerSong.getId() == nextSong.getId()) {
+            // Same track; only its place in the playlist may have shifted
+            nextPlayerIndex = nextIndex;
+            return;
+        }
 
-                if (bitmap != null) {
-                    int size = Math.min(bitmap.getWidth(), bitmap.getHeight());
-                    return Bitmap.createBitmap(bitmap,
-                            (bitmap.getWidth() - size) / 2,
-                            (bitmap.getHeight() - size) / 2,
-                            size, size);
+        releaseNextPlayer();
+        try {
+            MediaPlayer player = obtainPlayer();
+            player.setOnPreparedListener(mp -> {
+                if (mp != nextPlayer || mediaPlayer == null) return;
+                isNextPlayerPrepared = true;
+                if (isCrossfadeEnabled()) {
+                    scheduleCrossfade();
+                    return;
                 }
-            }
+                try {
+                    mediaPlayer.setNextMediaPlayer(mp);
+                    isNextPlayerChained = true;
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Could not chain next player", e);
+                }
+            });
+            player.setDataSource(this, Uri.parse(nextSong.getPath()));
+            nextPlayer = player;
+            nextPlayerSong = nextSong;
+            nextPlayerIndex = nextIndex;
+            player.prepareAsync();
         } catch (Exception e) {
-            Log.e(TAG, "Error loading album art: " + e.getMessage(), e);
+            Log.e(TAG, "Error preparing next track: " + e.getMessage(), e);
+            releaseNextPlayer();
         }
-
-        return null;
     }
 
-    private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
-
-            while ((halfHeight / inSampleSize) >= reqHeight
-                    && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
+    private void releaseNextPlayer() {
+        crossfader.cancelScheduled();
+        if (isNextPlayerChained && mediaPlayer != null) {
+            try {
+                mediaPlayer.setNextMediaPlayer(null);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Could not unchain next player", e);
             }
         }
-
-        return inSampleSize;
+        MediaPlayer player = nextPlayer;
+        nextPlayer = null;
+        nextPlayerSong = null;
+        nextPlayerIndex = -1;
+        isNextPlayerChained = false;
+        isNextPlayerPrepared = false;
+        recyclePlayer(player);
     }
 
-    @Override
-    public void onPrepared(MediaPlayer mp) {
+    /**
+     * Make the next player, already started, the current one and bring the service state
+     * up to date with it
+     * @return the player it replaces, for the caller to fade out or recycle
+     */
+    private MediaPlayer promoteNextPlayer() {
+        MediaPlayer previous = mediaPlayer;
+        mediaPlayer = nextPlayer;
+        mediaPlayer.setOnPreparedListener(this);
+        currentSong = nextPlayerSong;
+        queue.setCurrentIndex(nextPlayerIndex);
+
+        nextPlayer = null;
+        nextPlayerSong = null;
+        nextPlayerIndex = -1;
+        isNextPlayerChained = false;
+        isNextPlayerPrepared = false;
+
         isPrepared = true;
+        isPlaying = true;
+        // Catch up with any duck that began or ended since the player was prepared
+        crossfader.applyFullVolume(mediaPlayer);
+        applyLooping();
         updateMediaMetadata();
-        resumeMusic();
+        updatePlaybackState();
+        showNotification();
         broadcastMusicUpdate();
+        return previous;
     }
 
-    @Override
-    public void onCompletion(MediaPlayer mp) {
-        handleSongCompletion();
+    private boolean isCrossfadeEnabled() {
+        return PlaybackPreferences.getCrossfadeSeconds(this) > 0;
+    }
+
+    /** Crossfade for the current track; never more than half of it, 0 when off */
+    private long crossfadeLength() {
+        int seconds = PlaybackPreferences.getCrossfadeSeconds(this);
+        if (seconds == 0 || mediaPlayer == null || !isPrepared) {
+            return 0;
+        }
+        return Math.min(seconds * 1000L, mediaPlayer.getDuration() / 2);
+    }
+
+    /** Arm the crossfade into the prepared next player for just before the current track ends */
+    private void scheduleCrossfade() {
+        crossfader.cancelScheduled();
+        if (isServiceDestroyed || !isPlaying || !isNextPlayerPrepared || isNextPlayerChained) {
+            return;
+        }
+        try {
+            long fadeMs = crossfadeLength();
+            if (fadeMs <= 0) {
+                return;
+            }
+            long remaining = mediaPlayer.getDuration() - mediaPlayer.getCurrentPosition();
+            crossfader.schedule(remaining - fadeMs, this::onCrossfadeDue);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not schedule crossfade", e);
+        }
+    }
+
+    private void onCrossfadeDue() {
+        if (isServiceDestroyed || !isPlaying || !isNextPlayerPrepared || isNextPlayerChained) {
+            return;
+        }
+        long fadeMs;
+        long remaining;
+        try {
+            fadeMs = crossfadeLength();
+            remaining = mediaPlayer.getDuration() - mediaPlayer.getCurrentPosition();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not start crossfade", e);
+            return;
+        }
+        if (fadeMs <= 0) {
+            return;
+        }
+        if (remaining > fadeMs + CROSSFADE_SLACK_MS) {
+            // Playback is behind the clock the trigger was set by, e.g. after buffering
+            scheduleCrossfade();
+            return;
+        }
+
+        long duration = Math.max(1, Math.min(fadeMs, remaining));
+        MediaPlayer outgoing = mediaPlayer;
+        MediaPlayer incoming = nextPlayer;
+        try {
+            crossfader.fade(incoming, 0f, 1f, duration, null);
+            incoming.start();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error starting crossfade: " + e.getMessage(), e);
+            releaseNextPlayer();
+            return;
+        }
+        crossfader.fade(outgoing, crossfader.gainOf(outgoing), 0f, duration, () -> {
+            recyclePlayer(outgoing);
+            // Prepare the track after this one only once the fade no longer competes with it
+            refreshNextPlayer();
+        });
+        promoteNextPlayer();
+    }
+
+    /**
+     * With gapless or crossfade on, REPEAT_ONE loops inside the player instead of
+     * restarting it
+     */
+    private void applyLooping() {
+        if (mediaPlayer != null && isPrepared) {
+            try {
+                mediaPlayer.setLooping(repeatMode == REPEAT_ONE
+                        && (PlaybackPreferences.isGaplessEnabled(this) || isCrossfadeEnabled()));
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Could not set looping", e);
+            }
+        }
     }
 
     @Override
     public boolean onError(MediaPlayer mp, int what, int extra) {
         Log.e(TAG, "MediaPlayer error: " + what + ", " + extra);
+        if (mp == nextPlayer) {
+            // Only the track lined up next failed; the current one plays on and ends normally
+            releaseNextPlayer();
+            return true;
+        }
+        if (mp != mediaPlayer) {
+            // A player fading out; its fade recycles it
+            return true;
+        }
         isPrepared = false;
         return false;
     }
 
     @Override
     public void onAudioFocusChange(int focusChange) {
+        playbackHandler.post(() -> handleAudioFocusChange(focusChange));
+    }
+
+    private void handleAudioFocusChange(int focusChange) {
+        if (isServiceDestroyed) {
+            return;
+        }
+
         switch (focusChange) {
             case AudioManager.AUDIOFOCUS_GAIN:
                 if (!isPlaying && isPrepared) {
                     resumeMusic();
                 }
-                if (mediaPlayer != null) {
-                    mediaPlayer.setVolume(1.0f, 1.0f);
-                }
+                // The prepared next player takes over without a volume change of its own
+                crossfader.setVolumeScale(1.0f, mediaPlayer, nextPlayer);
                 break;
             case AudioManager.AUDIOFOCUS_LOSS:
                 stopMusic();
@@ -873,14 +1330,12 @@ public class MusicService extends Service implements
                 }
                 break;
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-                if (mediaPlayer != null) {
-                    mediaPlayer.setVolume(0.3f, 0.3f);
-                }
+                crossfader.setVolumeScale(0.3f, mediaPlayer, nextPlayer);
                 break;
         }
     }
 
-    private void broadcastMusicUpdate() {
+    private void sendMusicUpdate() {
         if (isServiceDestroyed || currentSong == null) {
             return;
         }
@@ -896,7 +1351,7 @@ public class MusicService extends Service implements
         }
     }
 
-    private void broadcastPlaybackState() {
+    private void sendPlaybackState() {
         if (isServiceDestroyed) {
             return;
         }
@@ -963,8 +1418,22 @@ public class MusicService extends Service implements
         }
     }
 
-    public MediaPlayer getMediaPlayer() {
-        return mediaPlayer;
+    /** Position of the current track in ms; safe to call from any thread */
+    public int getCurrentPosition() {
+        PositionState state = publishedPosition;
+        long position = state.position;
+        if (state.advancing) {
+            position += SystemClock.elapsedRealtime() - state.updateTime;
+            if (state.duration > 0) {
+                position = Math.min(position, state.duration);
+            }
+        }
+        return (int) position;
+    }
+
+    /** Length of the current track in ms, 0 when there is none; safe to call from any thread */
+    public int getDuration() {
+        return (int) publishedPosition.duration;
     }
 
     public MusicItem getCurrentSong() {
@@ -984,30 +1453,30 @@ public class MusicService extends Service implements
     }
 
     public List<MusicItem> getPlaylist() {
-        return new ArrayList<>(playlist);
+        return publishedQueue.toList(0);
     }
 
     public int getCurrentIndex() {
-        return currentIndex;
+        return publishedQueue.getCurrentIndex();
     }
 
     public List<MusicItem> getUpcomingQueue() {
-        if (playlist.isEmpty() || currentIndex < 0 || currentIndex >= playlist.size()) {
+        PlayQueue.Snapshot state = publishedQueue;
+        if (state.size() == 0 || state.getCurrentIndex() < 0 || state.getCurrentIndex() >= state.size()) {
             return new ArrayList<>();
         }
 
-        List<MusicItem> upcomingQueue = new ArrayList<>();
-        for (int i = currentIndex + 1; i < playlist.size(); i++) {
-            upcomingQueue.add(playlist.get(i));
-        }
-
-        return upcomingQueue;
+        return state.toList(state.getCurrentIndex() + 1);
     }
 
     public void reshufflePlaylist() {
-        if (isShuffleEnabled && !playlist.isEmpty()) {
-            shufflePlaylist(currentIndex);
-        }
+        playbackHandler.post(() -> {
+            if (isShuffleEnabled && !queue.isEmpty()) {
+                shufflePlaylist();
+                refreshNextPlayer();
+                requestPublish(PUBLISH_QUEUE);
+            }
+        });
     }
 
     /**
@@ -1016,31 +1485,28 @@ public class MusicService extends Service implements
      * @param toPosition Target position for the item (in upcoming queue, not absolute playlist position)
      */
     public void moveQueueItem(int fromPosition, int toPosition) {
-        if (playlist == null || fromPosition < 0 || toPosition < 0) {
+        playbackHandler.post(() -> applyQueueMove(fromPosition, toPosition));
+    }
+
+    private void applyQueueMove(int fromPosition, int toPosition) {
+        if (fromPosition < 0 || toPosition < 0) {
             return;
         }
 
+        int currentIndex = queue.getCurrentIndex();
         int absoluteFromPos = currentIndex + 1 + fromPosition;
         int absoluteToPos = currentIndex + 1 + toPosition;
 
-        if (absoluteFromPos >= playlist.size() || absoluteToPos >= playlist.size() ||
+        if (absoluteFromPos >= queue.size() || absoluteToPos >= queue.size() ||
                 absoluteFromPos <= currentIndex || absoluteToPos <= currentIndex) {
             return;
         }
 
-        MusicItem item = playlist.remove(absoluteFromPos);
-        playlist.add(absoluteToPos, item);
+        // Unshuffled, this reorders the original order as well; shuffled, only the shuffle
+        queue.move(absoluteFromPos, absoluteToPos);
 
-        if (!isShuffleEnabled && !originalPlaylist.isEmpty()) {
-            for (int i = 0; i < originalPlaylist.size(); i++) {
-                if (originalPlaylist.get(i).getId() == item.getId()) {
-                    originalPlaylist.remove(i);
-                    int originalInsertPos = Math.min(absoluteToPos, originalPlaylist.size());
-                    originalPlaylist.add(originalInsertPos, item);
-                    break;
-                }
-            }
-        }
+        refreshNextPlayer();
+        requestPublish(PUBLISH_QUEUE);
 
         Log.d(TAG, "Queue item moved from position " + fromPosition + " to " + toPosition +
                 " (absolute: " + absoluteFromPos + " to " + absoluteToPos + ")");
@@ -1051,28 +1517,25 @@ public class MusicService extends Service implements
      * @param position Position in the upcoming queue (not absolute playlist position)
      */
     public void removeQueueItem(int position) {
-        if (playlist == null || position < 0) {
+        playbackHandler.post(() -> applyQueueRemoval(position));
+    }
+
+    private void applyQueueRemoval(int position) {
+        if (position < 0) {
             return;
         }
 
+        int currentIndex = queue.getCurrentIndex();
         int absolutePos = currentIndex + 1 + position;
 
-        if (absolutePos >= playlist.size() || absolutePos <= currentIndex) {
+        if (absolutePos >= queue.size() || absolutePos <= currentIndex) {
             return;
         }
 
-        MusicItem itemToRemove = playlist.get(absolutePos);
-
-        playlist.remove(absolutePos);
+        MusicItem itemToRemove = queue.remove(absolutePos);
 
-        if (!originalPlaylist.isEmpty()) {
-            for (int i = 0; i < originalPlaylist.size(); i++) {
-                if (originalPlaylist.get(i).getId() == itemToRemove.getId()) {
-                    originalPlaylist.remove(i);
-                    break;
-                }
-            }
-        }
+        refreshNextPlayer();
+        requestPublish(PUBLISH_QUEUE);
 
         Log.d(TAG, "Queue item removed at position " + position +
                 " (absolute: " + absolutePos + ") - " + itemToRemove.getTitle());
@@ -1088,30 +1551,22 @@ public class MusicService extends Service implements
         super.onDestroy();
 
         isServiceDestroyed = true;
+        idResolver.shutdownNow();
 
         try {
-            if (mediaPlayer != null) {
-                try {
-                    if (mediaPlayer.isPlaying()) {
-                        mediaPlayer.stop();
-                    }
-                    mediaPlayer.release();
-                } catch (Exception e) {
-                    Log.e(TAG, "Error releasing media player in onDestroy: " + e.getMessage(), e);
-                } finally {
-                    mediaPlayer = null;
-                }
-            }
+            // Queued commands see the service destroyed and do nothing; the players are
+            // released on the thread that owns them once those have run
+            playbackHandler.removeCallbacks(prepareTask);
+            playbackHandler.removeCallbacks(publishTask);
+            playbackHandler.removeCallbacks(positionTask);
+            playbackHandler.post(this::releasePlayers);
+            playbackThread.quitSafely();
 
             if (mediaSession != null) {
                 mediaSession.release();
                 mediaSession = null;
             }
 
-            if (handler != null) {
-                handler.removeCallbacksAndMessages(null);
-            }
-
             abandonAudioFocus();
 
             try {
@@ -1125,13 +1580,34 @@ public class MusicService extends Service implements
 
             currentSong = null;
             isPlaying = false;
-            isPrepared = false;
-            playlist.clear();
-            originalPlaylist.clear();
-            currentIndex = -1;
 
         } catch (Exception e) {
             Log.e(TAG, "Error in onDestroy: " + e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    private void releasePlayers() {
+        crossfader.shutdown();
+        albumArtLoader.shutdown();
+        releaseNextPlayer();
+        if (sparePlayer != null) {
+            sparePlayer.release();
+            sparePlayer = null;
+        }
+        if (mediaPlayer != null) {
+            try {
+                if (mediaPlayer.isPlaying()) {
+                    mediaPlayer.stop();
+                }
+                mediaPlayer.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing media player in onDestroy: " + e.getMessage(), e);
+            } finally {
+                mediaPlayer = null;
+            }
+        }
+
+        isPrepared = false;
+        queue.clear();
+    }
+}
@@ -0,0 +1,336 @@
+package com.felle.fusic.service;
+
+import com.felle.fusic.ui.music.MusicItem;
+import com.felle.fusic.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The play queue as index permutations over the songs it was given. The songs stay put in
+ * a base array; the original and the shuffled order are int arrays of base slots, each
+ * with an inverse array giving a slot's position, and a {@link LongIntHashMap} finds a
+ * song's slot by id. Turning shuffle off, finding a song and reading the current position
+ * are constant time; moves and removals shift only the positions between the two ends.
+ * Turning shuffle on draws a fresh order, which is linear like any shuffle.
+ * Not thread safe; MusicService only touches it from its playback thread and hands
+ * {@link Snapshot}s to other threads.
+ */
+final class PlayQueue {
+
+    /**
+     * The queue as it was when taken, safe to read from any thread. It shares the order
+     * array with the queue, which copies the array before it next rearranges it, so taking
+     * one is constant time and the list is only built when someone reads it.
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new MusicItem[0], new int[0], 0, -1);
+
+        private final MusicItem[] songs;
+        private final int[] order;
+        private final int size;
+        private final int currentIndex;
+
+        private Snapshot(MusicItem[] songs, int[] order, int size, int currentIndex) {
+            this.songs = songs;
+            this.order = order;
+            this.size = size;
+            this.currentIndex = currentIndex;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int getCurrentIndex() {
+            return currentIndex;
+        }
+
+        /** The songs from position from to the end, as a new list */
+        List<MusicItem> toList(int from) {
+            List<MusicItem> list = new ArrayList<>(Math.max(0, size - from));
+            for (int position = Math.max(0, from); position < size; position++) {
+                list.add(songs[order[position]]);
+            }
+            return list;
+        }
+    }
+
+    private static final int NOT_QUEUED = -1;
+
+    private MusicItem[] songs = new MusicItem[0];
+    // Slots used in songs, including removed ones
+    private int slotCount;
+    private final LongIntHashMap slotById = new LongIntHashMap();
+
+    private int[] originalOrder = new int[0];
+    private int[] originalPosition = new int[0];
+    // Only kept up to date while shuffled; drawn again on every shuffle
+    private int[] shuffledOrder = new int[0];
+    private int[] shuffledPosition = new int[0];
+    private boolean shuffled;
+    private int size;
+    // Set once a snapshot holds the array; it is copied before it is next changed in place
+    private boolean originalShared;
+    private boolean shuffledShared;
+
+    // Slot of the current song, or NOT_QUEUED
+    private int currentSlot = NOT_QUEUED;
+
+    /** Replace the queue with the songs in order, unshuffled and with no current song */
+    void setSongs(List<MusicItem> newSongs) {
+        int count = newSongs.size();
+        songs = newSongs.toArray(new MusicItem[0]);
+        slotCount = count;
+        slotById.clear();
+        originalOrder = new int[count];
+        originalPosition = new int[count];
+        for (int slot = 0; slot < count; slot++) {
+            originalOrder[slot] = slot;
+            originalPosition[slot] = slot;
+            // Repeated songs are found at their first position, as a linear scan would
+            if (!slotById.containsKey(songs[slot].getId())) {
+                slotById.put(songs[slot].getId(), slot);
+            }
+        }
+        shuffledOrder = new int[0];
+        shuffledPosition = new int[0];
+        shuffled = false;
+        originalShared = false;
+        shuffledShared = false;
+        size = count;
+        currentSlot = NOT_QUEUED;
+    }
+
+    void clear() {
+        setSongs(new ArrayList<>());
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isShuffled() {
+        return shuffled;
+    }
+
+    /** The song at a position of the order being played */
+    MusicItem get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+        }
+        return songs[order()[position]];
+    }
+
+    /** Position of the current song, or -1 when there is none */
+    int getCurrentIndex() {
+        return currentSlot == NOT_QUEUED ? -1 : positions()[currentSlot];
+    }
+
+    /** Make the song at the position current; an out of range position clears it */
+    void setCurrentIndex(int position) {
+        currentSlot = position >= 0 && position < size ? order()[position] : NOT_QUEUED;
+    }
+
+    /** Position of the song with this id, or -1 when it is not queued */
+    int indexOf(long musicId) {
+        int slot = slotById.get(musicId);
+        if (slot == LongIntHashMap.NO_VALUE) {
+            return -1;
+        }
+        return positions()[slot];
+    }
+
+    /**
+     * Add a song at the end of both orders
+     * @return its position
+     */
+    int append(MusicItem song) {
+        if (slotCount == songs.length) {
+            int capacity = Math.max(8, slotCount << 1);
+            songs = Arrays.copyOf(songs, capacity);
+            originalPosition = Arrays.copyOf(originalPosition, capacity);
+            if (shuffled) {
+                shuffledPosition = Arrays.copyOf(shuffledPosition, capacity);
+            }
+        }
+        int slot = slotCount++;
+        songs[slot] = song;
+        if (!slotById.containsKey(song.getId())) {
+            slotById.put(song.getId(), slot);
+        }
+
+        // Snapshots never read past their size, so writing there needs no copy
+        originalOrder = appendTo(originalOrder, originalPosition, slot);
+        if (shuffled) {
+            shuffledOrder = appendTo(shuffledOrder, shuffledPosition, slot);
+        }
+        return size++;
+    }
+
+    /**
+     * Switch to a freshly shuffled order. The current song, if any, moves to the front and
+     * everything else follows in random order.
+     */
+    void shuffle(Random random) {
+        shuffledOrder = new int[Math.max(size, originalOrder.length)];
+        shuffledPosition = new int[Math.max(slotCount, songs.length)];
+        Arrays.fill(shuffledPosition, NOT_QUEUED);
+
+        int write = 0;
+        if (currentSlot != NOT_QUEUED) {
+            shuffledOrder[write++] = currentSlot;
+        }
+        for (int position = 0; position < size; position++) {
+            int slot = originalOrder[position];
+            if (slot != currentSlot) {
+                shuffledOrder[write++] = slot;
+            }
+        }
+
+        int first = currentSlot != NOT_QUEUED ? 1 : 0;
+        for (int i = size - 1; i > first; i--) {
+            int j = first + random.nextInt(i - first + 1);
+            int swap = shuffledOrder[i];
+            shuffledOrder[i] = shuffledOrder[j];
+            shuffledOrder[j] = swap;
+        }
+        for (int position = 0; position < size; position++) {
+            shuffledPosition[shuffledOrder[position]] = position;
+        }
+        shuffled = true;
+        shuffledShared = false;
+    }
+
+    /** Go back to the original order, keeping the current song */
+    void unshuffle() {
+        shuffled = false;
+        shuffledOrder = new int[0];
+        shuffledPosition = new int[0];
+        shuffledShared = false;
+    }
+
+    /**
+     * Move the song at one position of the order being played to another. Unshuffled, this
+     * reorders the original order itself.
+     */
+    void move(int from, int to) {
+        if (from < 0 || from >= size || to < 0 || to >= size) {
+            throw new IndexOutOfBoundsException("Move " + from + " -> " + to + ", Size: " + size);
+        }
+        if (from == to) return;
+
+        if (shuffled) {
+            unshareShuffled();
+        } else {
+            unshareOriginal();
+        }
+        int[] order = order();
+        int[] positions = positions();
+        int moved = order[from];
+        if (from < to) {
+            System.arraycopy(order, from + 1, order, from, to - from);
+        } else {
+            System.arraycopy(order, to, order, to + 1, from - to);
+        }
+        order[to] = moved;
+        for (int position = Math.min(from, to); position <= Math.max(from, to); position++) {
+            positions[order[position]] = position;
+        }
+    }
+
+    /**
+     * Remove the song at a position of the order being played from both orders
+     * @return the removed song
+     */
+    MusicItem remove(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+        }
+        int slot = order()[position];
+        unshareOriginal();
+        removeFrom(originalOrder, originalPosition, slot, size);
+        if (shuffled) {
+            unshareShuffled();
+            removeFrom(shuffledOrder, shuffledPosition, slot, size);
+        }
+        size--;
+
+        MusicItem song = songs[slot];
+        if (slotById.get(song.getId()) == slot) {
+            slotById.remove(song.getId());
+        }
+        if (slot == currentSlot) {
+            currentSlot = NOT_QUEUED;
+        }
+        return song;
+    }
+
+    /** The songs in the order being played, as a new list */
+    List<MusicItem> toList() {
+        int[] order = order();
+        List<MusicItem> list = new ArrayList<>(size);
+        for (int position = 0; position < size; position++) {
+            list.add(songs[order[position]]);
+        }
+        return list;
+    }
+
+    /** The order being played and the current position, for readers on other threads */
+    Snapshot snapshot() {
+        if (shuffled) {
+            shuffledShared = true;
+        } else {
+            originalShared = true;
+        }
+        return new Snapshot(songs, order(), size, getCurrentIndex());
+    }
+
+    private int[] order() {
+        return shuffled ? shuffledOrder : originalOrder;
+    }
+
+    private int[] positions() {
+        return shuffled ? shuffledPosition : originalPosition;
+    }
+
+    /** Give an order its own array before changing it in place, if a snapshot holds it */
+    private void unshareOriginal() {
+        if (originalShared) {
+            originalOrder = originalOrder.clone();
+            originalShared = false;
+        }
+    }
+
+    private void unshareShuffled() {
+        if (shuffledShared) {
+            shuffledOrder = shuffledOrder.clone();
+            shuffledShared = false;
+        }
+    }
+
+    private int[] appendTo(int[] order, int[] positions, int slot) {
+        if (size == order.length) {
+            order = Arrays.copyOf(order, Math.max(8, size << 1));
+        }
+        order[size] = slot;
+        positions[slot] = size;
+        return order;
+    }
+
+    private static void removeFrom(int[] order, int[] positions, int slot, int size) {
+        int position = positions[slot];
+        System.arraycopy(order, position + 1, order, position, size - position - 1);
+        for (int i = position; i < size - 1; i++) {
+            positions[order[i]] = i;
+        }
+        positions[slot] = NOT_QUEUED;
+    }
+}
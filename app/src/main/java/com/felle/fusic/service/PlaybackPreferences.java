@@ -0,0 +1,45 @@
+package com.felle.fusic.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Playback options kept with the other app preferences. MusicService reads them each time
+ * it sets up a track change, so a change applies from the next track on.
+ */
+public final class PlaybackPreferences {
+
+    private static final String PREFS_NAME = "app_preferences";
+    private static final String KEY_GAPLESS = "gapless_playback";
+    private static final String KEY_CROSSFADE = "crossfade_seconds";
+
+    public static final int MAX_CROSSFADE_SECONDS = 12;
+
+    private PlaybackPreferences() {
+    }
+
+    /** Whether the next track is prepared ahead and chained onto the current one */
+    public static boolean isGaplessEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_GAPLESS, true);
+    }
+
+    public static void setGaplessEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_GAPLESS, enabled).apply();
+    }
+
+    /** Length of the crossfade between tracks, 0 when tracks do not overlap */
+    public static int getCrossfadeSeconds(Context context) {
+        int seconds = prefs(context).getInt(KEY_CROSSFADE, 0);
+        return Math.max(0, Math.min(seconds, MAX_CROSSFADE_SECONDS));
+    }
+
+    public static void setCrossfadeSeconds(Context context, int seconds) {
+        prefs(context).edit()
+                .putInt(KEY_CROSSFADE, Math.max(0, Math.min(seconds, MAX_CROSSFADE_SECONDS)))
+                .apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -1,5 +1,8 @@
 package com.felle.fusic.ui;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+
+import com.felle.fusic.ui.collection.CollectionManager;
 import com.google.android.material.color.DynamicColors;
 
 public class MyApplication extends Application {
@@ -7,5 +10,17 @@ public class MyApplication extends Application {
     public void onCreate() {
         super.onCreate();
         DynamicColors.applyToActivitiesIfAvailable(this);
+        CollectionManager.preload(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // From UI_HIDDEN up the app is in the background and may be killed soon. The
+        // RUNNING_* levels come while it is in the foreground, where blocking on the
+        // write would stall the UI, so those leave it to the scheduled flush
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            CollectionManager.flushPendingWrites();
+        }
     }
 }
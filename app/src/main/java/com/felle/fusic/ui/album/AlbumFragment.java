@@ -1,13 +1,9 @@
 package com.felle.fusic.ui.album;
 
 import android.Manifest;
-import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -22,32 +18,82 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.felle.fusic.R;
+import com.felle.fusic.data.LibraryDelta;
+import com.felle.fusic.data.MediaLibraryRepository;
 import com.felle.fusic.databinding.FragmentAlbumBinding;
 import com.felle.fusic.service.MusicService;
 import com.felle.fusic.ui.music.MusicItem;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class AlbumFragment extends Fragment {
 
     private FragmentAlbumBinding binding;
     private AlbumAdapter albumAdapter;
     private List<AlbumItem> albumList = new ArrayList<>();
-    private ExecutorService executorService;
+    private MediaLibraryRepository libraryRepository;
     private static final int PERMISSION_REQUEST_CODE = 124;
 
-    private static List<AlbumItem> cachedAlbumList = null;
-    private static long lastCacheTime = 0;
-    private static final long CACHE_DURATION = 5 * 60 * 1000;
     private boolean isLoading = false;
     private boolean hasLoadedOnce = false;
     private boolean permissionJustGranted = false;
 
+    private final MediaLibraryRepository.OnLibraryChangedListener libraryListener =
+            new MediaLibraryRepository.OnLibraryChangedListener() {
+        @Override
+        public void onLibraryChanged() {
+            if (binding == null) return;
+
+            boolean wasLoading = isLoading;
+            showLoading(false);
+            isLoading = false;
+            hasLoadedOnce = true;
+
+            int previousSize = albumList.size();
+            applyLibrary();
+
+            if (!wasLoading) return;
+
+            int newCount = albumList.size();
+            if (newCount > 0) {
+                if (newCount == previousSize) {
+                    Toast.makeText(getContext(),
+                            "Album library is up to date (" + newCount + " albums)",
+                            Toast.LENGTH_SHORT).show();
+                }
+            } else {
+                Toast.makeText(getContext(),
+                        "No albums found",
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        @Override
+        public void onLibraryDelta(LibraryDelta delta) {
+            if (binding == null) return;
+
+            if (albumList.size() != delta.getPreviousAlbumCount()) {
+                applyLibrary();
+                return;
+            }
+
+            albumList.clear();
+            albumList.addAll(delta.getAlbums());
+            delta.getAlbumDiff().dispatchUpdatesTo(albumAdapter);
+            updateUI();
+        }
+
+        @Override
+        public void onLibraryLoadFailed() {
+            if (binding == null) return;
+
+            showLoading(false);
+            isLoading = false;
+            Toast.makeText(getContext(), "Error loading albums", Toast.LENGTH_SHORT).show();
+        }
+    };
+
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
         AlbumViewModel albumViewModel =
@@ -56,7 +102,8 @@ public class AlbumFragment extends Fragment {
         binding = FragmentAlbumBinding.inflate(inflater, container, false);
         View root = binding.getRoot();
 
-        executorService = Executors.newSingleThreadExecutor();
+        libraryRepository = MediaLibraryRepository.getInstance(requireContext());
+        libraryRepository.addListener(libraryListener);
         setupRecyclerView();
 
         loadAlbumData();
@@ -95,78 +142,14 @@ public class AlbumFragment extends Fragment {
             return;
         }
 
-        executorService.execute(() -> {
-            List<MusicItem> albumSongs = loadSongsFromAlbum(albumItem.getAlbumId());
+        List<MusicItem> albumSongs = libraryRepository.getSongsForAlbum(albumItem.getAlbumId());
 
-            if (!albumSongs.isEmpty()) {
-                requireActivity().runOnUiThread(() -> {
-                    startAlbumPlayback(albumSongs);
-                    Toast.makeText(getContext(), "Playing " + albumItem.getAlbumName(), Toast.LENGTH_SHORT).show();
-                });
-            } else {
-                requireActivity().runOnUiThread(() -> {
-                    Toast.makeText(getContext(), "No songs found in this album", Toast.LENGTH_SHORT).show();
-                });
-            }
-        });
-    }
-
-    private List<MusicItem> loadSongsFromAlbum(long albumId) {
-        List<MusicItem> songs = new ArrayList<>();
-
-        if (getContext() == null) return songs;
-
-        ContentResolver contentResolver = requireContext().getContentResolver();
-        Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        String[] projection = {
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.TITLE,
-                MediaStore.Audio.Media.ARTIST,
-                MediaStore.Audio.Media.ALBUM,
-                MediaStore.Audio.Media.DURATION,
-                MediaStore.Audio.Media.DATA,
-                MediaStore.Audio.Media.ALBUM_ID,
-                MediaStore.Audio.Media.TRACK
-        };
-
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0 AND " +
-                MediaStore.Audio.Media.ALBUM_ID + " = ?";
-        String[] selectionArgs = {String.valueOf(albumId)};
-        String sortOrder = MediaStore.Audio.Media.TRACK + " ASC, " +
-                MediaStore.Audio.Media.TITLE + " ASC";
-
-        try (Cursor cursor = contentResolver.query(musicUri, projection, selection, selectionArgs, sortOrder)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
-                int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-                int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
-                int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-
-                do {
-                    long id = cursor.getLong(idColumn);
-                    String title = cursor.getString(titleColumn);
-                    String artist = cursor.getString(artistColumn);
-                    String album = cursor.getString(albumColumn);
-                    long duration = cursor.getLong(durationColumn);
-                    String path = cursor.getString(pathColumn);
-                    long songAlbumId = cursor.getLong(albumIdColumn);
-
-                    Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + songAlbumId);
-
-                    MusicItem musicItem = new MusicItem(id, title, artist, album, duration, path, albumArtUri);
-                    songs.add(musicItem);
-
-                } while (cursor.moveToNext());
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (!albumSongs.isEmpty()) {
+            startAlbumPlayback(albumSongs);
+            Toast.makeText(getContext(), "Playing " + albumItem.getAlbumName(), Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(getContext(), "No songs found in this album", Toast.LENGTH_SHORT).show();
         }
-
-        return songs;
     }
 
     private void startAlbumPlayback(List<MusicItem> albumSongs) {
@@ -189,33 +172,23 @@ public class AlbumFragment extends Fragment {
             return;
         }
 
-        if (isCacheValid() && hasLoadedOnce) {
-            loadFromCache();
+        if (libraryRepository.isLoaded()) {
+            applyLibrary();
             return;
         }
 
         checkPermissionAndLoadAlbums();
     }
 
-    private boolean isCacheValid() {
-        return cachedAlbumList != null &&
-                !cachedAlbumList.isEmpty() &&
-                (System.currentTimeMillis() - lastCacheTime) < CACHE_DURATION;
-    }
-
-    private void loadFromCache() {
-        if (binding != null && binding.albumRecyclerView != null) {
-            binding.albumRecyclerView.post(() -> {
-                albumList.clear();
-                albumList.addAll(cachedAlbumList);
+    private void applyLibrary() {
+        albumList.clear();
+        albumList.addAll(libraryRepository.getAlbums());
 
-                if (albumAdapter != null) {
-                    albumAdapter.notifyDataSetChanged();
-                }
-
-                updateUI();
-            });
+        if (albumAdapter != null) {
+            albumAdapter.notifyDataSetChanged();
         }
+
+        updateUI();
     }
 
     private void setupRecyclerView() {
@@ -304,106 +277,7 @@ public class AlbumFragment extends Fragment {
 
         isLoading = true;
         showLoading(true);
-
-        executorService.execute(() -> {
-            Map<String, AlbumItem> albumMap = new HashMap<>();
-            ContentResolver contentResolver = requireContext().getContentResolver();
-            Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-            String[] projection = {
-                    MediaStore.Audio.Media.ALBUM,
-                    MediaStore.Audio.Media.ARTIST,
-                    MediaStore.Audio.Media.ALBUM_ID,
-                    MediaStore.Audio.Media._ID
-            };
-
-            String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-            String sortOrder = MediaStore.Audio.Media.ALBUM + " ASC";
-
-            try (Cursor cursor = contentResolver.query(musicUri, projection, selection, null, sortOrder)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                    int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                    int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-                    int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-
-                    do {
-                        String albumName = cursor.getString(albumColumn);
-                        String artistName = cursor.getString(artistColumn);
-                        long albumId = cursor.getLong(albumIdColumn);
-
-                        if (albumName != null && !albumName.trim().isEmpty()) {
-                            String albumKey = albumId + "_" + albumName;
-
-                            if (!albumMap.containsKey(albumKey)) {
-                                Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
-
-                                AlbumItem albumItem = new AlbumItem(
-                                        albumId,
-                                        albumName,
-                                        artistName != null ? artistName : "Unknown Artist",
-                                        albumArtUri,
-                                        1
-                                );
-                                albumMap.put(albumKey, albumItem);
-                            } else {
-                                AlbumItem existingAlbum = albumMap.get(albumKey);
-                                if (existingAlbum != null) {
-                                    existingAlbum.setSongCount(existingAlbum.getSongCount() + 1);
-                                }
-                            }
-                        }
-
-                    } while (cursor.moveToNext());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    isLoading = false;
-                    Toast.makeText(getContext(), "Error loading albums", Toast.LENGTH_SHORT).show();
-                });
-                return;
-            }
-
-            List<AlbumItem> tempAlbumList = new ArrayList<>(albumMap.values());
-
-            requireActivity().runOnUiThread(() -> {
-                showLoading(false);
-                isLoading = false;
-                hasLoadedOnce = true;
-
-                cachedAlbumList = new ArrayList<>(tempAlbumList);
-                lastCacheTime = System.currentTimeMillis();
-
-                int previousSize = albumList.size();
-                albumList.clear();
-                albumList.addAll(tempAlbumList);
-
-                if (albumAdapter != null) {
-                    albumAdapter.notifyDataSetChanged();
-                }
-
-                updateUI();
-
-                int newCount = tempAlbumList.size();
-                if (newCount > 0) {
-                    if (newCount == previousSize) {
-                        Toast.makeText(getContext(),
-                                "Album library is up to date (" + newCount + " albums)",
-                                Toast.LENGTH_SHORT).show();
-                    } else {
-//                        Toast.makeText(getContext(),
-//                                "Library updated: " + newCount + " albums",
-//                                Toast.LENGTH_SHORT).show();
-                    }
-                } else {
-                    Toast.makeText(getContext(),
-                            "No albums found",
-                            Toast.LENGTH_SHORT).show();
-                }
-            });
-        });
+        libraryRepository.load();
     }
 
     private void updateUI() {
@@ -435,20 +309,15 @@ public class AlbumFragment extends Fragment {
     }
 
     public void refreshData() {
-        cachedAlbumList = null;
-        lastCacheTime = 0;
         hasLoadedOnce = false;
 
         if (getContext() != null) {
             Toast.makeText(getContext(), "Refreshing album library...", Toast.LENGTH_SHORT).show();
         }
 
-        loadAlbumData();
-    }
-
-    public static void clearCache() {
-        cachedAlbumList = null;
-        lastCacheTime = 0;
+        isLoading = true;
+        showLoading(true);
+        libraryRepository.refresh();
     }
 
     @Override
@@ -519,8 +388,8 @@ public class AlbumFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
+        if (libraryRepository != null) {
+            libraryRepository.removeListener(libraryListener);
         }
         binding = null;
     }
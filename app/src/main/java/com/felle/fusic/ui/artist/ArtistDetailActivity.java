@@ -1,19 +1,14 @@
 package com.felle.fusic.ui.artist;
 
-import static com.felle.fusic.ui.collection.CollectionFragment.ACTION_COLLECTION_CREATED;
-import static com.felle.fusic.ui.collection.CollectionFragment.ACTION_SONG_ADDED_TO_COLLECTION;
-
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.RecoverableSecurityException;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -44,10 +39,12 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.textfield.TextInputEditText;
 
 import com.felle.fusic.R;
+import com.felle.fusic.data.MediaLibraryRepository;
 import com.felle.fusic.ui.music.MusicAdapter;
 import com.felle.fusic.ui.music.MusicItem;
 import com.felle.fusic.ui.pages.nowplaying.NowPlayingActivity;
 import com.felle.fusic.ui.pages.nowplaying.AddToCollectionAdapter;
+import com.felle.fusic.ui.collection.AddSongsToCollectionSheet;
 import com.felle.fusic.ui.collection.Collection;
 import com.felle.fusic.ui.collection.CollectionManager;
 import com.felle.fusic.service.MusicService;
@@ -56,8 +53,6 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class ArtistDetailActivity extends AppCompatActivity {
 
@@ -85,7 +80,7 @@ public class ArtistDetailActivity extends AppCompatActivity {
     private ArtistItem artistItem;
     private List<MusicItem> artistSongs = new ArrayList<>();
     private MusicAdapter musicAdapter;
-    private ExecutorService executorService;
+    private MediaLibraryRepository libraryRepository;
     private boolean isLoading = false;
     private CollectionManager collectionManager;
 
@@ -156,13 +151,35 @@ public class ArtistDetailActivity extends AppCompatActivity {
         );
     }
 
+    private final MediaLibraryRepository.OnLibraryChangedListener libraryListener =
+            new MediaLibraryRepository.OnLibraryChangedListener() {
+        @Override
+        public void onLibraryChanged() {
+            if (isActivityDestroyed) return;
+
+            showLoading(false);
+            isLoading = false;
+            showArtistSongs();
+        }
+
+        @Override
+        public void onLibraryLoadFailed() {
+            if (isActivityDestroyed) return;
+
+            showLoading(false);
+            isLoading = false;
+            Toast.makeText(ArtistDetailActivity.this, "Error loading artist songs", Toast.LENGTH_SHORT).show();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_artist_detail);
 
         try {
-            executorService = Executors.newSingleThreadExecutor();
+            libraryRepository = MediaLibraryRepository.getInstance(this);
+            libraryRepository.addListener(libraryListener);
             collectionManager = new CollectionManager(this);
 
             if (!getArtistDataFromIntent()) {
@@ -363,6 +380,10 @@ public class ArtistDetailActivity extends AppCompatActivity {
     private void setupArtistHeader() {
         try {
             artistNameTextView.setText(artistItem.getArtistName());
+            artistNameTextView.setOnLongClickListener(v -> {
+                showAddArtistToCollectionBottomSheet();
+                return true;
+            });
         } catch (Exception e) {
             Log.e(TAG, "Error setting up artist header: " + e.getMessage(), e);
         }
@@ -604,6 +625,7 @@ public class ArtistDetailActivity extends AppCompatActivity {
         Toast.makeText(this, "Song deleted successfully", Toast.LENGTH_SHORT).show();
 
         artistSongs.remove(musicItem);
+        libraryRepository.removeSong(musicItem.getId());
         if (musicAdapter != null) {
             musicAdapter.notifyDataSetChanged();
         }
@@ -666,7 +688,6 @@ public class ArtistDetailActivity extends AppCompatActivity {
                             Toast.makeText(this,
                                     "Added to " + collection.getName(),
                                     Toast.LENGTH_SHORT).show();
-                            broadcastCollectionChange(ACTION_SONG_ADDED_TO_COLLECTION);
                             bottomSheetDialog.dismiss();
                         } else {
                             Toast.makeText(this,
@@ -736,23 +757,19 @@ public class ArtistDetailActivity extends AppCompatActivity {
             Toast.makeText(this,
                     "Created \"" + collectionName + "\" and added song",
                     Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
         } else {
             Toast.makeText(this,
                     "Collection created",
                     Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
         }
     }
 
-    private void broadcastCollectionChange(String action) {
-        try {
-            Intent intent = new Intent(action);
-            intent.setPackage(getPackageName());
-            sendBroadcast(intent);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * Add every song of this artist to a collection in one step
+     */
+    private void showAddArtistToCollectionBottomSheet() {
+        AddSongsToCollectionSheet.show(this, collectionManager, artistItem.getArtistName(),
+                collectionManager.getArtistSongIds(artistItem.getArtistName()));
     }
 
     private void loadArtistSongs() {
@@ -763,91 +780,35 @@ public class ArtistDetailActivity extends AppCompatActivity {
 
         if (isLoading) return;
 
+        if (libraryRepository.isLoaded()) {
+            showArtistSongs();
+            return;
+        }
+
         isLoading = true;
         showLoading(true);
+        libraryRepository.load();
+    }
 
-        executorService.execute(() -> {
-            List<MusicItem> tempSongsList = new ArrayList<>();
-
-            ContentResolver contentResolver = getContentResolver();
-            Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-            String[] projection = {
-                    MediaStore.Audio.Media._ID,
-                    MediaStore.Audio.Media.TITLE,
-                    MediaStore.Audio.Media.ARTIST,
-                    MediaStore.Audio.Media.ALBUM,
-                    MediaStore.Audio.Media.DURATION,
-                    MediaStore.Audio.Media.DATA,
-                    MediaStore.Audio.Media.ALBUM_ID,
-                    MediaStore.Audio.Media.TRACK
-            };
-
-            String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0 AND " +
-                    MediaStore.Audio.Media.ARTIST + " = ?";
-            String[] selectionArgs = {artistItem.getArtistName()};
-            String sortOrder = MediaStore.Audio.Media.ALBUM + " ASC, " +
-                    MediaStore.Audio.Media.TRACK + " ASC, " +
-                    MediaStore.Audio.Media.TITLE + " ASC";
-
-            try (Cursor cursor = contentResolver.query(musicUri, projection, selection, selectionArgs, sortOrder)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                    int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
-                    int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                    int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                    int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-                    int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
-                    int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-
-                    do {
-                        long id = cursor.getLong(idColumn);
-                        String title = cursor.getString(titleColumn);
-                        String artist = cursor.getString(artistColumn);
-                        String album = cursor.getString(albumColumn);
-                        long duration = cursor.getLong(durationColumn);
-                        String path = cursor.getString(pathColumn);
-                        long albumId = cursor.getLong(albumIdColumn);
-
-                        Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
-
-                        MusicItem musicItem = new MusicItem(id, title, artist, album, duration, path, albumArtUri);
-                        tempSongsList.add(musicItem);
-
-                    } while (cursor.moveToNext());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                runOnUiThread(() -> {
-                    showLoading(false);
-                    isLoading = false;
-                    Toast.makeText(this, "Error loading artist songs", Toast.LENGTH_SHORT).show();
-                });
-                return;
-            }
-
-            runOnUiThread(() -> {
-                showLoading(false);
-                isLoading = false;
+    private void showArtistSongs() {
+        if (artistSongs == null) return;
 
-                artistSongs.clear();
-                artistSongs.addAll(tempSongsList);
+        artistSongs.clear();
+        artistSongs.addAll(libraryRepository.getSongsForArtist(artistItem.getArtistName()));
 
-                songCountTextView.setText(artistSongs.size() + " songs");
+        songCountTextView.setText(artistSongs.size() + " songs");
 
-                long totalDuration = 0;
-                for (MusicItem song : artistSongs) {
-                    totalDuration += song.getDuration();
-                }
-                totalDurationTextView.setText(formatTotalDuration(totalDuration));
+        long totalDuration = 0;
+        for (MusicItem song : artistSongs) {
+            totalDuration += song.getDuration();
+        }
+        totalDurationTextView.setText(formatTotalDuration(totalDuration));
 
-                if (musicAdapter != null) {
-                    musicAdapter.notifyDataSetChanged();
-                }
+        if (musicAdapter != null) {
+            musicAdapter.notifyDataSetChanged();
+        }
 
-                updateUI();
-            });
-        });
+        updateUI();
     }
 
     private boolean hasStoragePermission() {
@@ -1139,8 +1100,8 @@ public class ArtistDetailActivity extends AppCompatActivity {
             }
         }
 
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
+        if (libraryRepository != null) {
+            libraryRepository.removeListener(libraryListener);
         }
 
         try {
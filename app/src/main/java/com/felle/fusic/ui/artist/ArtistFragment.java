@@ -1,13 +1,9 @@
 package com.felle.fusic.ui.artist;
 
 import android.Manifest;
-import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -22,30 +18,61 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.felle.fusic.R;
+import com.felle.fusic.data.LibraryDelta;
+import com.felle.fusic.data.MediaLibraryRepository;
 import com.felle.fusic.databinding.FragmentArtistBinding;
 import com.felle.fusic.service.MusicService;
 import com.felle.fusic.ui.music.MusicItem;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class ArtistFragment extends Fragment {
 
     private FragmentArtistBinding binding;
     private ArtistAdapter artistAdapter;
     private List<ArtistItem> artistList = new ArrayList<>();
-    private ExecutorService executorService;
+    private MediaLibraryRepository libraryRepository;
     private static final int PERMISSION_REQUEST_CODE = 125;
 
-    private static List<ArtistItem> cachedArtistList = null;
-    private static long lastCacheTime = 0;
-    private static final long CACHE_DURATION = 5 * 60 * 1000;
     private boolean isLoading = false;
 
+    private final MediaLibraryRepository.OnLibraryChangedListener libraryListener =
+            new MediaLibraryRepository.OnLibraryChangedListener() {
+        @Override
+        public void onLibraryChanged() {
+            if (binding == null) return;
+
+            showLoading(false);
+            isLoading = false;
+            applyLibrary();
+        }
+
+        @Override
+        public void onLibraryDelta(LibraryDelta delta) {
+            if (binding == null) return;
+
+            if (artistList.size() != delta.getPreviousArtistCount()) {
+                applyLibrary();
+                return;
+            }
+
+            artistList.clear();
+            artistList.addAll(delta.getArtists());
+            delta.getArtistDiff().dispatchUpdatesTo(artistAdapter);
+            updateUI();
+        }
+
+        @Override
+        public void onLibraryLoadFailed() {
+            if (binding == null) return;
+
+            showLoading(false);
+            isLoading = false;
+            Toast.makeText(getContext(), "Error loading artists", Toast.LENGTH_SHORT).show();
+        }
+    };
+
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
         ArtistViewModel artistViewModel =
@@ -54,7 +81,8 @@ public class ArtistFragment extends Fragment {
         binding = FragmentArtistBinding.inflate(inflater, container, false);
         View root = binding.getRoot();
 
-        executorService = Executors.newSingleThreadExecutor();
+        libraryRepository = MediaLibraryRepository.getInstance(requireContext());
+        libraryRepository.addListener(libraryListener);
         setupRecyclerView();
         loadArtistData();
 
@@ -77,79 +105,14 @@ public class ArtistFragment extends Fragment {
             return;
         }
 
-        executorService.execute(() -> {
-            List<MusicItem> artistSongs = loadSongsFromArtist(artistItem.getArtistName());
-
-            if (!artistSongs.isEmpty()) {
-                requireActivity().runOnUiThread(() -> {
-                    startArtistPlayback(artistSongs);
-                    Toast.makeText(getContext(), "Playing " + artistItem.getArtistName(), Toast.LENGTH_SHORT).show();
-                });
-            } else {
-                requireActivity().runOnUiThread(() -> {
-                    Toast.makeText(getContext(), "No songs found for this artist", Toast.LENGTH_SHORT).show();
-                });
-            }
-        });
-    }
+        List<MusicItem> artistSongs = libraryRepository.getSongsForArtist(artistItem.getArtistName());
 
-    private List<MusicItem> loadSongsFromArtist(String artistName) {
-        List<MusicItem> songs = new ArrayList<>();
-
-        if (getContext() == null) return songs;
-
-        ContentResolver contentResolver = requireContext().getContentResolver();
-        Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        String[] projection = {
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.TITLE,
-                MediaStore.Audio.Media.ARTIST,
-                MediaStore.Audio.Media.ALBUM,
-                MediaStore.Audio.Media.DURATION,
-                MediaStore.Audio.Media.DATA,
-                MediaStore.Audio.Media.ALBUM_ID,
-                MediaStore.Audio.Media.TRACK
-        };
-
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0 AND " +
-                MediaStore.Audio.Media.ARTIST + " = ?";
-        String[] selectionArgs = {artistName};
-        String sortOrder = MediaStore.Audio.Media.ALBUM + " ASC, " +
-                MediaStore.Audio.Media.TRACK + " ASC, " +
-                MediaStore.Audio.Media.TITLE + " ASC";
-
-        try (Cursor cursor = contentResolver.query(musicUri, projection, selection, selectionArgs, sortOrder)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
-                int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-                int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
-                int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-
-                do {
-                    long id = cursor.getLong(idColumn);
-                    String title = cursor.getString(titleColumn);
-                    String artist = cursor.getString(artistColumn);
-                    String album = cursor.getString(albumColumn);
-                    long duration = cursor.getLong(durationColumn);
-                    String path = cursor.getString(pathColumn);
-                    long albumId = cursor.getLong(albumIdColumn);
-
-                    Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
-
-                    MusicItem musicItem = new MusicItem(id, title, artist, album, duration, path, albumArtUri);
-                    songs.add(musicItem);
-
-                } while (cursor.moveToNext());
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (!artistSongs.isEmpty()) {
+            startArtistPlayback(artistSongs);
+            Toast.makeText(getContext(), "Playing " + artistItem.getArtistName(), Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(getContext(), "No songs found for this artist", Toast.LENGTH_SHORT).show();
         }
-
-        return songs;
     }
 
     private void startArtistPlayback(List<MusicItem> artistSongs) {
@@ -168,33 +131,23 @@ public class ArtistFragment extends Fragment {
     }
 
     private void loadArtistData() {
-        if (isCacheValid()) {
-            loadFromCache();
+        if (libraryRepository.isLoaded()) {
+            applyLibrary();
             return;
         }
 
         checkPermissionAndLoadArtists();
     }
 
-    private boolean isCacheValid() {
-        return cachedArtistList != null &&
-                !cachedArtistList.isEmpty() &&
-                (System.currentTimeMillis() - lastCacheTime) < CACHE_DURATION;
-    }
-
-    private void loadFromCache() {
-        if (binding != null && binding.artistRecyclerView != null) {
-            binding.artistRecyclerView.post(() -> {
-                artistList.clear();
-                artistList.addAll(cachedArtistList);
-
-                if (artistAdapter != null) {
-                    artistAdapter.notifyDataSetChanged();
-                }
+    private void applyLibrary() {
+        artistList.clear();
+        artistList.addAll(libraryRepository.getArtists());
 
-                updateUI();
-            });
+        if (artistAdapter != null) {
+            artistAdapter.notifyDataSetChanged();
         }
+
+        updateUI();
     }
 
     private void setupRecyclerView() {
@@ -271,87 +224,7 @@ public class ArtistFragment extends Fragment {
 
         isLoading = true;
         showLoading(true);
-
-        executorService.execute(() -> {
-            Map<String, ArtistItem> artistMap = new HashMap<>();
-            ContentResolver contentResolver = requireContext().getContentResolver();
-            Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-            String[] projection = {
-                    MediaStore.Audio.Media.ARTIST,
-                    MediaStore.Audio.Media.ALBUM_ID,
-                    MediaStore.Audio.Media._ID,
-                    MediaStore.Audio.Media.DURATION
-            };
-
-            String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-            String sortOrder = MediaStore.Audio.Media.ARTIST + " ASC";
-
-            try (Cursor cursor = contentResolver.query(musicUri, projection, selection, null, sortOrder)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                    int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-                    int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                    int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-
-                    do {
-                        String artistName = cursor.getString(artistColumn);
-                        long albumId = cursor.getLong(albumIdColumn);
-                        long duration = cursor.getLong(durationColumn);
-
-                        if (artistName != null && !artistName.trim().isEmpty() &&
-                                !artistName.equals("<unknown>")) {
-
-                            if (!artistMap.containsKey(artistName)) {
-                                Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
-
-                                ArtistItem artistItem = new ArtistItem(
-                                        artistName,
-                                        albumArtUri,
-                                        1,
-                                        duration
-                                );
-                                artistMap.put(artistName, artistItem);
-                            } else {
-                                ArtistItem existingArtist = artistMap.get(artistName);
-                                if (existingArtist != null) {
-                                    existingArtist.setSongCount(existingArtist.getSongCount() + 1);
-                                    existingArtist.addDuration(duration);
-                                }
-                            }
-                        }
-
-                    } while (cursor.moveToNext());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    isLoading = false;
-                    Toast.makeText(getContext(), "Error loading artists", Toast.LENGTH_SHORT).show();
-                });
-                return;
-            }
-
-            List<ArtistItem> tempArtistList = new ArrayList<>(artistMap.values());
-
-            requireActivity().runOnUiThread(() -> {
-                showLoading(false);
-                isLoading = false;
-
-                cachedArtistList = new ArrayList<>(tempArtistList);
-                lastCacheTime = System.currentTimeMillis();
-
-                artistList.clear();
-                artistList.addAll(tempArtistList);
-
-                if (artistAdapter != null) {
-                    artistAdapter.notifyDataSetChanged();
-                }
-
-                updateUI();
-            });
-        });
+        libraryRepository.load();
     }
 
     private void updateUI() {
@@ -383,21 +256,16 @@ public class ArtistFragment extends Fragment {
     }
 
     public void refreshData() {
-        cachedArtistList = null;
-        lastCacheTime = 0;
-        loadArtistData();
-    }
-
-    public static void clearCache() {
-        cachedArtistList = null;
-        lastCacheTime = 0;
+        isLoading = true;
+        showLoading(true);
+        libraryRepository.refresh();
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
+        if (libraryRepository != null) {
+            libraryRepository.removeListener(libraryListener);
         }
         binding = null;
     }
@@ -0,0 +1,133 @@
+package com.felle.fusic.ui.collection;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.felle.fusic.R;
+import com.felle.fusic.ui.pages.nowplaying.AddToCollectionAdapter;
+import com.google.android.material.bottomsheet.BottomSheetDialog;
+import com.google.android.material.button.MaterialButton;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+import com.google.android.material.textfield.TextInputEditText;
+
+import java.util.List;
+
+/**
+ * Bottom sheet that adds a group of songs, such as an album or everything by an artist,
+ * to an existing collection in one step, or creates a new collection holding them.
+ */
+public final class AddSongsToCollectionSheet {
+
+    private AddSongsToCollectionSheet() {
+    }
+
+    /**
+     * @param suggestedName prefilled name for a new collection
+     * @param musicIds the songs, in the order they are added
+     */
+    public static void show(Context context, CollectionManager collectionManager,
+                            String suggestedName, long[] musicIds) {
+        if (musicIds.length == 0) {
+            Toast.makeText(context, "No songs to add", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        List<Collection> collections = collectionManager.getAllCollections();
+
+        BottomSheetDialog bottomSheetDialog = new BottomSheetDialog(context);
+        View view = LayoutInflater.from(context).inflate(
+                R.layout.bottom_sheet_add_to_collection,
+                null
+        );
+
+        RecyclerView collectionsRecyclerView = view.findViewById(R.id.collectionsRecyclerView);
+        TextView emptyCollectionsText = view.findViewById(R.id.emptyCollectionsText);
+        MaterialButton createNewCollectionButton = view.findViewById(R.id.createNewCollectionButton);
+
+        collectionsRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+
+        if (collections.isEmpty()) {
+            collectionsRecyclerView.setVisibility(View.GONE);
+            emptyCollectionsText.setVisibility(View.VISIBLE);
+        } else {
+            collectionsRecyclerView.setVisibility(View.VISIBLE);
+            emptyCollectionsText.setVisibility(View.GONE);
+
+            // No single song to check against, so every collection is selectable
+            AddToCollectionAdapter adapter = new AddToCollectionAdapter(
+                    collections,
+                    -1,
+                    collectionManager,
+                    collection -> {
+                        int added = collectionManager.addSongsToCollection(collection.getId(), musicIds);
+                        if (added > 0) {
+                            Toast.makeText(context,
+                                    "Added " + added + (added == 1 ? " song" : " songs") +
+                                            " to " + collection.getName(),
+                                    Toast.LENGTH_SHORT).show();
+                            bottomSheetDialog.dismiss();
+                        } else {
+                            Toast.makeText(context,
+                                    "All songs already in " + collection.getName(),
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+            );
+            collectionsRecyclerView.setAdapter(adapter);
+        }
+
+        createNewCollectionButton.setOnClickListener(v -> {
+            bottomSheetDialog.dismiss();
+            showCreateCollectionDialog(context, collectionManager, suggestedName, musicIds);
+        });
+
+        bottomSheetDialog.setContentView(view);
+        bottomSheetDialog.show();
+    }
+
+    private static void showCreateCollectionDialog(Context context, CollectionManager collectionManager,
+                                                   String suggestedName, long[] musicIds) {
+        View dialogView = LayoutInflater.from(context)
+                .inflate(R.layout.dialog_add_collection, null);
+
+        TextInputEditText editTextName = dialogView.findViewById(R.id.editTextCollectionName);
+        editTextName.setText(suggestedName);
+
+        new MaterialAlertDialogBuilder(context)
+                .setTitle("New Collection")
+                .setView(dialogView)
+                .setPositiveButton("Create", (dialog, which) -> {
+                    String collectionName = editTextName.getText().toString().trim();
+                    if (collectionName.isEmpty()) {
+                        Toast.makeText(context,
+                                "Collection name cannot be empty",
+                                Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+
+                    for (Collection collection : collectionManager.getAllCollections()) {
+                        if (collection.getName().equalsIgnoreCase(collectionName)) {
+                            Toast.makeText(context,
+                                    "Collection already exists",
+                                    Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                    }
+
+                    Collection collection = collectionManager.createCollection(collectionName, musicIds);
+                    int added = collection.getSongCount();
+                    Toast.makeText(context,
+                            "Created \"" + collectionName + "\" with " + added +
+                                    (added == 1 ? " song" : " songs"),
+                            Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+}
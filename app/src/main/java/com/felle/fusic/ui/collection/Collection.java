@@ -3,28 +3,45 @@ package com.felle.fusic.ui.collection;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.felle.fusic.util.OrderedLongSet;
 
 public class Collection implements Parcelable {
     private long id;
     private String name;
-    private List<Long> musicIds;
+    private OrderedLongSet musicIds;
     private long createdAt;
 
-    public Collection(long id, String name, List<Long> musicIds, long createdAt) {
+    // Summary over the songs the library could resolve, kept current by the store
+    private int resolvedCount;
+    private long totalDuration;
+    private long[] coverAlbumIds = new long[0];
+
+    public Collection(long id, String name, long[] musicIds, long createdAt) {
         this.id = id;
         this.name = name;
-        this.musicIds = musicIds != null ? musicIds : new ArrayList<>();
+        this.musicIds = musicIds != null ? new OrderedLongSet(musicIds) : new OrderedLongSet();
         this.createdAt = createdAt;
     }
 
+    /** Independent copy of another collection */
+    public Collection(Collection other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.musicIds = new OrderedLongSet(other.musicIds);
+        this.createdAt = other.createdAt;
+        this.resolvedCount = other.resolvedCount;
+        this.totalDuration = other.totalDuration;
+        this.coverAlbumIds = other.coverAlbumIds;
+    }
+
     protected Collection(Parcel in) {
         id = in.readLong();
         name = in.readString();
-        musicIds = new ArrayList<>();
-        in.readList(musicIds, Long.class.getClassLoader());
+        musicIds = new OrderedLongSet(in.createLongArray());
         createdAt = in.readLong();
+        resolvedCount = in.readInt();
+        totalDuration = in.readLong();
+        coverAlbumIds = in.createLongArray();
     }
 
     public static final Creator<Collection> CREATOR = new Creator<Collection>() {
@@ -55,12 +72,54 @@ public class Collection implements Parcelable {
         this.name = name;
     }
 
-    public List<Long> getMusicIds() {
-        return musicIds;
+    /** Song ids in collection order, as a new array */
+    public long[] getMusicIds() {
+        return musicIds.toArray();
+    }
+
+    /** Replace the songs, keeping the first occurrence of any repeated id */
+    public void setMusicIds(long[] musicIds) {
+        this.musicIds = new OrderedLongSet(musicIds);
+    }
+
+    public long getMusicIdAt(int index) {
+        return musicIds.get(index);
+    }
+
+    /** Position of the song in the collection, or -1 */
+    public int indexOfSong(long musicId) {
+        return musicIds.indexOf(musicId);
+    }
+
+    public boolean containsSong(long musicId) {
+        return musicIds.contains(musicId);
+    }
+
+    /** Append the song unless it is already in the collection */
+    public boolean addSong(long musicId) {
+        return musicIds.add(musicId);
     }
 
-    public void setMusicIds(List<Long> musicIds) {
-        this.musicIds = musicIds;
+    public boolean removeSong(long musicId) {
+        return musicIds.remove(musicId);
+    }
+
+    /**
+     * Move a song to sit right after another one, or to the front when the other id is
+     * not in the collection
+     * @return false if the song itself is not in the collection
+     */
+    public boolean moveSongAfter(long musicId, long previousMusicId) {
+        int from = musicIds.indexOf(musicId);
+        if (from < 0) {
+            return false;
+        }
+
+        int previous = musicIds.indexOf(previousMusicId);
+        // Taking the song out first shifts everything after it one step back
+        int to = previous < 0 ? 0 : (previous < from ? previous + 1 : previous);
+        musicIds.move(from, to);
+        return true;
     }
 
     public long getCreatedAt() {
@@ -72,7 +131,29 @@ public class Collection implements Parcelable {
     }
 
     public int getSongCount() {
-        return musicIds != null ? musicIds.size() : 0;
+        return musicIds.size();
+    }
+
+    /** Number of songs whose duration and album are known */
+    public int getResolvedCount() {
+        return resolvedCount;
+    }
+
+    /** Combined duration in milliseconds of the resolved songs */
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    /** Up to four distinct album ids, in order of first appearance, for the cover */
+    public long[] getCoverAlbumIds() {
+        return coverAlbumIds.clone();
+    }
+
+    void setSummary(int resolvedCount, long totalDuration, long[] coverAlbumIds) {
+        this.resolvedCount = resolvedCount;
+        this.totalDuration = totalDuration;
+        // Shared between copies, so it is never written to after this
+        this.coverAlbumIds = coverAlbumIds;
     }
 
     @Override
@@ -84,7 +165,10 @@ public class Collection implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeLong(id);
         dest.writeString(name);
-        dest.writeList(musicIds);
+        dest.writeLongArray(musicIds.toArray());
         dest.writeLong(createdAt);
+        dest.writeInt(resolvedCount);
+        dest.writeLong(totalDuration);
+        dest.writeLongArray(coverAlbumIds);
     }
-}
\ No newline at end of file
+}
@@ -1,27 +1,36 @@
 package com.felle.fusic.ui.collection;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.RequestOptions;
 import com.felle.fusic.R;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 public class CollectionAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     private static final int VIEW_TYPE_COLLECTION = 0;
     private static final int VIEW_TYPE_ADD_BUTTON = 1;
 
+    private static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+    private static final int[] COVER_VIEW_IDS = {R.id.cover0, R.id.cover1, R.id.cover2, R.id.cover3};
+
     private List<Collection> collections;
     private Context context;
     private OnCollectionClickListener clickListener;
@@ -122,23 +131,85 @@ public class CollectionAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
         notifyDataSetChanged();
     }
 
+    /** Number of collections shown, not counting the add button */
+    public int getCollectionCount() {
+        return collections.size();
+    }
+
+    /** Update only the card the event touched */
+    public void applyEvent(CollectionEvent event) {
+        if (event.type == CollectionEvent.Type.MERGED) {
+            // The merged card goes away; the target below shows what it gained
+            int merged = indexOf(event.mergedCollectionId);
+            if (merged >= 0) {
+                collections.remove(merged);
+                notifyItemRemoved(merged);
+            }
+        }
+        int position = indexOf(event.collectionId);
+        switch (event.type) {
+            case CREATED:
+                if (position >= 0) return;
+                // Collections are listed oldest first, so a new one goes last
+                collections.add(event.collection);
+                if (collections.size() == 1) {
+                    // The add button appears together with the first card
+                    notifyDataSetChanged();
+                } else {
+                    notifyItemInserted(collections.size() - 1);
+                }
+                break;
+            case DELETED:
+                if (position < 0) return;
+                collections.remove(position);
+                if (collections.isEmpty()) {
+                    notifyDataSetChanged();
+                } else {
+                    notifyItemRemoved(position);
+                }
+                break;
+            default:
+                if (position < 0) return;
+                collections.set(position, event.collection);
+                notifyItemChanged(position);
+                break;
+        }
+    }
+
+    private int indexOf(long collectionId) {
+        for (int i = 0; i < collections.size(); i++) {
+            if (collections.get(i).getId() == collectionId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     class CollectionViewHolder extends RecyclerView.ViewHolder {
         private MaterialCardView cardView;
         private TextView textName;
         private TextView textSongCount;
+        private final ImageView[] coverViews = new ImageView[COVER_VIEW_IDS.length];
 
         public CollectionViewHolder(@NonNull View itemView) {
             super(itemView);
             cardView = itemView.findViewById(R.id.collectionCard);
             textName = itemView.findViewById(R.id.textCollectionName);
             textSongCount = itemView.findViewById(R.id.textSongCount);
+            for (int i = 0; i < coverViews.length; i++) {
+                coverViews[i] = itemView.findViewById(COVER_VIEW_IDS[i]);
+            }
         }
 
         public void bind(Collection collection) {
             textName.setText(collection.getName());
 
-            int count = collection.getMusicIds() != null ? collection.getMusicIds().size() : 0;
-            textSongCount.setText(count + (count == 1 ? " song" : " songs"));
+            // Everything on the card comes from the stored summary; no song is resolved here
+            int count = collection.getSongCount();
+            String songs = count + (count == 1 ? " song" : " songs");
+            long duration = collection.getTotalDuration();
+            textSongCount.setText(duration > 0 ? songs + " · " + formatDuration(duration) : songs);
+            bindCover(collection.getCoverAlbumIds());
 
             cardView.setOnClickListener(v -> {
                 if (clickListener != null) {
@@ -158,6 +229,31 @@ public class CollectionAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
                 return false;
             });
         }
+
+        /** Fill the mosaic, repeating covers when the collection spans fewer than four albums */
+        private void bindCover(long[] albumIds) {
+            for (int i = 0; i < coverViews.length; i++) {
+                Uri artUri = albumIds.length > 0
+                        ? ContentUris.withAppendedId(ALBUM_ART_URI, albumIds[i % albumIds.length])
+                        : null;
+                Glide.with(coverViews[i])
+                        .load(artUri)
+                        .apply(new RequestOptions()
+                                .placeholder(R.drawable.ic_outline_album_24)
+                                .error(R.drawable.ic_outline_album_24)
+                                .centerCrop())
+                        .into(coverViews[i]);
+            }
+        }
+    }
+
+    private static String formatDuration(long totalMilliseconds) {
+        long totalMinutes = totalMilliseconds / 60000;
+        long hours = totalMinutes / 60;
+        long minutes = totalMinutes % 60;
+        return hours > 0
+                ? String.format(Locale.getDefault(), "%dh %dm", hours, minutes)
+                : String.format(Locale.getDefault(), "%dm", Math.max(1, minutes));
     }
 
     class AddButtonViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,211 @@
+package com.felle.fusic.ui.collection;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * SQLite storage for collections: one row per collection and one row per song in a
+ * collection, so adding or removing a song touches a single row instead of rewriting
+ * every collection. Each collection row also carries its song count, duration and cover
+ * albums, so lists can show them without resolving every song. The JSON blob older
+ * versions kept in SharedPreferences is imported once when the database is first created.
+ */
+final class CollectionDatabase extends SQLiteOpenHelper {
+
+    private static final String TAG = "CollectionDatabase";
+
+    private static final String DATABASE_NAME = "collections.db";
+    // 2: song order kept as a REAL sort key so a move only rewrites the moved row
+    // 3: per-collection song count, duration and cover albums, plus the song metadata behind them
+    private static final int DATABASE_VERSION = 3;
+
+    static final String TABLE_COLLECTIONS = "collections";
+    static final String TABLE_SONGS = "collection_songs";
+    static final String TABLE_SONG_INFO = "song_info";
+
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_CREATED_AT = "created_at";
+    static final String COLUMN_COLLECTION_ID = "collection_id";
+    static final String COLUMN_MUSIC_ID = "music_id";
+    static final String COLUMN_SORT_KEY = "sort_key";
+    static final String COLUMN_RESOLVED_COUNT = "resolved_count";
+    static final String COLUMN_TOTAL_DURATION = "total_duration";
+    static final String COLUMN_COVER_ALBUM_IDS = "cover_album_ids";
+    static final String COLUMN_DURATION = "duration";
+    static final String COLUMN_ALBUM_ID = "album_id";
+
+    // Legacy storage, only read by the one-time migration
+    private static final String LEGACY_PREFS_NAME = "CollectionsPrefs";
+    private static final String LEGACY_KEY_COLLECTIONS = "collections";
+
+    /** Shape of a collection in the legacy JSON */
+    private static final class LegacyCollection {
+        long id;
+        String name;
+        List<Long> musicIds;
+        long createdAt;
+    }
+
+    private static volatile CollectionDatabase instance;
+
+    private final Context appContext;
+    // Set once onCreate has imported the legacy blob; it is dropped when the import has committed
+    private boolean legacyImported = false;
+
+    private CollectionDatabase(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        this.appContext = context.getApplicationContext();
+    }
+
+    static CollectionDatabase getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CollectionDatabase.class) {
+                if (instance == null) {
+                    instance = new CollectionDatabase(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_COLLECTIONS + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_NAME + " TEXT NOT NULL, " +
+                COLUMN_CREATED_AT + " INTEGER NOT NULL, " +
+                COLUMN_RESOLVED_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_TOTAL_DURATION + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_COVER_ALBUM_IDS + " TEXT NOT NULL DEFAULT '')");
+
+        createSongsTable(db, TABLE_SONGS);
+        createSongIndexes(db);
+        createSongInfoTable(db);
+
+        migrateFromPreferences(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Only reached once the creation transaction has committed; had it failed, the
+        // blob is still there for the next attempt
+        if (legacyImported) {
+            legacyImported = false;
+            legacyPreferences().edit().remove(LEGACY_KEY_COLLECTIONS).apply();
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // SQLite cannot change a column type in place, so the table is rebuilt
+            createSongsTable(db, TABLE_SONGS + "_new");
+            db.execSQL("INSERT INTO " + TABLE_SONGS + "_new (" +
+                    COLUMN_COLLECTION_ID + ", " + COLUMN_MUSIC_ID + ", " + COLUMN_SORT_KEY + ")" +
+                    " SELECT " + COLUMN_COLLECTION_ID + ", " + COLUMN_MUSIC_ID + ", position" +
+                    " FROM " + TABLE_SONGS);
+            db.execSQL("DROP TABLE " + TABLE_SONGS);
+            db.execSQL("ALTER TABLE " + TABLE_SONGS + "_new RENAME TO " + TABLE_SONGS);
+            createSongIndexes(db);
+        }
+        if (oldVersion < 3) {
+            // Aggregates start empty and are filled in once the library can resolve the songs
+            db.execSQL("ALTER TABLE " + TABLE_COLLECTIONS + " ADD COLUMN " +
+                    COLUMN_RESOLVED_COUNT + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_COLLECTIONS + " ADD COLUMN " +
+                    COLUMN_TOTAL_DURATION + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_COLLECTIONS + " ADD COLUMN " +
+                    COLUMN_COVER_ALBUM_IDS + " TEXT NOT NULL DEFAULT ''");
+            createSongInfoTable(db);
+        }
+    }
+
+    private static void createSongsTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE " + table + " (" +
+                COLUMN_COLLECTION_ID + " INTEGER NOT NULL REFERENCES " + TABLE_COLLECTIONS +
+                "(" + COLUMN_ID + ") ON DELETE CASCADE, " +
+                COLUMN_MUSIC_ID + " INTEGER NOT NULL, " +
+                COLUMN_SORT_KEY + " REAL NOT NULL, " +
+                "UNIQUE (" + COLUMN_COLLECTION_ID + ", " + COLUMN_MUSIC_ID + "))");
+    }
+
+    private static void createSongIndexes(SQLiteDatabase db) {
+        // Ordered reads and the next append key both come from this index
+        db.execSQL("CREATE INDEX collection_songs_order ON " + TABLE_SONGS +
+                " (" + COLUMN_COLLECTION_ID + ", " + COLUMN_SORT_KEY + ")");
+        db.execSQL("CREATE INDEX collection_songs_music ON " + TABLE_SONGS +
+                " (" + COLUMN_MUSIC_ID + ")");
+    }
+
+    /** Duration and album of each song in any collection, as last seen in the library */
+    private static void createSongInfoTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SONG_INFO + " (" +
+                COLUMN_MUSIC_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_DURATION + " INTEGER NOT NULL, " +
+                COLUMN_ALBUM_ID + " INTEGER NOT NULL)");
+    }
+
+    /** Import the collections JSON from SharedPreferences; {@link #onOpen} drops it afterwards */
+    private void migrateFromPreferences(SQLiteDatabase db) {
+        String json = legacyPreferences().getString(LEGACY_KEY_COLLECTIONS, null);
+        if (json == null) return;
+
+        List<LegacyCollection> collections;
+        try {
+            Type type = new TypeToken<List<LegacyCollection>>(){}.getType();
+            collections = new Gson().fromJson(json, type);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not read legacy collections", e);
+            return;
+        }
+
+        if (collections != null) {
+            SQLiteStatement insertSong = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_SONGS +
+                    " (" + COLUMN_COLLECTION_ID + ", " + COLUMN_MUSIC_ID + ", " + COLUMN_SORT_KEY +
+                    ") VALUES (?, ?, ?)");
+
+            for (LegacyCollection collection : collections) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_ID, collection.id);
+                values.put(COLUMN_NAME, collection.name != null ? collection.name : "");
+                values.put(COLUMN_CREATED_AT, collection.createdAt);
+                db.insertWithOnConflict(TABLE_COLLECTIONS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+
+                List<Long> musicIds = collection.musicIds;
+                if (musicIds == null) continue;
+                for (int position = 0; position < musicIds.size(); position++) {
+                    insertSong.bindLong(1, collection.id);
+                    insertSong.bindLong(2, musicIds.get(position));
+                    insertSong.bindDouble(3, position);
+                    insertSong.executeInsert();
+                }
+            }
+            insertSong.close();
+        }
+
+        legacyImported = true;
+    }
+
+    private SharedPreferences legacyPreferences() {
+        return appContext.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
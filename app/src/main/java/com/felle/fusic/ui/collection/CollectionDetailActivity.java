@@ -3,17 +3,13 @@ package com.felle.fusic.ui.collection;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.Canvas;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcelable;
-import android.provider.MediaStore;
 import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
@@ -34,6 +30,7 @@ import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
 
 import com.felle.fusic.R;
+import com.felle.fusic.data.MediaLibraryRepository;
 import com.felle.fusic.ui.music.MusicAdapter;
 import com.felle.fusic.ui.music.MusicItem;
 import com.felle.fusic.ui.pages.nowplaying.NowPlayingActivity;
@@ -41,13 +38,20 @@ import com.felle.fusic.service.MusicService;
 import com.google.android.material.snackbar.Snackbar;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class CollectionDetailActivity extends AppCompatActivity {
 
+    // The first page only has to fill the screen; later ones stream in behind it
+    private static final int FIRST_PAGE_SIZE = 30;
+    private static final int PAGE_SIZE = 250;
+
     private static final String TAG = "CollectionDetailActivity";
 
     private MaterialToolbar toolbar;
@@ -74,12 +78,19 @@ public class CollectionDetailActivity extends AppCompatActivity {
     private ExecutorService executorService;
     private CollectionManager collectionManager;
     private boolean isLoading = false;
+    // Bumped by every load so pages of an abandoned load are dropped
+    private volatile int loadGeneration = 0;
+    // A change arrived while songs were loading, so load again once done
+    private boolean reloadAfterLoading = false;
+
+    private final CollectionManager.OnCollectionChangedListener collectionListener =
+            this::onCollectionChanged;
 
     private MusicItem currentPlayingItem;
     private boolean isPlaying = false;
     private boolean isMiniPlayerVisible = false;
     private boolean isReceiverRegistered = false;
-    private boolean isActivityDestroyed = false;
+    private volatile boolean isActivityDestroyed = false;
     private TextView totalDurationTextView;
 
     private BroadcastReceiver musicUpdateReceiver = new BroadcastReceiver() {
@@ -155,6 +166,7 @@ public class CollectionDetailActivity extends AppCompatActivity {
 
             loadCollectionSongs();
 
+            collectionManager.addListener(collectionListener);
             registerMusicUpdateReceiver();
 
         } catch (Exception e) {
@@ -200,6 +212,16 @@ public class CollectionDetailActivity extends AppCompatActivity {
         }
     }
 
+    /** Song count and duration from the collection's stored summary */
+    private void showSummary(Collection summary) {
+        if (summary == null) return;
+
+        songCountTextView.setText(summary.getSongCount() + " songs");
+        if (totalDurationTextView != null) {
+            totalDurationTextView.setText(formatTotalDuration(summary.getTotalDuration()));
+        }
+    }
+
     private String formatTotalDuration(long totalMilliseconds) {
         long totalSeconds = totalMilliseconds / 1000;
         long hours = totalSeconds / 3600;
@@ -217,33 +239,14 @@ public class CollectionDetailActivity extends AppCompatActivity {
 
     private void setupShuffleButton() {
         shuffleCollectionButton.setOnClickListener(v -> {
-            if (collectionSongs.isEmpty()) {
+            // Works from the ids, so it does not wait for the songs to finish loading
+            long[] musicIds = collection.getMusicIds();
+            if (musicIds.length == 0) {
                 Toast.makeText(this, "No songs to shuffle", Toast.LENGTH_SHORT).show();
                 return;
             }
 
-            Random random = new Random();
-            int randomIndex = random.nextInt(collectionSongs.size());
-            MusicItem randomSong = collectionSongs.get(randomIndex);
-
-            Intent playlistIntent = new Intent(this, MusicService.class);
-            playlistIntent.setAction(MusicService.ACTION_SET_PLAYLIST);
-            playlistIntent.putParcelableArrayListExtra("playlist", new ArrayList<>(collectionSongs));
-            playlistIntent.putExtra("start_index", randomIndex);
-            startService(playlistIntent);
-
-            new android.os.Handler().postDelayed(() -> {
-                Intent shuffleIntent = new Intent(this, MusicService.class);
-                shuffleIntent.setAction(MusicService.ACTION_TOGGLE_SHUFFLE);
-                startService(shuffleIntent);
-
-                new android.os.Handler().postDelayed(() -> {
-                    Intent playIntent = new Intent(this, MusicService.class);
-                    playIntent.setAction(MusicService.ACTION_PLAY);
-                    playIntent.putExtra("music_item", randomSong);
-                    startService(playIntent);
-                }, 50);
-            }, 50);
+            playCollection(musicIds, new Random().nextInt(musicIds.length), true);
         });
     }
 
@@ -349,7 +352,8 @@ public class CollectionDetailActivity extends AppCompatActivity {
     private void setupCollectionHeader() {
         try {
             collectionNameTextView.setText(collection.getName());
-
+            // The stored summary fills the header before any song is resolved
+            showSummary(collection);
         } catch (Exception e) {
             Log.e(TAG, "Error setting up collection header: " + e.getMessage(), e);
         }
@@ -448,13 +452,7 @@ public class CollectionDetailActivity extends AppCompatActivity {
                 );
 
                 if (removed) {
-                    songCountTextView.setText(collectionSongs.size() + " songs");
-
-                    long totalDuration = 0;
-                    for (MusicItem song : collectionSongs) {
-                        totalDuration += song.getDuration();
-                    }
-                    totalDurationTextView.setText(formatTotalDuration(totalDuration));
+                    showSummary(collectionManager.getCollection(collection.getId()));
 
                     if (collectionSongs.isEmpty()) {
                         updateUI();
@@ -473,27 +471,24 @@ public class CollectionDetailActivity extends AppCompatActivity {
                         );
 
                         if (added) {
-                            collectionSongs.add(position, removedItem);
+                            int restoredPosition = Math.min(position, collectionSongs.size());
+                            collectionSongs.add(restoredPosition, removedItem);
                             if (musicAdapter != null) {
-                                musicAdapter.notifyItemInserted(position);
+                                musicAdapter.notifyItemInserted(restoredPosition);
                             }
-                            songCountTextView.setText(collectionSongs.size() + " songs");
 
-                            long totalDurations = 0;
-                            for (MusicItem song : collectionSongs) {
-                                totalDurations += song.getDuration();
-                            }
-                            totalDurationTextView.setText(formatTotalDuration(totalDurations));
+                            // The store appends; put the song back where it was
+                            long previousMusicId = restoredPosition > 0
+                                    ? collectionSongs.get(restoredPosition - 1).getId() : -1;
+                            collectionManager.moveSongInCollection(collection.getId(),
+                                    removedItem.getId(), previousMusicId);
+                            showSummary(collectionManager.getCollection(collection.getId()));
 
                             updateUI();
-
-                            broadcastCollectionChange();
                         }
                     });
 
                     snackbar.show();
-
-                    broadcastCollectionChange();
                 } else {
                     Toast.makeText(
                             CollectionDetailActivity.this,
@@ -530,8 +525,9 @@ public class CollectionDetailActivity extends AppCompatActivity {
             viewHolder.itemView.setScaleY(1.0f);
             viewHolder.itemView.setElevation(0f);
 
+            // One drag is one move of one song, recorded once the finger lifts
             if (dragFrom != -1 && dragTo != -1 && dragFrom != dragTo) {
-                updateCollectionOrder();
+                commitSongMove(dragTo);
             }
 
             dragFrom = -1;
@@ -551,19 +547,17 @@ public class CollectionDetailActivity extends AppCompatActivity {
         }
     }
 
-    private void updateCollectionOrder() {
-        if (collectionSongs == null || collectionSongs.isEmpty()) {
+    private void commitSongMove(int toPosition) {
+        if (collectionSongs == null || toPosition < 0 || toPosition >= collectionSongs.size()) {
             return;
         }
 
         try {
-            List<Long> newOrder = new ArrayList<>();
-            for (MusicItem item : collectionSongs) {
-                newOrder.add(item.getId());
-            }
+            long musicId = collectionSongs.get(toPosition).getId();
+            long previousMusicId = toPosition > 0 ? collectionSongs.get(toPosition - 1).getId() : -1;
 
-            collection.setMusicIds(newOrder);
-            collectionManager.updateCollection(collection);
+            collection.moveSongAfter(musicId, previousMusicId);
+            collectionManager.moveSongInCollection(collection.getId(), musicId, previousMusicId);
 
             Log.d(TAG, "Collection order updated");
         } catch (Exception e) {
@@ -571,14 +565,111 @@ public class CollectionDetailActivity extends AppCompatActivity {
         }
     }
 
-    private void broadcastCollectionChange() {
-        try {
-            Intent intent = new Intent("com.felle.fusic.COLLECTION_CHANGED");
-            intent.setPackage(getPackageName());
-            sendBroadcast(intent);
-            Log.d(TAG, "Broadcast sent: Collection changed");
-        } catch (Exception e) {
-            Log.e(TAG, "Error broadcasting collection change: " + e.getMessage(), e);
+    /**
+     * Apply a change to this collection, made here or on any other screen, to the song
+     * list as targeted item updates. Changes this screen already shows are skipped.
+     */
+    private void onCollectionChanged(CollectionEvent event) {
+        if (isActivityDestroyed || collection == null) {
+            return;
+        }
+        if (event.type == CollectionEvent.Type.MERGED && event.mergedCollectionId == collection.getId()) {
+            // Merged into another collection and deleted with it
+            finish();
+            return;
+        }
+        if (event.collectionId != collection.getId()) {
+            return;
+        }
+        if (event.type == CollectionEvent.Type.DELETED) {
+            finish();
+            return;
+        }
+
+        collection = event.collection;
+        collectionNameTextView.setText(collection.getName());
+        showSummary(collection);
+
+        if (isLoading) {
+            reloadAfterLoading = true;
+            return;
+        }
+
+        switch (event.type) {
+            case SONGS_ADDED:
+            case MERGED:
+                insertSongs(event.musicIds, event.positions);
+                break;
+            case SONGS_REMOVED:
+                removeSongs(event.musicIds);
+                break;
+            case SONG_MOVED:
+                moveSong(event.musicIds[0], event.toPosition);
+                break;
+            case SONGS_REPLACED:
+                loadCollectionSongs();
+                break;
+            default:
+                break;
+        }
+        updateUI();
+    }
+
+    private void insertSongs(long[] musicIds, int[] positions) {
+        Set<Long> shown = new HashSet<>();
+        for (MusicItem song : collectionSongs) {
+            shown.add(song.getId());
+        }
+
+        MediaLibraryRepository repository = MediaLibraryRepository.getInstance(this);
+        for (int i = 0; i < musicIds.length; i++) {
+            if (!shown.add(musicIds[i])) continue;
+
+            // Songs the library does not have are left for the next load to prune
+            MusicItem song = repository.getSong(musicIds[i]);
+            if (song == null) continue;
+
+            int position = Math.min(positions[i], collectionSongs.size());
+            collectionSongs.add(position, song);
+            if (musicAdapter != null) {
+                musicAdapter.notifyItemInserted(position);
+            }
+        }
+    }
+
+    private void removeSongs(long[] musicIds) {
+        Set<Long> removed = new HashSet<>();
+        for (long musicId : musicIds) {
+            removed.add(musicId);
+        }
+
+        // Back to front, so earlier positions stay valid for the notifications
+        for (int i = collectionSongs.size() - 1; i >= 0; i--) {
+            if (removed.contains(collectionSongs.get(i).getId())) {
+                collectionSongs.remove(i);
+                if (musicAdapter != null) {
+                    musicAdapter.notifyItemRemoved(i);
+                }
+            }
+        }
+    }
+
+    private void moveSong(long musicId, int toPosition) {
+        int from = -1;
+        for (int i = 0; i < collectionSongs.size(); i++) {
+            if (collectionSongs.get(i).getId() == musicId) {
+                from = i;
+                break;
+            }
+        }
+        if (from < 0) return;
+
+        int to = Math.min(toPosition, collectionSongs.size() - 1);
+        if (from == to) return;
+
+        collectionSongs.add(to, collectionSongs.remove(from));
+        if (musicAdapter != null) {
+            musicAdapter.notifyItemMoved(from, to);
         }
     }
 
@@ -591,89 +682,82 @@ public class CollectionDetailActivity extends AppCompatActivity {
         if (isLoading) return;
 
         isLoading = true;
-        showLoading(true);
+        int generation = ++loadGeneration;
+        long[] musicIds = collection.getMusicIds();
+
+        collectionSongs.clear();
+        if (musicAdapter != null) {
+            musicAdapter.notifyDataSetChanged();
+        }
+        showLoading(musicIds.length > 0);
 
         executorService.execute(() -> {
-            List<MusicItem> tempSongsList = new ArrayList<>();
-            List<Long> musicIds = collection.getMusicIds();
-
-            if (musicIds == null || musicIds.isEmpty()) {
-                runOnUiThread(() -> {
-                    showLoading(false);
-                    isLoading = false;
-                    updateUI();
-                });
-                return;
+            MediaLibraryRepository repository = MediaLibraryRepository.getInstance(this);
+            List<Long> missingIds = new ArrayList<>();
+
+            // Page by page, so the first rows show up however long the collection is
+            int start = 0;
+            while (start < musicIds.length) {
+                if (generation != loadGeneration || isActivityDestroyed) return;
+
+                int end = Math.min(musicIds.length,
+                        start + (start == 0 ? FIRST_PAGE_SIZE : PAGE_SIZE));
+                MediaLibraryRepository.ResolvedSongs page =
+                        repository.resolveSongs(Arrays.copyOfRange(musicIds, start, end));
+                missingIds.addAll(page.missingIds);
+                runOnUiThread(() -> appendPage(generation, page.songs));
+                start = end;
             }
 
-            ContentResolver contentResolver = getContentResolver();
-            Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-            String[] projection = {
-                    MediaStore.Audio.Media._ID,
-                    MediaStore.Audio.Media.TITLE,
-                    MediaStore.Audio.Media.ARTIST,
-                    MediaStore.Audio.Media.ALBUM,
-                    MediaStore.Audio.Media.DURATION,
-                    MediaStore.Audio.Media.DATA,
-                    MediaStore.Audio.Media.ALBUM_ID
-            };
-
-            for (Long musicId : musicIds) {
-                String selection = MediaStore.Audio.Media._ID + " = ?";
-                String[] selectionArgs = {String.valueOf(musicId)};
-
-                try (Cursor cursor = contentResolver.query(musicUri, projection, selection, selectionArgs, null)) {
-                    if (cursor != null && cursor.moveToFirst()) {
-                        int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                        int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
-                        int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                        int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                        int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-                        int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
-                        int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-
-                        long id = cursor.getLong(idColumn);
-                        String title = cursor.getString(titleColumn);
-                        String artist = cursor.getString(artistColumn);
-                        String album = cursor.getString(albumColumn);
-                        long duration = cursor.getLong(durationColumn);
-                        String path = cursor.getString(pathColumn);
-                        long albumId = cursor.getLong(albumIdColumn);
-
-                        Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
-
-                        MusicItem musicItem = new MusicItem(id, title, artist, album, duration, path, albumArtUri);
-                        tempSongsList.add(musicItem);
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Error loading song with ID: " + musicId, e);
-                }
-            }
+            runOnUiThread(() -> finishLoading(generation, missingIds));
+        });
+    }
 
-            runOnUiThread(() -> {
-                showLoading(false);
-                isLoading = false;
+    private void appendPage(int generation, List<MusicItem> songs) {
+        if (generation != loadGeneration || isActivityDestroyed) return;
 
-                collectionSongs.clear();
-                collectionSongs.addAll(tempSongsList);
+        showLoading(false);
+        if (songs.isEmpty()) return;
 
-                songCountTextView.setText(collectionSongs.size() + " songs");
+        int from = collectionSongs.size();
+        collectionSongs.addAll(songs);
+        if (musicAdapter != null) {
+            musicAdapter.notifyItemRangeInserted(from, songs.size());
+        }
+        updateUI();
+    }
 
-                long totalDuration = 0;
-                for (MusicItem song : collectionSongs) {
-                    totalDuration += song.getDuration();
-                }
-                totalDurationTextView.setText(formatTotalDuration(totalDuration));
+    private void finishLoading(int generation, List<Long> missingIds) {
+        if (generation != loadGeneration || isActivityDestroyed) return;
 
-                if (musicAdapter != null) {
-                    musicAdapter.notifyDataSetChanged();
-                }
+        isLoading = false;
+        showLoading(false);
 
+        if (!missingIds.isEmpty()) {
+            pruneMissingSongs(missingIds);
+        }
+        showSummary(collectionManager.getCollection(collection.getId()));
+        updateUI();
+        reloadIfChanged();
+    }
 
-                updateUI();
-            });
-        });
+    private void reloadIfChanged() {
+        if (reloadAfterLoading && !isActivityDestroyed) {
+            reloadAfterLoading = false;
+            loadCollectionSongs();
+        }
+    }
+
+    /**
+     * Drop ids whose files are gone from MediaStore so the collection stops counting them
+     */
+    private void pruneMissingSongs(List<Long> missingIds) {
+        int removed = collectionManager.removeSongsFromCollection(collection.getId(), missingIds);
+        if (removed > 0) {
+            for (Long musicId : missingIds) {
+                collection.removeSong(musicId);
+            }
+        }
     }
 
     private boolean hasStoragePermission() {
@@ -699,31 +783,23 @@ public class CollectionDetailActivity extends AppCompatActivity {
     }
 
     private void startMusicServiceWithPlaylist(MusicItem selectedSong) {
-        if (collectionSongs.isEmpty()) {
+        // The whole collection plays, including songs not loaded into the list yet
+        long[] musicIds = collection.getMusicIds();
+        if (musicIds.length == 0) {
             return;
         }
 
-        int selectedIndex = -1;
-        for (int i = 0; i < collectionSongs.size(); i++) {
-            if (collectionSongs.get(i).getId() == selectedSong.getId()) {
-                selectedIndex = i;
-                break;
-            }
-        }
-
-        if (selectedIndex == -1) {
-            selectedIndex = 0;
-        }
-
-        Intent playlistIntent = new Intent(this, MusicService.class);
-        playlistIntent.setAction(MusicService.ACTION_SET_PLAYLIST);
-        playlistIntent.putParcelableArrayListExtra("playlist", new ArrayList<>(collectionSongs));
-        playlistIntent.putExtra("start_index", selectedIndex);
-        startService(playlistIntent);
+        int selectedIndex = collection.indexOfSong(selectedSong.getId());
+        playCollection(musicIds, Math.max(selectedIndex, 0), false);
+    }
 
+    /** Hand the song ids to the service, which resolves them itself */
+    private void playCollection(long[] musicIds, int startIndex, boolean shuffle) {
         Intent playIntent = new Intent(this, MusicService.class);
-        playIntent.setAction(MusicService.ACTION_PLAY);
-        playIntent.putExtra("music_item", selectedSong);
+        playIntent.setAction(MusicService.ACTION_PLAY_IDS);
+        playIntent.putExtra("music_ids", musicIds);
+        playIntent.putExtra("start_index", startIndex);
+        playIntent.putExtra("shuffle", shuffle);
         startService(playIntent);
     }
 
@@ -953,6 +1029,10 @@ public class CollectionDetailActivity extends AppCompatActivity {
 
         isActivityDestroyed = true;
 
+        if (collectionManager != null) {
+            collectionManager.removeListener(collectionListener);
+        }
+
         if (isReceiverRegistered && musicUpdateReceiver != null) {
             try {
                 unregisterReceiver(musicUpdateReceiver);
@@ -0,0 +1,76 @@
+package com.felle.fusic.ui.collection;
+
+/**
+ * One change to the collection store, delivered on the main thread in the order the
+ * changes were made. Each event carries the collection as it stands right after the
+ * change, so a list can update the one affected item instead of reloading everything.
+ */
+public final class CollectionEvent {
+
+    public enum Type {
+        CREATED,
+        DELETED,
+        RENAMED,
+        /** Songs appended at {@link #positions} */
+        SONGS_ADDED,
+        /** Songs removed from {@link #positions}, highest position first */
+        SONGS_REMOVED,
+        /** One song moved from {@link #fromPosition} to {@link #toPosition} */
+        SONG_MOVED,
+        /** Songs replaced or reordered wholesale; reload the song list */
+        SONGS_REPLACED,
+        /** Song count, duration or cover changed without the songs changing */
+        SUMMARY_CHANGED,
+        /**
+         * The songs of {@link #mergedCollectionId} were appended at {@link #positions} and
+         * that collection was deleted
+         */
+        MERGED
+    }
+
+    private static final long[] NO_SONGS = new long[0];
+    private static final int[] NO_POSITIONS = new int[0];
+
+    public final Type type;
+    public final long collectionId;
+    /** The collection after the change; the last known state for DELETED */
+    public final Collection collection;
+    /** Songs added or removed, matching {@link #positions} index for index */
+    public final long[] musicIds;
+    public final int[] positions;
+    public final int fromPosition;
+    public final int toPosition;
+    /** The collection merged into this one and deleted, for MERGED; -1 otherwise */
+    public final long mergedCollectionId;
+
+    private CollectionEvent(Type type, Collection collection, long[] musicIds, int[] positions,
+                            int fromPosition, int toPosition, long mergedCollectionId) {
+        this.type = type;
+        this.collectionId = collection.getId();
+        this.collection = collection;
+        this.musicIds = musicIds;
+        this.positions = positions;
+        this.fromPosition = fromPosition;
+        this.toPosition = toPosition;
+        this.mergedCollectionId = mergedCollectionId;
+    }
+
+    static CollectionEvent of(Type type, Collection collection) {
+        return new CollectionEvent(type, collection, NO_SONGS, NO_POSITIONS, -1, -1, -1);
+    }
+
+    static CollectionEvent songs(Type type, Collection collection, long[] musicIds, int[] positions) {
+        return new CollectionEvent(type, collection, musicIds, positions, -1, -1, -1);
+    }
+
+    static CollectionEvent merged(Collection target, long[] musicIds, int[] positions,
+                                  long mergedCollectionId) {
+        return new CollectionEvent(Type.MERGED, target, musicIds, positions, -1, -1,
+                mergedCollectionId);
+    }
+
+    static CollectionEvent moved(Collection collection, long musicId, int fromPosition, int toPosition) {
+        return new CollectionEvent(Type.SONG_MOVED, collection, new long[]{musicId},
+                new int[]{toPosition}, fromPosition, toPosition, -1);
+    }
+}
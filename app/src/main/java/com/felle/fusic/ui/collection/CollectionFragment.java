@@ -1,17 +1,20 @@
 package com.felle.fusic.ui.collection;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.OpenableColumns;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
@@ -19,12 +22,13 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.felle.fusic.R;
+import com.felle.fusic.data.MediaLibraryRepository;
 import com.felle.fusic.databinding.FragmentCollectionBinding;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Type;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -32,37 +36,40 @@ import java.util.concurrent.Executors;
 
 public class CollectionFragment extends Fragment {
 
+    private static final String TAG = "CollectionFragment";
+
+    private static final String[] PLAYLIST_MIME_TYPES = {
+            "audio/x-mpegurl",
+            "audio/mpegurl",
+            "application/x-mpegurl",
+            "application/vnd.apple.mpegurl",
+            // Many file managers report .m3u files without a playlist type
+            "application/octet-stream"
+    };
+
     private FragmentCollectionBinding binding;
     private ExecutorService executorService;
     private CollectionAdapter adapter;
-    private SharedPreferences preferences;
-    private static final String PREFS_NAME = "CollectionsPrefs";
-    private static final String KEY_COLLECTIONS = "collections";
-    private Gson gson;
-
-    public static final String ACTION_COLLECTION_CHANGED = "com.felle.fusic.COLLECTION_CHANGED";
-    public static final String ACTION_COLLECTION_CREATED = "com.felle.fusic.COLLECTION_CREATED";
-    public static final String ACTION_SONG_ADDED_TO_COLLECTION = "com.felle.fusic.SONG_ADDED_TO_COLLECTION";
-    public static final String ACTION_SONG_REMOVED_FROM_COLLECTION = "com.felle.fusic.SONG_REMOVED_FROM_COLLECTION";
+    private CollectionManager collectionManager;
 
-    private boolean isReceiverRegistered = false;
+    private final CollectionManager.OnCollectionChangedListener collectionListener =
+            this::onCollectionChanged;
 
-    private final BroadcastReceiver collectionUpdateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent == null || intent.getAction() == null) return;
+    private Collection pendingExportCollection;
 
-            String action = intent.getAction();
-
-            if (ACTION_COLLECTION_CHANGED.equals(action) ||
-                    ACTION_COLLECTION_CREATED.equals(action) ||
-                    ACTION_SONG_ADDED_TO_COLLECTION.equals(action) ||
-                    ACTION_SONG_REMOVED_FROM_COLLECTION.equals(action)) {
+    private final ActivityResultLauncher<String[]> importPlaylistLauncher = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(),
+            uri -> {
+                if (uri != null) importPlaylist(uri);
+            });
 
-                refreshCollections();
-            }
-        }
-    };
+    private final ActivityResultLauncher<String> exportPlaylistLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument("audio/x-mpegurl"),
+            uri -> {
+                Collection collection = pendingExportCollection;
+                pendingExportCollection = null;
+                if (uri != null && collection != null) exportPlaylist(collection, uri);
+            });
 
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
@@ -73,68 +80,22 @@ public class CollectionFragment extends Fragment {
         View root = binding.getRoot();
 
         executorService = Executors.newSingleThreadExecutor();
-        preferences = requireContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        gson = new Gson();
+        collectionManager = new CollectionManager(requireContext());
 
         setupRecyclerView();
         setupAddButtons();
         loadCollectionData();
 
-        registerCollectionUpdateReceiver();
+        collectionManager.addListener(collectionListener);
 
         return root;
     }
 
-    private void registerCollectionUpdateReceiver() {
-        if (!isReceiverRegistered && getActivity() != null) {
-            try {
-                IntentFilter filter = new IntentFilter();
-                filter.addAction(ACTION_COLLECTION_CHANGED);
-                filter.addAction(ACTION_COLLECTION_CREATED);
-                filter.addAction(ACTION_SONG_ADDED_TO_COLLECTION);
-                filter.addAction(ACTION_SONG_REMOVED_FROM_COLLECTION);
-
-                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
-                    getActivity().registerReceiver(collectionUpdateReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
-                } else {
-                    getActivity().registerReceiver(collectionUpdateReceiver, filter);
-                }
-
-                isReceiverRegistered = true;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-    }
+    private void onCollectionChanged(CollectionEvent event) {
+        if (binding == null || adapter == null) return;
 
-    private void unregisterCollectionUpdateReceiver() {
-        if (isReceiverRegistered && getActivity() != null) {
-            try {
-                getActivity().unregisterReceiver(collectionUpdateReceiver);
-                isReceiverRegistered = false;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
-    private void refreshCollections() {
-        if (binding == null || executorService == null || executorService.isShutdown()) {
-            return;
-        }
-
-        executorService.execute(() -> {
-            List<Collection> collections = loadCollections();
-
-            if (getActivity() != null) {
-                requireActivity().runOnUiThread(() -> {
-                    if (binding != null && adapter != null) {
-                        adapter.updateCollections(collections);
-                        updateEmptyState(collections.isEmpty());
-                    }
-                });
-            }
-        });
+        adapter.applyEvent(event);
+        updateEmptyState(adapter.getCollectionCount() == 0);
     }
 
     private void setupRecyclerView() {
@@ -181,6 +142,8 @@ public class CollectionFragment extends Fragment {
                                 Toast.LENGTH_SHORT).show();
                     }
                 })
+                .setNeutralButton("Import M3U", (dialog, which) ->
+                        importPlaylistLauncher.launch(PLAYLIST_MIME_TYPES))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
@@ -198,23 +161,11 @@ public class CollectionFragment extends Fragment {
                 }
             }
 
-            Collection newCollection = new Collection(
-                    System.currentTimeMillis(),
-                    name,
-                    new ArrayList<>(),
-                    System.currentTimeMillis()
-            );
-
-            collections.add(newCollection);
-            saveCollections(collections);
-
-            requireActivity().runOnUiThread(() -> {
-                adapter.updateCollections(collections);
-                updateEmptyState(collections.isEmpty());
-                Toast.makeText(requireContext(), "Collection created", Toast.LENGTH_SHORT).show();
+            // The new card arrives through the CREATED event
+            collectionManager.createCollection(name);
 
-                broadcastCollectionChange(ACTION_COLLECTION_CREATED);
-            });
+            requireActivity().runOnUiThread(() ->
+                    Toast.makeText(requireContext(), "Collection created", Toast.LENGTH_SHORT).show());
         });
     }
 
@@ -225,6 +176,26 @@ public class CollectionFragment extends Fragment {
     }
 
     private void onCollectionLongClick(Collection collection) {
+        String[] options = {"Export as M3U", "Delete"};
+
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle(collection.getName())
+                .setItems(options, (dialog, which) -> {
+                    switch (which) {
+                        case 0: // Export as M3U
+                            pendingExportCollection = collection;
+                            exportPlaylistLauncher.launch(collection.getName() + ".m3u8");
+                            break;
+                        case 1: // Delete
+                            showDeleteCollectionDialog(collection);
+                            break;
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void showDeleteCollectionDialog(Collection collection) {
         new MaterialAlertDialogBuilder(requireContext())
                 .setTitle("Delete Collection")
                 .setMessage("Are you sure you want to delete \"" + collection.getName() + "\"?")
@@ -235,20 +206,141 @@ public class CollectionFragment extends Fragment {
 
     private void deleteCollection(Collection collection) {
         executorService.execute(() -> {
-            List<Collection> collections = loadCollections();
-            collections.removeIf(c -> c.getId() == collection.getId());
-            saveCollections(collections);
+            collectionManager.deleteCollection(collection.getId());
 
-            requireActivity().runOnUiThread(() -> {
-                adapter.updateCollections(collections);
-                updateEmptyState(collections.isEmpty());
-                Toast.makeText(requireContext(), "Collection deleted", Toast.LENGTH_SHORT).show();
+            requireActivity().runOnUiThread(() ->
+                    Toast.makeText(requireContext(), "Collection deleted", Toast.LENGTH_SHORT).show());
+        });
+    }
+
+    /**
+     * Create a collection from a playlist file, named after the file. Entries are matched
+     * to library songs by path; the ones that match nothing are reported afterwards.
+     */
+    private void importPlaylist(Uri uri) {
+        if (executorService == null || executorService.isShutdown()) return;
+
+        Context context = requireContext().getApplicationContext();
+        MediaLibraryRepository repository = MediaLibraryRepository.getInstance(context);
+        if (!repository.isLoaded()) {
+            Toast.makeText(requireContext(), "Library is still loading, try again shortly",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        executorService.execute(() -> {
+            M3uPlaylist.ImportResult result;
+            try (InputStream input = context.getContentResolver().openInputStream(uri)) {
+                if (input == null) throw new FileNotFoundException(uri.toString());
+                result = M3uPlaylist.read(input, repository::findSongIdByPath);
+            } catch (Exception e) {
+                Log.e(TAG, "Error importing playlist", e);
+                if (getActivity() != null) {
+                    requireActivity().runOnUiThread(() -> Toast.makeText(context,
+                            "Could not read playlist", Toast.LENGTH_SHORT).show());
+                }
+                return;
+            }
 
-                broadcastCollectionChange(ACTION_COLLECTION_CHANGED);
+            String name = uniqueCollectionName(playlistName(context, uri));
+            int added = collectionManager.createCollection(name, result.musicIds).getSongCount();
+
+            if (getActivity() == null) return;
+            requireActivity().runOnUiThread(() -> {
+                String message = "Imported " + added + (added == 1 ? " song" : " songs") +
+                        " into \"" + name + "\"";
+                if (result.unresolvedCount == 0) {
+                    Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+                } else if (getContext() != null) {
+                    showUnresolvedEntries(message, result);
+                }
             });
         });
     }
 
+    private void showUnresolvedEntries(String message, M3uPlaylist.ImportResult result) {
+        StringBuilder details = new StringBuilder(message)
+                .append("\n\n")
+                .append(result.unresolvedCount)
+                .append(result.unresolvedCount == 1 ? " entry was" : " entries were")
+                .append(" not found in the library:\n");
+        for (String entry : result.unresolvedSamples) {
+            details.append('\n').append(entry);
+        }
+        if (result.unresolvedCount > result.unresolvedSamples.size()) {
+            details.append("\n...");
+        }
+
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle("Playlist imported")
+                .setMessage(details)
+                .setPositiveButton("OK", null)
+                .show();
+    }
+
+    private void exportPlaylist(Collection collection, Uri uri) {
+        if (executorService == null || executorService.isShutdown()) return;
+
+        Context context = requireContext().getApplicationContext();
+        MediaLibraryRepository repository = MediaLibraryRepository.getInstance(context);
+        long[] musicIds = collection.getMusicIds();
+
+        executorService.execute(() -> {
+            int written;
+            try (OutputStream output = context.getContentResolver().openOutputStream(uri)) {
+                if (output == null) throw new FileNotFoundException(uri.toString());
+                written = M3uPlaylist.write(output, musicIds, repository::getSong);
+            } catch (Exception e) {
+                Log.e(TAG, "Error exporting playlist", e);
+                written = -1;
+            }
+
+            int count = written;
+            if (getActivity() == null) return;
+            requireActivity().runOnUiThread(() -> Toast.makeText(context,
+                    count < 0 ? "Could not write playlist" :
+                            "Exported " + count + (count == 1 ? " song" : " songs"),
+                    Toast.LENGTH_SHORT).show());
+        });
+    }
+
+    /** File name of the document without its extension */
+    private static String playlistName(Context context, Uri uri) {
+        String name = null;
+        try (Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                name = cursor.getString(0);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "No display name for " + uri, e);
+        }
+
+        if (name == null || name.trim().isEmpty()) {
+            return "Imported playlist";
+        }
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name).trim();
+    }
+
+    private String uniqueCollectionName(String name) {
+        List<Collection> collections = collectionManager.getAllCollections();
+        String candidate = name;
+        for (int suffix = 2; nameTaken(collections, candidate); suffix++) {
+            candidate = name + " (" + suffix + ")";
+        }
+        return candidate;
+    }
+
+    private static boolean nameTaken(List<Collection> collections, String name) {
+        for (Collection collection : collections) {
+            if (collection.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void loadCollectionData() {
         showLoading(true);
 
@@ -268,29 +360,7 @@ public class CollectionFragment extends Fragment {
     }
 
     private List<Collection> loadCollections() {
-        String json = preferences.getString(KEY_COLLECTIONS, null);
-        if (json != null) {
-            Type type = new TypeToken<List<Collection>>(){}.getType();
-            return gson.fromJson(json, type);
-        }
-        return new ArrayList<>();
-    }
-
-    private void saveCollections(List<Collection> collections) {
-        String json = gson.toJson(collections);
-        preferences.edit().putString(KEY_COLLECTIONS, json).apply();
-    }
-
-    private void broadcastCollectionChange(String action) {
-        if (getContext() == null) return;
-
-        try {
-            Intent intent = new Intent(action);
-            intent.setPackage(getContext().getPackageName());
-            getContext().sendBroadcast(intent);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        return collectionManager.getAllCollections();
     }
 
     private void updateEmptyState(boolean isEmpty) {
@@ -317,12 +387,6 @@ public class CollectionFragment extends Fragment {
         }
     }
 
-    @Override
-    public void onResume() {
-        super.onResume();
-        refreshCollections();
-    }
-
     @Override
     public void onPause() {
         super.onPause();
@@ -332,7 +396,7 @@ public class CollectionFragment extends Fragment {
     public void onDestroyView() {
         super.onDestroyView();
 
-        unregisterCollectionUpdateReceiver();
+        collectionManager.removeListener(collectionListener);
 
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
@@ -1,92 +1,154 @@
 package com.felle.fusic.ui.collection;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.felle.fusic.data.MediaLibraryRepository;
+import com.felle.fusic.data.TrackList;
+import com.felle.fusic.ui.music.MusicItem;
 
-import java.lang.reflect.Type;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Utility class to manage collections and add songs to them
+ * Utility class to manage collections and add songs to them.
+ * All instances share one in-memory store, so creating a manager is cheap and a change
+ * made through one is visible through every other straight away. Bulk operations are
+ * applied as one change and reach the disk in a single transaction.
+ * Listeners hear about every change as a {@link CollectionEvent}, whichever manager made it.
  */
 public class CollectionManager {
 
-    private static final String PREFS_NAME = "CollectionsPrefs";
-    private static final String KEY_COLLECTIONS = "collections";
+    /** Receives collection changes on the main thread */
+    public interface OnCollectionChangedListener {
+        void onCollectionChanged(CollectionEvent event);
+    }
 
-    private SharedPreferences preferences;
-    private Gson gson;
+    private final CollectionStore store;
+    private final Context appContext;
 
     public CollectionManager(Context context) {
-        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        gson = new Gson();
+        store = CollectionStore.getInstance(context);
+        appContext = context.getApplicationContext();
+    }
+
+    /**
+     * Start reading collections in the background ahead of the first lookup
+     */
+    public static void preload(Context context) {
+        CollectionStore.getInstance(context).preload();
+    }
+
+    /**
+     * Write pending collection changes to disk and wait for them
+     */
+    public static void flushPendingWrites() {
+        CollectionStore store = CollectionStore.peekInstance();
+        if (store != null) {
+            store.flush();
+        }
+    }
+
+    public void addListener(OnCollectionChangedListener listener) {
+        store.addListener(listener);
+    }
+
+    public void removeListener(OnCollectionChangedListener listener) {
+        store.removeListener(listener);
     }
 
     /**
      * Get all collections
      */
     public List<Collection> getAllCollections() {
-        String json = preferences.getString(KEY_COLLECTIONS, null);
-        if (json != null) {
-            Type type = new TypeToken<List<Collection>>(){}.getType();
-            return gson.fromJson(json, type);
-        }
-        return new ArrayList<>();
+        return store.getAll();
     }
 
     /**
      * Add a song to a collection
      */
     public boolean addSongToCollection(long collectionId, long musicId) {
-        List<Collection> collections = getAllCollections();
-
-        for (Collection collection : collections) {
-            if (collection.getId() == collectionId) {
-                if (!collection.getMusicIds().contains(musicId)) {
-                    collection.getMusicIds().add(musicId);
-                    saveCollections(collections);
-                    return true;
-                }
-                return false;
-            }
-        }
-        return false;
+        return store.addSong(collectionId, musicId);
+    }
+
+    /**
+     * Add several songs to a collection in order, skipping ones already in it
+     * @return number of songs added
+     */
+    public int addSongsToCollection(long collectionId, long[] musicIds) {
+        return store.addSongs(collectionId, musicIds);
+    }
+
+    /**
+     * Ids of every song of an album, in album order
+     */
+    public long[] getAlbumSongIds(long albumId) {
+        MediaLibraryRepository repository = MediaLibraryRepository.getInstance(appContext);
+        return songIds(repository.getSongsForAlbum(albumId));
+    }
+
+    /**
+     * Ids of every song of an artist, in the order the artist screen shows them
+     */
+    public long[] getArtistSongIds(String artistName) {
+        MediaLibraryRepository repository = MediaLibraryRepository.getInstance(appContext);
+        return songIds(repository.getSongsForArtist(artistName));
     }
 
     /**
      * Remove a song from a collection
      */
     public boolean removeSongFromCollection(long collectionId, long musicId) {
-        List<Collection> collections = getAllCollections();
-
-        for (Collection collection : collections) {
-            if (collection.getId() == collectionId) {
-                boolean removed = collection.getMusicIds().remove(Long.valueOf(musicId));
-                if (removed) {
-                    saveCollections(collections);
-                }
-                return removed;
-            }
+        return store.removeSongs(collectionId, new long[]{musicId}) > 0;
+    }
+
+    /**
+     * Remove several songs from a collection with a single write
+     * @return number of songs removed
+     */
+    public int removeSongsFromCollection(long collectionId, List<Long> musicIds) {
+        long[] ids = new long[musicIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = musicIds.get(i);
         }
-        return false;
+        return store.removeSongs(collectionId, ids);
+    }
+
+    /**
+     * Remove several songs from a collection with a single write
+     * @return number of songs removed
+     */
+    public int removeSongsFromCollection(long collectionId, long[] musicIds) {
+        return store.removeSongs(collectionId, musicIds);
+    }
+
+    /**
+     * Copy a collection under a new name
+     * @return the copy, or null if the collection does not exist
+     */
+    public Collection duplicateCollection(long collectionId, String newName) {
+        return store.duplicate(collectionId, newName);
+    }
+
+    /**
+     * Move the songs of one collection into another and delete the emptied one
+     * @return number of songs added to the target, or -1 if either collection is missing
+     */
+    public int mergeCollections(long targetCollectionId, long sourceCollectionId) {
+        return store.merge(targetCollectionId, sourceCollectionId);
+    }
+
+    /**
+     * Move a song to sit right after another one, or to the front when previousMusicId
+     * is not in the collection. Only the moved entry is rewritten.
+     */
+    public boolean moveSongInCollection(long collectionId, long musicId, long previousMusicId) {
+        return store.moveSongAfter(collectionId, musicId, previousMusicId);
     }
 
     /**
      * Get a specific collection by ID
      */
     public Collection getCollection(long collectionId) {
-        List<Collection> collections = getAllCollections();
-
-        for (Collection collection : collections) {
-            if (collection.getId() == collectionId) {
-                return collection;
-            }
-        }
-        return null;
+        return store.get(collectionId);
     }
 
     /**
@@ -99,98 +161,64 @@ public class CollectionManager {
         if (collection == null) {
             return false;
         }
-
-        List<Collection> collections = getAllCollections();
-
-        for (int i = 0; i < collections.size(); i++) {
-            if (collections.get(i).getId() == collection.getId()) {
-                collections.set(i, collection);
-                saveCollections(collections);
-                return true;
-            }
-        }
-
-        return false;
+        return store.update(collection);
     }
 
     /**
      * Check if a song is in a collection
      */
     public boolean isSongInCollection(long collectionId, long musicId) {
-        Collection collection = getCollection(collectionId);
-        return collection != null && collection.getMusicIds().contains(musicId);
+        return store.contains(collectionId, musicId);
     }
 
     /**
      * Get all collections that contain a specific song
      */
     public List<Collection> getCollectionsContainingSong(long musicId) {
-        List<Collection> allCollections = getAllCollections();
-        List<Collection> result = new ArrayList<>();
-
-        for (Collection collection : allCollections) {
-            if (collection.getMusicIds().contains(musicId)) {
-                result.add(collection);
-            }
-        }
-
-        return result;
+        return store.getContaining(musicId);
     }
 
     /**
      * Create a new collection
      */
     public Collection createCollection(String name) {
-        List<Collection> collections = getAllCollections();
-
-        Collection newCollection = new Collection(
-                System.currentTimeMillis(),
-                name,
-                new ArrayList<>(),
-                System.currentTimeMillis()
-        );
-
-        collections.add(newCollection);
-        saveCollections(collections);
+        return store.create(name);
+    }
 
-        return newCollection;
+    /**
+     * Create a new collection already holding the songs, in order, as a single change
+     */
+    public Collection createCollection(String name, long[] musicIds) {
+        return store.create(name, musicIds);
     }
 
     /**
      * Delete a collection
      */
     public boolean deleteCollection(long collectionId) {
-        List<Collection> collections = getAllCollections();
-        boolean removed = collections.removeIf(c -> c.getId() == collectionId);
-
-        if (removed) {
-            saveCollections(collections);
-        }
-
-        return removed;
+        return store.delete(collectionId);
     }
 
     /**
      * Update collection name
      */
     public boolean updateCollectionName(long collectionId, String newName) {
-        List<Collection> collections = getAllCollections();
+        return store.rename(collectionId, newName);
+    }
 
-        for (Collection collection : collections) {
-            if (collection.getId() == collectionId) {
-                collection.setName(newName);
-                saveCollections(collections);
-                return true;
+    private static long[] songIds(List<MusicItem> songs) {
+        long[] ids = new long[songs.size()];
+        if (songs instanceof TrackList) {
+            // Read the id column without materialising every song
+            TrackList tracks = (TrackList) songs;
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = tracks.getId(i);
+            }
+        } else {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = songs.get(i).getId();
             }
         }
-        return false;
-    }
-
-    /**
-     * Save collections to SharedPreferences
-     */
-    private void saveCollections(List<Collection> collections) {
-        String json = gson.toJson(collections);
-        preferences.edit().putString(KEY_COLLECTIONS, json).apply();
+        return ids;
     }
-}
\ No newline at end of file
+}
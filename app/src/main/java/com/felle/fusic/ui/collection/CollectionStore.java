@@ -0,0 +1,1062 @@
+package com.felle.fusic.ui.collection;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.felle.fusic.data.LibraryDelta;
+import com.felle.fusic.data.MediaLibraryRepository;
+import com.felle.fusic.ui.music.MusicItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_ALBUM_ID;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_COLLECTION_ID;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_COVER_ALBUM_IDS;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_CREATED_AT;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_DURATION;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_ID;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_MUSIC_ID;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_NAME;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_RESOLVED_COUNT;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_SORT_KEY;
+import static com.felle.fusic.ui.collection.CollectionDatabase.COLUMN_TOTAL_DURATION;
+import static com.felle.fusic.ui.collection.CollectionDatabase.TABLE_COLLECTIONS;
+import static com.felle.fusic.ui.collection.CollectionDatabase.TABLE_SONG_INFO;
+import static com.felle.fusic.ui.collection.CollectionDatabase.TABLE_SONGS;
+
+/**
+ * Process-wide in-memory copy of every collection. The database is read once; after that
+ * reads are served from memory and mutations apply to memory immediately, while the
+ * matching SQL is queued and written in a single transaction on a background thread a
+ * short while later. {@link #flush()} writes whatever is still queued and waits for it.
+ *
+ * Callers only ever see copies, so editing a returned Collection never changes the store.
+ * Membership lookups go through a reverse index from music id to the collections holding
+ * it, which every mutation keeps in step with the song lists.
+ *
+ * Each collection also carries a summary (resolved song count, total duration, first
+ * album ids for the cover) that mutations adjust by the songs they touch and that is
+ * stored with the collection, so lists never have to resolve every song to show it.
+ * Songs the library does not know yet are counted in once it reports a change; songs it
+ * reports removed or changed are looked up again and their collections recomputed.
+ *
+ * Every mutation publishes a {@link CollectionEvent} to the registered listeners on the
+ * main thread, after the in-memory state has changed.
+ *
+ * A batch that fails to commit goes back to the front of the queue and is retried with a
+ * growing delay. If it still fails, the unsaved changes are dropped and the store reloads
+ * from the database, publishing events for whatever differs from what was shown.
+ */
+final class CollectionStore {
+
+    private static final String TAG = "CollectionStore";
+
+    // Writes arriving within this window share one transaction
+    private static final long FLUSH_DELAY_MS = 500;
+    // Attempts at a failing batch, each after twice the delay of the one before
+    private static final int MAX_WRITE_ATTEMPTS = 4;
+
+    private static final Comparator<Collection> COLLECTION_COMPARATOR = (a, b) -> {
+        int byCreated = Long.compare(a.getCreatedAt(), b.getCreatedAt());
+        return byCreated != 0 ? byCreated : Long.compare(a.getId(), b.getId());
+    };
+
+    private static final String COLLECTION_ORDER = COLUMN_CREATED_AT + " ASC, " + COLUMN_ID + " ASC";
+    private static final String SONG_ORDER = COLUMN_COLLECTION_ID + " ASC, " + COLUMN_SORT_KEY + " ASC";
+
+    // Appends after the current last sort key; the unique key turns a duplicate into a no-op
+    private static final String SQL_APPEND_SONG = "INSERT OR IGNORE INTO " + TABLE_SONGS +
+            " (" + COLUMN_COLLECTION_ID + ", " + COLUMN_MUSIC_ID + ", " + COLUMN_SORT_KEY + ")" +
+            " SELECT ?, ?, COALESCE(MAX(" + COLUMN_SORT_KEY + "), -1) + 1 FROM " + TABLE_SONGS +
+            " WHERE " + COLUMN_COLLECTION_ID + " = ?";
+    private static final String SQL_INSERT_SONG = "INSERT OR IGNORE INTO " + TABLE_SONGS +
+            " (" + COLUMN_COLLECTION_ID + ", " + COLUMN_MUSIC_ID + ", " + COLUMN_SORT_KEY +
+            ") VALUES (?, ?, ?)";
+    private static final String SQL_SORT_KEY = "SELECT " + COLUMN_SORT_KEY + " FROM " + TABLE_SONGS +
+            " WHERE " + COLUMN_COLLECTION_ID + " = ? AND " + COLUMN_MUSIC_ID + " = ?";
+    private static final String SQL_SET_SORT_KEY = "UPDATE " + TABLE_SONGS + " SET " + COLUMN_SORT_KEY +
+            " = ? WHERE " + COLUMN_COLLECTION_ID + " = ? AND " + COLUMN_MUSIC_ID + " = ?";
+    private static final String SQL_SAVE_SONG_INFO = "INSERT OR REPLACE INTO " + TABLE_SONG_INFO +
+            " (" + COLUMN_MUSIC_ID + ", " + COLUMN_DURATION + ", " + COLUMN_ALBUM_ID +
+            ") VALUES (?, ?, ?)";
+    private static final String SQL_DELETE_SONG_INFO = "DELETE FROM " + TABLE_SONG_INFO +
+            " WHERE " + COLUMN_MUSIC_ID + " = ?";
+    private static final String SQL_DELETE_SONG = "DELETE FROM " + TABLE_SONGS +
+            " WHERE " + COLUMN_COLLECTION_ID + " = ? AND " + COLUMN_MUSIC_ID + " = ?";
+
+    /** One queued database change, applied inside the flush transaction */
+    private interface Write {
+        void apply(SQLiteDatabase db);
+    }
+
+    // Marks a missing neighbour; MediaStore ids are never negative
+    private static final long NO_SONG = -1;
+
+    // Album covers shown in a collection's mosaic
+    static final int COVER_SIZE = 4;
+
+    /** What the summary needs of a song, as last seen in the library */
+    private static final class SongInfo {
+        final long duration;
+        final long albumId;
+
+        SongInfo(long duration, long albumId) {
+            this.duration = duration;
+            this.albumId = albumId;
+        }
+    }
+
+    private static volatile CollectionStore instance;
+
+    private final CollectionDatabase database;
+    private final MediaLibraryRepository library;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<CollectionManager.OnCollectionChangedListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final Map<Long, Collection> collections = new LinkedHashMap<>();
+    private final Map<Long, Set<Long>> collectionsBySong = new HashMap<>();
+    private final Map<Long, SongInfo> songInfo = new HashMap<>();
+    // Looked up since the last write and not stored yet
+    private Map<Long, SongInfo> unsavedSongInfo = new HashMap<>();
+    private List<Write> pendingWrites = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    // Attempts the batch at the head of pendingWrites has already failed
+    private int failedAttempts = 0;
+    private long nextId = 1;
+    private boolean loaded = false;
+
+    private CollectionStore(Context context) {
+        database = CollectionDatabase.getInstance(context);
+        library = MediaLibraryRepository.getInstance(context);
+        library.addListener(new MediaLibraryRepository.OnLibraryChangedListener() {
+            @Override
+            public void onLibraryChanged() {
+                writer.execute(() -> refreshSummaries(null));
+            }
+
+            @Override
+            public void onLibraryDelta(LibraryDelta delta) {
+                long[] changedIds = delta.getChangedIds();
+                writer.execute(() -> refreshSummaries(changedIds));
+            }
+        });
+    }
+
+    static CollectionStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CollectionStore.class) {
+                if (instance == null) {
+                    instance = new CollectionStore(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** The store if anything has created it yet, without creating it */
+    static CollectionStore peekInstance() {
+        return instance;
+    }
+
+    /**
+     * Read the database on the writer thread so the first caller finds it loaded, then
+     * complete any summary the library can already resolve
+     */
+    void preload() {
+        writer.execute(() -> refreshSummaries(null));
+    }
+
+    void addListener(CollectionManager.OnCollectionChangedListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    void removeListener(CollectionManager.OnCollectionChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized List<Collection> getAll() {
+        ensureLoaded();
+        List<Collection> result = new ArrayList<>(collections.size());
+        for (Collection collection : collections.values()) {
+            result.add(copyOf(collection));
+        }
+        return result;
+    }
+
+    synchronized Collection get(long collectionId) {
+        ensureLoaded();
+        Collection collection = collections.get(collectionId);
+        return collection != null ? copyOf(collection) : null;
+    }
+
+    synchronized boolean contains(long collectionId, long musicId) {
+        ensureLoaded();
+        Set<Long> collectionIds = collectionsBySong.get(musicId);
+        return collectionIds != null && collectionIds.contains(collectionId);
+    }
+
+    synchronized List<Collection> getContaining(long musicId) {
+        ensureLoaded();
+        Set<Long> collectionIds = collectionsBySong.get(musicId);
+        if (collectionIds == null) {
+            return new ArrayList<>();
+        }
+
+        List<Collection> result = new ArrayList<>(collectionIds.size());
+        for (Long collectionId : collectionIds) {
+            result.add(copyOf(collections.get(collectionId)));
+        }
+        // Same order as getAll
+        result.sort(COLLECTION_COMPARATOR);
+        return result;
+    }
+
+    synchronized Collection create(String name) {
+        return create(name, new long[0]);
+    }
+
+    /** New collection holding the songs in order, written and announced as one change */
+    synchronized Collection create(String name, long[] musicIds) {
+        ensureLoaded();
+        long id = nextId++;
+        long createdAt = System.currentTimeMillis();
+        Collection collection = new Collection(id, name, null, createdAt);
+        collections.put(id, collection);
+        long[] rows = appendSongs(collection, musicIds);
+
+        ContentValues values = summaryValues(collection);
+        values.put(COLUMN_ID, id);
+        values.put(COLUMN_NAME, name);
+        values.put(COLUMN_CREATED_AT, createdAt);
+        enqueue(db -> {
+            db.insertOrThrow(TABLE_COLLECTIONS, null, values);
+            insertSongRows(db, id, rows);
+        });
+        publish(CollectionEvent.of(CollectionEvent.Type.CREATED, copyOf(collection)));
+        return copyOf(collection);
+    }
+
+    synchronized boolean delete(long collectionId) {
+        ensureLoaded();
+        Collection removed = collections.remove(collectionId);
+        if (removed == null) {
+            return false;
+        }
+        for (long musicId : removed.getMusicIds()) {
+            unindex(musicId, collectionId);
+        }
+
+        // Song rows go with it through ON DELETE CASCADE
+        enqueue(db -> db.delete(TABLE_COLLECTIONS, COLUMN_ID + " = ?",
+                new String[]{String.valueOf(collectionId)}));
+        // Out of the store now, so it can be handed over without copying
+        publish(CollectionEvent.of(CollectionEvent.Type.DELETED, removed));
+        return true;
+    }
+
+    synchronized boolean rename(long collectionId, String name) {
+        ensureLoaded();
+        Collection collection = collections.get(collectionId);
+        if (collection == null) {
+            return false;
+        }
+
+        collection.setName(name);
+        enqueue(db -> updateName(db, collectionId, name));
+        publish(CollectionEvent.of(CollectionEvent.Type.RENAMED, copyOf(collection)));
+        return true;
+    }
+
+    synchronized boolean addSong(long collectionId, long musicId) {
+        return addSongs(collectionId, new long[]{musicId}) > 0;
+    }
+
+    /**
+     * Append every song not already in the collection, in the given order
+     * @return number of songs added
+     */
+    synchronized int addSongs(long collectionId, long[] musicIds) {
+        ensureLoaded();
+        Collection collection = collections.get(collectionId);
+        if (collection == null) {
+            return 0;
+        }
+
+        int firstPosition = collection.getSongCount();
+        long[] addedIds = appendSongs(collection, musicIds);
+        if (addedIds.length == 0) {
+            return 0;
+        }
+
+        enqueue(db -> appendSongRows(db, collectionId, addedIds));
+        enqueueSummary(collection);
+        publish(CollectionEvent.songs(CollectionEvent.Type.SONGS_ADDED, copyOf(collection),
+                addedIds, positionsFrom(firstPosition, addedIds.length)));
+        return addedIds.length;
+    }
+
+    /** @return number of songs removed */
+    synchronized int removeSongs(long collectionId, long[] musicIds) {
+        ensureLoaded();
+        Collection collection = collections.get(collectionId);
+        if (collection == null) {
+            return 0;
+        }
+
+        // Only a summary that counts every song can be adjusted song by song
+        boolean fullyResolved = collection.getResolvedCount() == collection.getSongCount();
+        boolean coverChanged = false;
+        // Positions are all taken before the first removal shifts them
+        int[] originalPositions = new int[musicIds.length];
+        for (int i = 0; i < musicIds.length; i++) {
+            originalPositions[i] = collection.indexOfSong(musicIds[i]);
+        }
+
+        // Position in the high half and index into musicIds in the low half, to sort by position
+        long[] removedOrder = new long[musicIds.length];
+        int removed = 0;
+        for (int i = 0; i < musicIds.length; i++) {
+            long musicId = musicIds[i];
+            if (originalPositions[i] >= 0 && collection.removeSong(musicId)) {
+                unindex(musicId, collectionId);
+                if (fullyResolved) {
+                    coverChanged |= removeFromSummary(collection, musicId);
+                }
+                removedOrder[removed++] = ((long) originalPositions[i] << 32) | i;
+            }
+        }
+        if (removed == 0) {
+            return 0;
+        }
+
+        // Highest position first, so a list can apply the removals one after another
+        Arrays.sort(removedOrder, 0, removed);
+        long[] toRemove = new long[removed];
+        int[] positions = new int[removed];
+        for (int i = 0; i < removed; i++) {
+            long entry = removedOrder[removed - 1 - i];
+            positions[i] = (int) (entry >>> 32);
+            toRemove[i] = musicIds[(int) entry];
+        }
+
+        if (!fullyResolved) {
+            recomputeSummary(collection);
+        } else if (coverChanged) {
+            collection.setSummary(collection.getResolvedCount(), collection.getTotalDuration(),
+                    coverOf(collection));
+        }
+
+        enqueue(db -> {
+            SQLiteStatement statement = db.compileStatement(SQL_DELETE_SONG);
+            try {
+                for (long musicId : toRemove) {
+                    statement.bindLong(1, collectionId);
+                    statement.bindLong(2, musicId);
+                    statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+        });
+        enqueueSummary(collection);
+        publish(CollectionEvent.songs(CollectionEvent.Type.SONGS_REMOVED, copyOf(collection),
+                toRemove, positions));
+        return removed;
+    }
+
+    /** New collection holding the same songs in the same order, or null if the source is gone */
+    synchronized Collection duplicate(long collectionId, String name) {
+        ensureLoaded();
+        Collection source = collections.get(collectionId);
+        if (source == null) {
+            return null;
+        }
+
+        // Same songs, so the same summary; written and announced as one new collection
+        long id = nextId++;
+        long createdAt = System.currentTimeMillis();
+        long[] rows = source.getMusicIds();
+        Collection copy = new Collection(id, name, rows, createdAt);
+        copy.setSummary(source.getResolvedCount(), source.getTotalDuration(), source.getCoverAlbumIds());
+        collections.put(id, copy);
+        for (long musicId : rows) {
+            index(musicId, id);
+        }
+
+        ContentValues values = summaryValues(copy);
+        values.put(COLUMN_ID, id);
+        values.put(COLUMN_NAME, name);
+        values.put(COLUMN_CREATED_AT, createdAt);
+        enqueue(db -> {
+            db.insertOrThrow(TABLE_COLLECTIONS, null, values);
+            insertSongRows(db, id, rows);
+        });
+        publish(CollectionEvent.of(CollectionEvent.Type.CREATED, copyOf(copy)));
+        return copyOf(copy);
+    }
+
+    /**
+     * Append the songs of the source collection to the target and delete the source
+     * @return number of songs the target gained, or -1 if either collection is missing
+     */
+    synchronized int merge(long targetId, long sourceId) {
+        ensureLoaded();
+        Collection source = collections.get(sourceId);
+        if (targetId == sourceId || source == null || !collections.containsKey(targetId)) {
+            return -1;
+        }
+
+        Collection target = collections.get(targetId);
+        int firstPosition = target.getSongCount();
+        long[] addedIds = appendSongs(target, source.getMusicIds());
+        collections.remove(sourceId);
+        for (long musicId : source.getMusicIds()) {
+            unindex(musicId, sourceId);
+        }
+
+        ContentValues summary = summaryValues(target);
+        enqueue(db -> {
+            appendSongRows(db, targetId, addedIds);
+            db.update(TABLE_COLLECTIONS, summary, COLUMN_ID + " = ?",
+                    new String[]{String.valueOf(targetId)});
+            // Song rows go with it through ON DELETE CASCADE
+            db.delete(TABLE_COLLECTIONS, COLUMN_ID + " = ?",
+                    new String[]{String.valueOf(sourceId)});
+        });
+        publish(CollectionEvent.merged(copyOf(target), addedIds,
+                positionsFrom(firstPosition, addedIds.length), sourceId));
+        return addedIds.length;
+    }
+
+    /**
+     * Move one song to sit right after another, or to the front when there is no other.
+     * Only the moved row is written: it gets a sort key halfway between its new neighbours.
+     */
+    synchronized boolean moveSongAfter(long collectionId, long musicId, long previousMusicId) {
+        ensureLoaded();
+        Collection collection = collections.get(collectionId);
+        int from = collection != null ? collection.indexOfSong(musicId) : -1;
+        if (from < 0 || !collection.moveSongAfter(musicId, previousMusicId)) {
+            return false;
+        }
+
+        // Neighbours are taken from memory, where the move has already happened
+        int index = collection.indexOfSong(musicId);
+        long previous = index > 0 ? collection.getMusicIdAt(index - 1) : NO_SONG;
+        long next = index + 1 < collection.getSongCount() ? collection.getMusicIdAt(index + 1) : NO_SONG;
+        enqueue(db -> writeMove(db, collectionId, musicId, previous, next));
+
+        // Only the order changed, so at most the cover does
+        long[] cover = coverOf(collection);
+        if (!Arrays.equals(cover, collection.getCoverAlbumIds())) {
+            collection.setSummary(collection.getResolvedCount(), collection.getTotalDuration(), cover);
+            enqueueSummary(collection);
+        }
+        publish(CollectionEvent.moved(copyOf(collection), musicId, from, index));
+        return true;
+    }
+
+    /** Replace the name and song order of an existing collection */
+    synchronized boolean update(Collection updated) {
+        ensureLoaded();
+        long collectionId = updated.getId();
+        Collection collection = collections.get(collectionId);
+        if (collection == null) {
+            return false;
+        }
+
+        String name = updated.getName();
+        for (long musicId : collection.getMusicIds()) {
+            unindex(musicId, collectionId);
+        }
+        // setMusicIds drops duplicates just as the unique key drops them on disk
+        collection.setName(name);
+        collection.setMusicIds(updated.getMusicIds());
+        long[] rows = collection.getMusicIds();
+        for (long musicId : rows) {
+            index(musicId, collectionId);
+        }
+        recomputeSummary(collection);
+
+        enqueue(db -> {
+            updateName(db, collectionId, name);
+            // Only this collection's rows are rewritten
+            db.delete(TABLE_SONGS, COLUMN_COLLECTION_ID + " = ?",
+                    new String[]{String.valueOf(collectionId)});
+            insertSongRows(db, collectionId, rows);
+        });
+        enqueueSummary(collection);
+        publish(CollectionEvent.of(CollectionEvent.Type.SONGS_REPLACED, copyOf(collection)));
+        return true;
+    }
+
+    /**
+     * Forget the info of songs the library removed or changed, then recompute the
+     * collections holding them and count in songs the library has learned about since
+     * they were added. Runs on the writer thread after every library change.
+     *
+     * @param changedIds songs a delta removed or changed, or null to check every known song
+     */
+    private synchronized void refreshSummaries(long[] changedIds) {
+        ensureLoaded();
+        Set<Long> affected = new HashSet<>();
+        // Until the library has loaded, a song it cannot find is not known to be gone
+        if (library.isLoaded()) {
+            long[] checked = changedIds != null ? changedIds : knownSongIds();
+            List<Long> stale = new ArrayList<>();
+            for (long musicId : checked) {
+                SongInfo info = songInfo.get(musicId);
+                if (info == null) continue;
+
+                MusicItem song = library.getSong(musicId);
+                if (song == null || song.getDuration() != info.duration
+                        || song.getAlbumId() != info.albumId) {
+                    songInfo.remove(musicId);
+                    unsavedSongInfo.remove(musicId);
+                    stale.add(musicId);
+                    Set<Long> collectionIds = collectionsBySong.get(musicId);
+                    if (collectionIds != null) {
+                        affected.addAll(collectionIds);
+                    }
+                }
+            }
+            if (!stale.isEmpty()) {
+                enqueue(db -> deleteSongInfo(db, stale));
+            }
+        }
+
+        for (Collection collection : collections.values()) {
+            int resolved = collection.getResolvedCount();
+            if (resolved >= collection.getSongCount() && !affected.contains(collection.getId())) {
+                continue;
+            }
+
+            long duration = collection.getTotalDuration();
+            long[] cover = collection.getCoverAlbumIds();
+            recomputeSummary(collection);
+            if (collection.getResolvedCount() != resolved || collection.getTotalDuration() != duration
+                    || !Arrays.equals(collection.getCoverAlbumIds(), cover)) {
+                enqueueSummary(collection);
+                publish(CollectionEvent.of(CollectionEvent.Type.SUMMARY_CHANGED, copyOf(collection)));
+            }
+        }
+    }
+
+    private long[] knownSongIds() {
+        long[] ids = new long[songInfo.size()];
+        int count = 0;
+        for (Long musicId : songInfo.keySet()) {
+            ids[count++] = musicId;
+        }
+        return ids;
+    }
+
+    /** Write everything queued so far and wait until it is on disk */
+    void flush() {
+        try {
+            writer.submit(this::writePending).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error flushing collections", e);
+        }
+    }
+
+    /** Hand the event to every listener on the main thread, behind any earlier event */
+    private void publish(CollectionEvent event) {
+        if (listeners.isEmpty()) return;
+        mainHandler.post(() -> {
+            for (CollectionManager.OnCollectionChangedListener listener : listeners) {
+                listener.onCollectionChanged(event);
+            }
+        });
+    }
+
+    private void enqueue(Write write) {
+        if (!unsavedSongInfo.isEmpty()) {
+            // Stored ahead of the write so the summaries on disk can always be rebuilt
+            Map<Long, SongInfo> learned = unsavedSongInfo;
+            unsavedSongInfo = new HashMap<>();
+            pendingWrites.add(db -> saveSongInfo(db, learned));
+        }
+        pendingWrites.add(write);
+        if (scheduledFlush == null) {
+            scheduledFlush = writer.schedule(this::writePending, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Runs on the writer thread; the single thread keeps batches in mutation order */
+    private void writePending() {
+        List<Write> writes;
+        synchronized (this) {
+            writes = pendingWrites;
+            pendingWrites = new ArrayList<>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        if (writes.isEmpty()) return;
+
+        try {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Write write : writes) {
+                    write.apply(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error writing " + writes.size() + " collection changes", e);
+            onWriteFailed(writes);
+            return;
+        }
+        synchronized (this) {
+            failedAttempts = 0;
+        }
+    }
+
+    /**
+     * Put a batch that did not commit back in front of anything queued since and retry it
+     * later. Once the attempts are used up, nothing queued can be trusted to apply on top
+     * of what is stored, so it is all dropped and the store reloads from the database.
+     */
+    private synchronized void onWriteFailed(List<Write> writes) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        failedAttempts++;
+        if (failedAttempts < MAX_WRITE_ATTEMPTS) {
+            writes.addAll(pendingWrites);
+            pendingWrites = writes;
+            scheduledFlush = writer.schedule(this::writePending,
+                    FLUSH_DELAY_MS << failedAttempts, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        Log.e(TAG, "Giving up on " + (writes.size() + pendingWrites.size()) +
+                " collection changes; reloading from the database");
+        failedAttempts = 0;
+        pendingWrites = new ArrayList<>();
+        reload();
+    }
+
+    /** Replace the in-memory state with what is stored and announce every difference */
+    private void reload() {
+        Map<Long, Collection> shown = new LinkedHashMap<>(collections);
+        collections.clear();
+        collectionsBySong.clear();
+        songInfo.clear();
+        unsavedSongInfo = new HashMap<>();
+        loaded = false;
+        try {
+            ensureLoaded();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error reloading collections", e);
+            // Start over on the next access rather than from a half-read state
+            collections.clear();
+            collectionsBySong.clear();
+            songInfo.clear();
+            return;
+        }
+
+        for (Collection before : shown.values()) {
+            Collection after = collections.get(before.getId());
+            if (after == null) {
+                publish(CollectionEvent.of(CollectionEvent.Type.DELETED, before));
+            } else if (!sameContents(before, after)) {
+                publish(CollectionEvent.of(CollectionEvent.Type.SONGS_REPLACED, copyOf(after)));
+            }
+        }
+        for (Collection after : collections.values()) {
+            if (!shown.containsKey(after.getId())) {
+                publish(CollectionEvent.of(CollectionEvent.Type.CREATED, copyOf(after)));
+            }
+        }
+    }
+
+    private static boolean sameContents(Collection a, Collection b) {
+        return Objects.equals(a.getName(), b.getName())
+                && Arrays.equals(a.getMusicIds(), b.getMusicIds())
+                && a.getResolvedCount() == b.getResolvedCount()
+                && a.getTotalDuration() == b.getTotalDuration()
+                && Arrays.equals(a.getCoverAlbumIds(), b.getCoverAlbumIds());
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+
+        SQLiteDatabase db = database.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_COLLECTIONS,
+                new String[]{COLUMN_ID, COLUMN_NAME, COLUMN_CREATED_AT,
+                        COLUMN_RESOLVED_COUNT, COLUMN_TOTAL_DURATION, COLUMN_COVER_ALBUM_IDS},
+                null, null, null, null, COLLECTION_ORDER)) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                Collection collection = new Collection(id, cursor.getString(1),
+                        null, cursor.getLong(2));
+                collection.setSummary(cursor.getInt(3), cursor.getLong(4),
+                        parseAlbumIds(cursor.getString(5)));
+                collections.put(id, collection);
+                nextId = Math.max(nextId, id + 1);
+            }
+        }
+
+        try (Cursor cursor = db.query(TABLE_SONG_INFO,
+                new String[]{COLUMN_MUSIC_ID, COLUMN_DURATION, COLUMN_ALBUM_ID},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                songInfo.put(cursor.getLong(0), new SongInfo(cursor.getLong(1), cursor.getLong(2)));
+            }
+        }
+
+        try (Cursor cursor = db.query(TABLE_SONGS,
+                new String[]{COLUMN_COLLECTION_ID, COLUMN_MUSIC_ID},
+                null, null, null, null, SONG_ORDER)) {
+            Collection current = null;
+            while (cursor.moveToNext()) {
+                long collectionId = cursor.getLong(0);
+                if (current == null || current.getId() != collectionId) {
+                    current = collections.get(collectionId);
+                }
+                if (current != null) {
+                    long musicId = cursor.getLong(1);
+                    current.addSong(musicId);
+                    index(musicId, collectionId);
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    /** Duration and album of the song, asking the library the first time; null if unknown */
+    private SongInfo infoFor(long musicId) {
+        SongInfo info = songInfo.get(musicId);
+        if (info == null) {
+            MusicItem song = library.getSong(musicId);
+            if (song != null) {
+                info = new SongInfo(song.getDuration(), song.getAlbumId());
+                songInfo.put(musicId, info);
+                unsavedSongInfo.put(musicId, info);
+            }
+        }
+        return info;
+    }
+
+    /** Count in a song just appended to the collection */
+    private void addToSummary(Collection collection, long musicId) {
+        SongInfo info = infoFor(musicId);
+        if (info == null) return;
+
+        long[] cover = collection.getCoverAlbumIds();
+        if (cover.length < COVER_SIZE && info.albumId >= 0
+                && !containsAlbum(cover, cover.length, info.albumId)) {
+            cover = Arrays.copyOf(cover, cover.length + 1);
+            cover[cover.length - 1] = info.albumId;
+        }
+        collection.setSummary(collection.getResolvedCount() + 1,
+                collection.getTotalDuration() + info.duration, cover);
+    }
+
+    /**
+     * Count out a song just removed from a collection whose summary counts every song
+     * @return true if the cover showed the song's album and has to be rebuilt
+     */
+    private boolean removeFromSummary(Collection collection, long musicId) {
+        SongInfo info = songInfo.get(musicId);
+        if (info == null) return false;
+
+        collection.setSummary(collection.getResolvedCount() - 1,
+                collection.getTotalDuration() - info.duration, collection.getCoverAlbumIds());
+        long[] cover = collection.getCoverAlbumIds();
+        return containsAlbum(cover, cover.length, info.albumId);
+    }
+
+    private void recomputeSummary(Collection collection) {
+        int resolved = 0;
+        long duration = 0;
+        long[] cover = new long[COVER_SIZE];
+        int covered = 0;
+        for (long musicId : collection.getMusicIds()) {
+            SongInfo info = infoFor(musicId);
+            if (info == null) continue;
+
+            resolved++;
+            duration += info.duration;
+            if (covered < COVER_SIZE && info.albumId >= 0 && !containsAlbum(cover, covered, info.albumId)) {
+                cover[covered++] = info.albumId;
+            }
+        }
+        collection.setSummary(resolved, duration, Arrays.copyOf(cover, covered));
+    }
+
+    /** First distinct albums in song order; stops as soon as the cover is full */
+    private long[] coverOf(Collection collection) {
+        long[] cover = new long[COVER_SIZE];
+        int covered = 0;
+        int count = collection.getSongCount();
+        for (int i = 0; i < count && covered < COVER_SIZE; i++) {
+            SongInfo info = infoFor(collection.getMusicIdAt(i));
+            if (info != null && info.albumId >= 0 && !containsAlbum(cover, covered, info.albumId)) {
+                cover[covered++] = info.albumId;
+            }
+        }
+        return Arrays.copyOf(cover, covered);
+    }
+
+    /**
+     * Append the songs not already in the collection, in memory only
+     * @return the ids added, in order
+     */
+    private long[] appendSongs(Collection collection, long[] musicIds) {
+        long[] added = new long[musicIds.length];
+        int count = 0;
+        for (long musicId : musicIds) {
+            if (collection.addSong(musicId)) {
+                index(musicId, collection.getId());
+                addToSummary(collection, musicId);
+                added[count++] = musicId;
+            }
+        }
+        return Arrays.copyOf(added, count);
+    }
+
+    private static int[] positionsFrom(int first, int count) {
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = first + i;
+        }
+        return positions;
+    }
+
+    private void enqueueSummary(Collection collection) {
+        long collectionId = collection.getId();
+        ContentValues values = summaryValues(collection);
+        enqueue(db -> db.update(TABLE_COLLECTIONS, values, COLUMN_ID + " = ?",
+                new String[]{String.valueOf(collectionId)}));
+    }
+
+    private static ContentValues summaryValues(Collection collection) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_RESOLVED_COUNT, collection.getResolvedCount());
+        values.put(COLUMN_TOTAL_DURATION, collection.getTotalDuration());
+        values.put(COLUMN_COVER_ALBUM_IDS, joinAlbumIds(collection.getCoverAlbumIds()));
+        return values;
+    }
+
+    private static void appendSongRows(SQLiteDatabase db, long collectionId, long[] musicIds) {
+        SQLiteStatement statement = db.compileStatement(SQL_APPEND_SONG);
+        try {
+            for (long musicId : musicIds) {
+                statement.bindLong(1, collectionId);
+                statement.bindLong(2, musicId);
+                statement.bindLong(3, collectionId);
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** Write the rows of a collection that has none, with sort keys 0, 1, 2, ... */
+    private static void insertSongRows(SQLiteDatabase db, long collectionId, long[] rows) {
+        SQLiteStatement statement = db.compileStatement(SQL_INSERT_SONG);
+        try {
+            for (int position = 0; position < rows.length; position++) {
+                statement.bindLong(1, collectionId);
+                statement.bindLong(2, rows[position]);
+                statement.bindDouble(3, position);
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void saveSongInfo(SQLiteDatabase db, Map<Long, SongInfo> infos) {
+        SQLiteStatement statement = db.compileStatement(SQL_SAVE_SONG_INFO);
+        try {
+            for (Map.Entry<Long, SongInfo> entry : infos.entrySet()) {
+                statement.bindLong(1, entry.getKey());
+                statement.bindLong(2, entry.getValue().duration);
+                statement.bindLong(3, entry.getValue().albumId);
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void deleteSongInfo(SQLiteDatabase db, List<Long> musicIds) {
+        SQLiteStatement statement = db.compileStatement(SQL_DELETE_SONG_INFO);
+        try {
+            for (long musicId : musicIds) {
+                statement.bindLong(1, musicId);
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static boolean containsAlbum(long[] albumIds, int count, long albumId) {
+        for (int i = 0; i < count; i++) {
+            if (albumIds[i] == albumId) return true;
+        }
+        return false;
+    }
+
+    private static String joinAlbumIds(long[] albumIds) {
+        StringBuilder joined = new StringBuilder();
+        for (long albumId : albumIds) {
+            if (joined.length() > 0) joined.append(',');
+            joined.append(albumId);
+        }
+        return joined.toString();
+    }
+
+    private static long[] parseAlbumIds(String joined) {
+        if (joined == null || joined.isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = joined.split(",");
+        long[] albumIds = new long[parts.length];
+        int count = 0;
+        for (String part : parts) {
+            try {
+                albumIds[count] = Long.parseLong(part);
+                count++;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return Arrays.copyOf(albumIds, count);
+    }
+
+    private static void writeMove(SQLiteDatabase db, long collectionId, long musicId,
+                                  long previous, long next) {
+        double lower = sortKeyOf(db, collectionId, previous);
+        double upper = sortKeyOf(db, collectionId, next);
+        double key = keyBetween(lower, upper);
+        if (Double.isNaN(key)) {
+            // Repeated moves into the same gap used up the precision; space the keys out again
+            renumber(db, collectionId);
+            key = keyBetween(sortKeyOf(db, collectionId, previous), sortKeyOf(db, collectionId, next));
+        }
+
+        SQLiteStatement statement = db.compileStatement(SQL_SET_SORT_KEY);
+        try {
+            statement.bindDouble(1, key);
+            statement.bindLong(2, collectionId);
+            statement.bindLong(3, musicId);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** A key strictly between the two, NaN meaning no bound; NaN if none fits */
+    private static double keyBetween(double lower, double upper) {
+        if (Double.isNaN(lower) && Double.isNaN(upper)) return 0;
+        if (Double.isNaN(lower)) return upper - 1;
+        if (Double.isNaN(upper)) return lower + 1;
+
+        double key = lower + (upper - lower) / 2;
+        return key > lower && key < upper ? key : Double.NaN;
+    }
+
+    private static double sortKeyOf(SQLiteDatabase db, long collectionId, long musicId) {
+        if (musicId == NO_SONG) return Double.NaN;
+        try (Cursor cursor = db.rawQuery(SQL_SORT_KEY,
+                new String[]{String.valueOf(collectionId), String.valueOf(musicId)})) {
+            return cursor.moveToFirst() ? cursor.getDouble(0) : Double.NaN;
+        }
+    }
+
+    /** Give the collection's rows the keys 0, 1, 2... in their current order */
+    private static void renumber(SQLiteDatabase db, long collectionId) {
+        List<Long> ordered = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_SONGS, new String[]{COLUMN_MUSIC_ID},
+                COLUMN_COLLECTION_ID + " = ?", new String[]{String.valueOf(collectionId)},
+                null, null, COLUMN_SORT_KEY + " ASC")) {
+            while (cursor.moveToNext()) {
+                ordered.add(cursor.getLong(0));
+            }
+        }
+
+        SQLiteStatement statement = db.compileStatement(SQL_SET_SORT_KEY);
+        try {
+            for (int i = 0; i < ordered.size(); i++) {
+                statement.bindDouble(1, i);
+                statement.bindLong(2, collectionId);
+                statement.bindLong(3, ordered.get(i));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** @return false if the song was already indexed under the collection */
+    private boolean index(long musicId, long collectionId) {
+        Set<Long> collectionIds = collectionsBySong.get(musicId);
+        if (collectionIds == null) {
+            collectionIds = new HashSet<>(4);
+            collectionsBySong.put(musicId, collectionIds);
+        }
+        return collectionIds.add(collectionId);
+    }
+
+    /** @return false if the song was not indexed under the collection */
+    private boolean unindex(long musicId, long collectionId) {
+        Set<Long> collectionIds = collectionsBySong.get(musicId);
+        if (collectionIds == null || !collectionIds.remove(collectionId)) {
+            return false;
+        }
+        if (collectionIds.isEmpty()) {
+            collectionsBySong.remove(musicId);
+        }
+        return true;
+    }
+
+    private static void updateName(SQLiteDatabase db, long collectionId, String name) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NAME, name);
+        db.update(TABLE_COLLECTIONS, values, COLUMN_ID + " = ?",
+                new String[]{String.valueOf(collectionId)});
+    }
+
+    private static Collection copyOf(Collection collection) {
+        return new Collection(collection);
+    }
+}
@@ -0,0 +1,152 @@
+package com.felle.fusic.ui.collection;
+
+import com.felle.fusic.ui.music.MusicItem;
+import com.felle.fusic.util.OrderedLongSet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes collections as M3U/M3U8 playlists. Both directions stream line by
+ * line: import keeps only the resolved ids and a few unresolved samples, and export
+ * writes each song as it is looked up. Files are read and written as UTF-8, which
+ * covers M3U8 and the M3U files other players produce in practice.
+ */
+final class M3uPlaylist {
+
+    private static final String HEADER = "#EXTM3U";
+    private static final String EXTINF = "#EXTINF:";
+    // Unresolved entries kept for the report; the count covers all of them
+    private static final int MAX_UNRESOLVED_SAMPLES = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Finds a song by file path; MediaLibraryRepository's path index in the app */
+    interface PathLookup {
+        /** @return the song's id, or -1 when no song has this path */
+        long findSongIdByPath(String path);
+    }
+
+    /** Finds a song by id; MediaLibraryRepository in the app */
+    interface SongLookup {
+        /** @return the song, or null when it is not in the library */
+        MusicItem getSong(long musicId);
+    }
+
+    static final class ImportResult {
+        final long[] musicIds;
+        final int unresolvedCount;
+        final List<String> unresolvedSamples;
+
+        ImportResult(long[] musicIds, int unresolvedCount, List<String> unresolvedSamples) {
+            this.musicIds = musicIds;
+            this.unresolvedCount = unresolvedCount;
+            this.unresolvedSamples = unresolvedSamples;
+        }
+    }
+
+    private M3uPlaylist() {
+    }
+
+    /**
+     * Resolve every entry of the playlist against the library's path index. Repeated
+     * songs keep their first position, matching how collections hold each song once.
+     */
+    static ImportResult read(InputStream input, PathLookup library) throws IOException {
+        OrderedLongSet musicIds = new OrderedLongSet();
+        List<String> unresolvedSamples = new ArrayList<>();
+        int unresolvedCount = 0;
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+        String line;
+        boolean firstLine = true;
+        while ((line = reader.readLine()) != null) {
+            if (firstLine) {
+                firstLine = false;
+                // Byte order mark some editors put in front of UTF-8 files
+                if (line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+            }
+
+            String entry = line.trim();
+            if (entry.isEmpty() || entry.startsWith("#")) continue;
+
+            long musicId = library.findSongIdByPath(toPath(entry));
+            if (musicId >= 0) {
+                musicIds.add(musicId);
+            } else {
+                unresolvedCount++;
+                if (unresolvedSamples.size() < MAX_UNRESOLVED_SAMPLES) {
+                    unresolvedSamples.add(entry);
+                }
+            }
+        }
+
+        return new ImportResult(musicIds.toArray(), unresolvedCount, unresolvedSamples);
+    }
+
+    /**
+     * Write the songs as an extended M3U playlist with absolute paths
+     * @return number of songs written; ids missing from the library are skipped
+     */
+    static int write(OutputStream output, long[] musicIds, SongLookup library) throws IOException {
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        int written = 0;
+
+        writer.write(HEADER);
+        writer.write('\n');
+        for (long musicId : musicIds) {
+            MusicItem song = library.getSong(musicId);
+            if (song == null || song.getPath() == null) continue;
+
+            writer.write(EXTINF);
+            writer.write(Long.toString(song.getDuration() / 1000));
+            writer.write(',');
+            if (song.getArtist() != null) {
+                writer.write(song.getArtist());
+                writer.write(" - ");
+            }
+            writer.write(song.getTitle() != null ? song.getTitle() : "");
+            writer.write('\n');
+            writer.write(song.getPath());
+            writer.write('\n');
+            written++;
+        }
+        writer.flush();
+        return written;
+    }
+
+    /** Turn a playlist entry into a forward-slash file path */
+    private static String toPath(String entry) {
+        if (entry.startsWith("file:")) {
+            try {
+                String path = new URI(entry).getPath();
+                if (path != null) {
+                    return path;
+                }
+            } catch (URISyntaxException e) {
+                // Written unescaped, e.g. with spaces; take everything after the host as is
+                String path = entry.substring("file:".length());
+                if (path.startsWith("//")) {
+                    int slash = path.indexOf('/', 2);
+                    path = slash >= 0 ? path.substring(slash) : "";
+                }
+                return path.replace('\\', '/');
+            }
+        }
+        return entry.replace('\\', '/');
+    }
+}
@@ -1,6 +1,7 @@
 package com.felle.fusic.ui.music;
 
 import android.content.Context;
+import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,6 +14,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.RequestOptions;
 import com.felle.fusic.R;
+import com.felle.fusic.data.TrackList;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
 
@@ -38,6 +40,12 @@ public class MusicAdapter extends RecyclerView.Adapter<MusicAdapter.MusicViewHol
         this.musicList = musicList;
         this.context = context;
     }
+
+    /** Swap the backing list; the caller notifies the adapter about what changed */
+    public void setMusicList(List<MusicItem> musicList) {
+        this.musicList = musicList;
+    }
+
     public void setOnMusicItemLongClickListener(OnMusicItemLongClickListener listener) {
         this.longClickListener = listener;
     }
@@ -56,39 +64,65 @@ public class MusicAdapter extends RecyclerView.Adapter<MusicAdapter.MusicViewHol
 
     @Override
     public void onBindViewHolder(@NonNull MusicViewHolder holder, int position) {
-        MusicItem musicItem = musicList.get(position);
-
-        holder.titleTextView.setText(musicItem.getTitle());
-        holder.artistTextView.setText(musicItem.getArtist());
-
-        Glide.with(context)
-                .load(musicItem.getAlbumArtUri())
-                .apply(new RequestOptions()
-                        .placeholder(R.drawable.ic_outline_music_note_24)
-                        .error(R.drawable.ic_outline_music_note_24)
-                        .centerCrop())
-                .into(holder.albumArtImageView);
+        if (musicList instanceof TrackList) {
+            // Bind straight from the table columns without creating a MusicItem per row
+            TrackList tracks = (TrackList) musicList;
+            bind(holder, tracks.getTitle(position), tracks.getArtist(position),
+                    tracks.getAlbumArtUri(position));
+        } else {
+            MusicItem musicItem = musicList.get(position);
+            if (musicItem != null) {
+                bind(holder, musicItem.getTitle(), musicItem.getArtist(), musicItem.getAlbumArtUri());
+            } else {
+                // Paged lists return null until the row's page has been read
+                bind(holder, "", "", null);
+            }
+        }
 
         holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
+            MusicItem musicItem = itemAt(holder);
+            if (listener != null && musicItem != null) {
                 listener.onMusicItemClick(musicItem);
             }
         });
 
         holder.itemView.setOnLongClickListener(v -> {
-            if (longClickListener != null) {
+            MusicItem musicItem = itemAt(holder);
+            if (longClickListener != null && musicItem != null) {
                 return longClickListener.onMusicItemLongClick(musicItem);
             }
             return false;
         });
 
         holder.playButton.setOnClickListener(v -> {
-            if (listener != null) {
+            MusicItem musicItem = itemAt(holder);
+            if (listener != null && musicItem != null) {
                 listener.onPlayButtonClick(musicItem);
             }
         });
     }
 
+    private void bind(MusicViewHolder holder, String title, String artist, Uri albumArtUri) {
+        holder.titleTextView.setText(title);
+        holder.artistTextView.setText(artist);
+
+        Glide.with(context)
+                .load(albumArtUri)
+                .apply(new RequestOptions()
+                        .placeholder(R.drawable.ic_outline_music_note_24)
+                        .error(R.drawable.ic_outline_music_note_24)
+                        .centerCrop())
+                .into(holder.albumArtImageView);
+    }
+
+    private MusicItem itemAt(MusicViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION || position >= musicList.size()) {
+            return null;
+        }
+        return musicList.get(position);
+    }
+
     @Override
     public int getItemCount() {
         return musicList.size();
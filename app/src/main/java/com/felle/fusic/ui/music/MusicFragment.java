@@ -1,19 +1,13 @@
 package com.felle.fusic.ui.music;
 
-
-import static com.felle.fusic.ui.collection.CollectionFragment.ACTION_COLLECTION_CREATED;
-import static com.felle.fusic.ui.collection.CollectionFragment.ACTION_SONG_ADDED_TO_COLLECTION;
-
 import android.Manifest;
 import android.app.RecoverableSecurityException;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -38,6 +32,10 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.felle.fusic.R;
+import com.felle.fusic.data.LibraryDelta;
+import com.felle.fusic.data.MediaLibraryRepository;
+import com.felle.fusic.data.PagedSongList;
+import com.felle.fusic.data.TrackList;
 import com.felle.fusic.databinding.FragmentMusicBinding;
 import com.felle.fusic.service.MusicService;
 import com.felle.fusic.ui.pages.nowplaying.AddToCollectionAdapter;
@@ -53,8 +51,6 @@ import com.google.android.material.textfield.TextInputEditText;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class MusicFragment extends Fragment {
 
@@ -63,12 +59,10 @@ public class MusicFragment extends Fragment {
     private FragmentMusicBinding binding;
     private MusicAdapter musicAdapter;
     private List<MusicItem> musicList = new ArrayList<>();
-    private ExecutorService executorService;
+    private PagedSongList pagedSongList;
     private static final int PERMISSION_REQUEST_CODE = 123;
 
-    private static List<MusicItem> cachedMusicList = null;
-    private static long lastCacheTime = 0;
-    private static final long CACHE_DURATION = 5 * 60 * 1000;
+    private MediaLibraryRepository libraryRepository;
     private boolean isLoading = false;
     private CollectionManager collectionManager;
     private boolean hasLoadedOnce = false;
@@ -103,6 +97,63 @@ public class MusicFragment extends Fragment {
         }
     };
 
+    private final MediaLibraryRepository.OnLibraryChangedListener libraryListener =
+            new MediaLibraryRepository.OnLibraryChangedListener() {
+        @Override
+        public void onLibraryChanged() {
+            if (binding == null) return;
+
+            boolean wasLoading = isLoading;
+            showLoading(false);
+            isLoading = false;
+            hasLoadedOnce = true;
+
+            int previousSize = musicList.size();
+            applyLibrary();
+
+            if (!wasLoading) return;
+            showRefreshComplete(true);
+
+            int newCount = musicList.size();
+            if (newCount > 0) {
+                if (newCount == previousSize) {
+                    Toast.makeText(getContext(),
+                            "Music library is up to date (" + newCount + " songs)",
+                            Toast.LENGTH_SHORT).show();
+                }
+            } else {
+                Toast.makeText(getContext(),
+                        "No music files found",
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        @Override
+        public void onLibraryDelta(LibraryDelta delta) {
+            if (binding == null) return;
+
+            if (musicList.size() != delta.getPreviousSongCount()) {
+                applyLibrary();
+                return;
+            }
+
+            musicList = delta.getSongs();
+            musicAdapter.setMusicList(musicList);
+            delta.dispatchSongUpdates(musicAdapter);
+            updateUI();
+        }
+
+        @Override
+        public void onLibraryLoadFailed() {
+            if (binding == null) return;
+
+            showLoading(false);
+            isLoading = false;
+            Toast.makeText(getContext(), "Error loading music files", Toast.LENGTH_SHORT).show();
+            showRefreshComplete(false);
+        }
+    };
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
@@ -112,8 +163,9 @@ public class MusicFragment extends Fragment {
         binding = FragmentMusicBinding.inflate(inflater, container, false);
         View root = binding.getRoot();
 
-        executorService = Executors.newSingleThreadExecutor();
         collectionManager = new CollectionManager(requireContext());
+        libraryRepository = MediaLibraryRepository.getInstance(requireContext());
+        libraryRepository.addListener(libraryListener);
 
         setupDeletePermissionLauncher();
         setupRecyclerView();
@@ -380,18 +432,7 @@ public class MusicFragment extends Fragment {
     private void onSongDeleteSuccess(MusicItem musicItem) {
         Toast.makeText(requireContext(), "Song deleted successfully", Toast.LENGTH_SHORT).show();
 
-        musicList.remove(musicItem);
-
-        // Also remove from cache
-        if (cachedMusicList != null) {
-            cachedMusicList.remove(musicItem);
-        }
-
-        if (musicAdapter != null) {
-            musicAdapter.notifyDataSetChanged();
-        }
-
-        updateUI();
+        libraryRepository.removeSong(musicItem.getId());
 
         // Broadcast to update other fragments/activities
         Intent intent = new Intent("SONG_DELETED");
@@ -439,7 +480,6 @@ public class MusicFragment extends Fragment {
                             Toast.makeText(requireContext(),
                                     "Added to " + collection.getName(),
                                     Toast.LENGTH_SHORT).show();
-                            broadcastCollectionChange(ACTION_SONG_ADDED_TO_COLLECTION);
                             bottomSheetDialog.dismiss();
                         } else {
                             Toast.makeText(requireContext(),
@@ -513,26 +553,10 @@ public class MusicFragment extends Fragment {
             Toast.makeText(requireContext(),
                     "Created \"" + collectionName + "\" and added song",
                     Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
         } else {
             Toast.makeText(requireContext(),
                     "Collection created",
                     Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
-        }
-    }
-
-    private void broadcastCollectionChange(String action) {
-        if (getContext() == null) {
-            return;
-        }
-
-        try {
-            Intent intent = new Intent(action);
-            intent.setPackage(requireContext().getPackageName());
-            requireContext().sendBroadcast(intent);
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
@@ -541,33 +565,24 @@ public class MusicFragment extends Fragment {
             return;
         }
 
-        if (isCacheValid() && hasLoadedOnce) {
-            loadFromCache();
+        if (libraryRepository.isLoaded()) {
+            applyLibrary();
             return;
         }
 
         checkPermissionAndLoadMusic();
     }
 
-    private boolean isCacheValid() {
-        return cachedMusicList != null &&
-                !cachedMusicList.isEmpty() &&
-                (System.currentTimeMillis() - lastCacheTime) < CACHE_DURATION;
-    }
-
-    private void loadFromCache() {
-        if (binding != null && binding.musicRecyclerView != null) {
-            binding.musicRecyclerView.post(() -> {
-                musicList.clear();
-                musicList.addAll(cachedMusicList);
+    private void applyLibrary() {
+        closePagedSongs();
+        musicList = libraryRepository.getSongs();
 
-                if (musicAdapter != null) {
-                    musicAdapter.notifyDataSetChanged();
-                }
-
-                updateUI();
-            });
+        if (musicAdapter != null) {
+            musicAdapter.setMusicList(musicList);
+            musicAdapter.notifyDataSetChanged();
         }
+
+        updateUI();
     }
 
     private void startMusicServiceAndOpenNowPlaying(MusicItem musicItem) {
@@ -587,9 +602,17 @@ public class MusicFragment extends Fragment {
             return;
         }
 
+        // While paging, only the rows read so far can go into the queue
+        List<MusicItem> musicList = this.musicList instanceof PagedSongList
+                ? ((PagedSongList) this.musicList).getLoadedItems()
+                : this.musicList;
+
         int selectedIndex = -1;
         for (int i = 0; i < musicList.size(); i++) {
-            if (musicList.get(i).getId() == selectedSong.getId()) {
+            long id = musicList instanceof TrackList
+                    ? ((TrackList) musicList).getId(i)
+                    : musicList.get(i).getId();
+            if (id == selectedSong.getId()) {
                 selectedIndex = i;
                 break;
             }
@@ -673,99 +696,45 @@ public class MusicFragment extends Fragment {
 
         isLoading = true;
         showLoading(true);
+        if (!libraryRepository.isLoaded()) {
+            openPagedSongs();
+        }
+        libraryRepository.load();
+    }
 
-        executorService.execute(() -> {
-            List<MusicItem> tempMusicList = new ArrayList<>();
-
-            ContentResolver contentResolver = requireContext().getContentResolver();
-            Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-            String[] projection = {
-                    MediaStore.Audio.Media._ID,
-                    MediaStore.Audio.Media.TITLE,
-                    MediaStore.Audio.Media.ARTIST,
-                    MediaStore.Audio.Media.ALBUM,
-                    MediaStore.Audio.Media.DURATION,
-                    MediaStore.Audio.Media.DATA,
-                    MediaStore.Audio.Media.ALBUM_ID
-            };
-
-            String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-            String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
-
-            try (Cursor cursor = contentResolver.query(musicUri, projection, selection, null, sortOrder)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                    int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
-                    int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                    int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                    int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-                    int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
-                    int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-
-                    do {
-                        long id = cursor.getLong(idColumn);
-                        String title = cursor.getString(titleColumn);
-                        String artist = cursor.getString(artistColumn);
-                        String album = cursor.getString(albumColumn);
-                        long duration = cursor.getLong(durationColumn);
-                        String path = cursor.getString(pathColumn);
-                        long albumId = cursor.getLong(albumIdColumn);
-
-                        Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
-
-                        MusicItem musicItem = new MusicItem(id, title, artist, album, duration, path, albumArtUri);
-                        tempMusicList.add(musicItem);
-
-                    } while (cursor.moveToNext());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    isLoading = false;
-                    Toast.makeText(getContext(), "Error loading music files", Toast.LENGTH_SHORT).show();
-                    showRefreshComplete(false);
-                });
-                return;
-            }
-
-            requireActivity().runOnUiThread(() -> {
-                showLoading(false);
-                isLoading = false;
-                hasLoadedOnce = true;
-                cachedMusicList = new ArrayList<>(tempMusicList);
-                lastCacheTime = System.currentTimeMillis();
-
-                int previousSize = musicList.size();
-                musicList.clear();
-                musicList.addAll(tempMusicList);
+    /**
+     * Show songs page by page straight from MediaStore until the repository has
+     * finished its first full scan, then the repository list takes over.
+     */
+    private void openPagedSongs() {
+        if (pagedSongList != null || getContext() == null) return;
 
-                if (musicAdapter != null) {
-                    musicAdapter.notifyDataSetChanged();
-                }
+        pagedSongList = new PagedSongList(requireContext(), new PagedSongList.Callback() {
+            @Override
+            public void onReady(PagedSongList list) {
+                if (binding == null || list != pagedSongList || libraryRepository.isLoaded()) return;
 
+                showLoading(false);
+                musicList = list;
+                musicAdapter.setMusicList(musicList);
+                musicAdapter.notifyDataSetChanged();
                 updateUI();
-                showRefreshComplete(true);
+            }
 
-                int newCount = tempMusicList.size();
-                if (newCount > 0) {
-                    if (newCount == previousSize) {
-                        Toast.makeText(getContext(),
-                                "Music library is up to date (" + newCount + " songs)",
-                                Toast.LENGTH_SHORT).show();
-                    } else {
-//                        Toast.makeText(getContext(),
-//                                "Library updated: " + newCount + " songs",
-//                                Toast.LENGTH_SHORT).show();
-                    }
-                } else {
-                    Toast.makeText(getContext(),
-                            "No music files found",
-                            Toast.LENGTH_SHORT).show();
-                }
-            });
+            @Override
+            public void onRangeLoaded(int start, int count) {
+                if (binding == null || musicList != pagedSongList) return;
+                musicAdapter.notifyItemRangeChanged(start, count);
+            }
         });
+        pagedSongList.open();
+    }
+
+    private void closePagedSongs() {
+        if (pagedSongList != null) {
+            pagedSongList.close();
+            pagedSongList = null;
+        }
     }
 
     private void updateUI() {
@@ -789,20 +758,14 @@ public class MusicFragment extends Fragment {
     }
 
     public void refreshData() {
-        cachedMusicList = null;
-        lastCacheTime = 0;
         hasLoadedOnce = false;
 
         if (getContext() != null) {
             Toast.makeText(getContext(), "Refreshing music library...", Toast.LENGTH_SHORT).show();
         }
 
-        loadMusicData();
-    }
-
-    public static void clearCache() {
-        cachedMusicList = null;
-        lastCacheTime = 0;
+        isLoading = true;
+        libraryRepository.refresh();
     }
 
     @Override
@@ -853,9 +816,10 @@ public class MusicFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
+        if (libraryRepository != null) {
+            libraryRepository.removeListener(libraryListener);
         }
+        closePagedSongs();
         binding = null;
     }
 }
\ No newline at end of file
@@ -1,16 +1,21 @@
 package com.felle.fusic.ui.music;
 
+import android.content.ContentUris;
 import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
 
 public class MusicItem implements Parcelable {
+    // Parsed on first use, not in the static initializer, so plain JVM tests can load the class
+    private static final String ALBUM_ART_URI = "content://media/external/audio/albumart";
+
     private long id;
     private String title;
     private String artist;
     private String album;
     private long duration;
     private String path;
+    private long albumId = -1;
     private Uri albumArtUri;
 
     public MusicItem(long id, String title, String artist, String album,
@@ -24,6 +29,15 @@ public class MusicItem implements Parcelable {
         this.albumArtUri = albumArtUri;
     }
 
+    /**
+     * Create an item whose album art URI is derived from the album id on first use
+     */
+    public MusicItem(long id, String title, String artist, String album,
+                     long duration, String path, long albumId) {
+        this(id, title, artist, album, duration, path, (Uri) null);
+        this.albumId = albumId;
+    }
+
     protected MusicItem(Parcel in) {
         id = in.readLong();
         title = in.readString();
@@ -31,6 +45,7 @@ public class MusicItem implements Parcelable {
         album = in.readString();
         duration = in.readLong();
         path = in.readString();
+        albumId = in.readLong();
         albumArtUri = in.readParcelable(Uri.class.getClassLoader());
     }
 
@@ -42,6 +57,7 @@ public class MusicItem implements Parcelable {
         dest.writeString(album);
         dest.writeLong(duration);
         dest.writeString(path);
+        dest.writeLong(albumId);
         dest.writeParcelable(albumArtUri, flags);
     }
 
@@ -68,7 +84,14 @@ public class MusicItem implements Parcelable {
     public String getAlbum() { return album; }
     public long getDuration() { return duration; }
     public String getPath() { return path; }
-    public Uri getAlbumArtUri() { return albumArtUri; }
+    public long getAlbumId() { return albumId; }
+
+    public Uri getAlbumArtUri() {
+        if (albumArtUri == null && albumId >= 0) {
+            albumArtUri = ContentUris.withAppendedId(Uri.parse(ALBUM_ART_URI), albumId);
+        }
+        return albumArtUri;
+    }
 
     public void setId(long id) { this.id = id; }
     public void setTitle(String title) { this.title = title; }
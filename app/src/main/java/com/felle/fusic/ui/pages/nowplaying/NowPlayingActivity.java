@@ -10,7 +10,6 @@ import android.content.ServiceConnection;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
-import android.media.MediaPlayer;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
@@ -56,11 +55,6 @@ public class NowPlayingActivity extends AppCompatActivity {
 
     private static final String LYRICS_PREFS = "LyricsPreferences";
 
-    private static final String ACTION_COLLECTION_CHANGED = "com.felle.fusic.COLLECTION_CHANGED";
-    private static final String ACTION_COLLECTION_CREATED = "com.felle.fusic.COLLECTION_CREATED";
-    private static final String ACTION_SONG_ADDED_TO_COLLECTION = "com.felle.fusic.SONG_ADDED_TO_COLLECTION";
-    private static final String ACTION_SONG_REMOVED_FROM_COLLECTION = "com.felle.fusic.SONG_REMOVED_FROM_COLLECTION";
-
     private ActivityNowPlayingBinding binding;
     private MusicService musicService;
     private boolean serviceBound = false;
@@ -174,20 +168,6 @@ public class NowPlayingActivity extends AppCompatActivity {
         }
     }
 
-    /**
-     * Broadcast collection changes to update CollectionFragment
-     */
-    private void broadcastCollectionChange(String action) {
-        try {
-            Intent intent = new Intent(action);
-            intent.setPackage(getPackageName());
-            sendBroadcast(intent);
-            Log.d("NowPlayingActivity", "Broadcast sent: " + action);
-        } catch (Exception e) {
-            Log.e("NowPlayingActivity", "Error broadcasting collection change: " + e.getMessage(), e);
-        }
-    }
-
     private void updateUIFromService() {
         if (musicService != null) {
             MusicItem serviceSong = musicService.getCurrentSong();
@@ -209,19 +189,14 @@ public class NowPlayingActivity extends AppCompatActivity {
     }
 
     private void updateProgressFromService() {
-        if (musicService != null && musicService.getMediaPlayer() != null) {
-            try {
-                MediaPlayer mediaPlayer = musicService.getMediaPlayer();
-                int currentPosition = mediaPlayer.getCurrentPosition();
-                int duration = mediaPlayer.getDuration();
-
-                if (duration > 0) {
-                    int progress = (int) (((float) currentPosition / duration) * 100);
-                    binding.seekBar.setProgress(progress);
-                    binding.currentTime.setText(formatDuration(currentPosition));
-                }
-            } catch (IllegalStateException e) {
-                Log.e("NowPlayingActivity", "Error getting playback position: " + e.getMessage());
+        if (musicService != null) {
+            int currentPosition = musicService.getCurrentPosition();
+            int duration = musicService.getDuration();
+
+            if (duration > 0) {
+                int progress = (int) (((float) currentPosition / duration) * 100);
+                binding.seekBar.setProgress(progress);
+                binding.currentTime.setText(formatDuration(currentPosition));
             }
         }
     }
@@ -381,7 +356,6 @@ public class NowPlayingActivity extends AppCompatActivity {
                         boolean added = collectionManager.addSongToCollection(collection.getId(), currentSong.getId());
                         if (added) {
                             Toast.makeText(this, "Added to " + collection.getName(), Toast.LENGTH_SHORT).show();
-                            broadcastCollectionChange(ACTION_SONG_ADDED_TO_COLLECTION);
                             bottomSheetDialog.dismiss();
                         } else {
                             Toast.makeText(this, "Song already in " + collection.getName(), Toast.LENGTH_SHORT).show();
@@ -442,10 +416,8 @@ public class NowPlayingActivity extends AppCompatActivity {
         if (added) {
             Toast.makeText(this, "Created \"" + collectionName + "\" and added song",
                     Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
         } else {
             Toast.makeText(this, "Collection created", Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
         }
     }
     private List<MusicItem> getUpcomingQueue() {
@@ -456,24 +428,21 @@ public class NowPlayingActivity extends AppCompatActivity {
     }
 
     private void handleProgressTouch(float adjustedX, int usableWidth) {
-        if (musicService != null && musicService.getMediaPlayer() != null) {
-            MediaPlayer mediaPlayer = musicService.getMediaPlayer();
-
+        if (musicService != null) {
             float progressPercent = Math.max(0, Math.min(1, adjustedX / usableWidth));
             int newProgress = (int) (progressPercent * 100);
             binding.seekBar.setProgress(newProgress);
 
-            int seekPosition = (int) (progressPercent * mediaPlayer.getDuration());
+            int seekPosition = (int) (progressPercent * musicService.getDuration());
             binding.currentTime.setText(formatDuration(seekPosition));
         }
     }
 
     private void seekToPosition(float adjustedX, int usableWidth) {
-        if (musicService != null && musicService.getMediaPlayer() != null) {
-            MediaPlayer mediaPlayer = musicService.getMediaPlayer();
-
+        int duration = musicService != null ? musicService.getDuration() : 0;
+        if (duration > 0) {
             float progressPercent = Math.max(0, Math.min(1, adjustedX / usableWidth));
-            int seekPosition = (int) (progressPercent * mediaPlayer.getDuration());
+            int seekPosition = (int) (progressPercent * duration);
 
             Intent serviceIntent = new Intent(this, MusicService.class);
             serviceIntent.setAction(MusicService.ACTION_SEEK);
@@ -578,18 +547,14 @@ public class NowPlayingActivity extends AppCompatActivity {
         updateSeekBar = new Runnable() {
             @Override
             public void run() {
-                if (musicService != null && musicService.getMediaPlayer() != null && isPlaying && !isDraggingSeekBar) {
-                    MediaPlayer mediaPlayer = musicService.getMediaPlayer();
-                    try {
-                        int currentPosition = mediaPlayer.getCurrentPosition();
-                        int duration = mediaPlayer.getDuration();
-
-                        if (duration > 0) {
-                            int progress = (int) (((float) currentPosition / duration) * 100);
-                            binding.seekBar.setProgress(progress);
-                            binding.currentTime.setText(formatDuration(currentPosition));
-                        }
-                    } catch (IllegalStateException e) {
+                if (musicService != null && isPlaying && !isDraggingSeekBar) {
+                    int currentPosition = musicService.getCurrentPosition();
+                    int duration = musicService.getDuration();
+
+                    if (duration > 0) {
+                        int progress = (int) (((float) currentPosition / duration) * 100);
+                        binding.seekBar.setProgress(progress);
+                        binding.currentTime.setText(formatDuration(currentPosition));
                     }
                 }
 
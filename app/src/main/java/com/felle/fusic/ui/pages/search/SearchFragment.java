@@ -4,13 +4,11 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.RecoverableSecurityException;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -37,6 +35,7 @@ import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -48,6 +47,8 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.textfield.TextInputEditText;
 
 import com.felle.fusic.R;
+import com.felle.fusic.data.MediaLibraryRepository;
+import com.felle.fusic.data.TrackList;
 import com.felle.fusic.databinding.SearchFragmentBinding;
 import com.felle.fusic.service.MusicService;
 import com.felle.fusic.ui.music.MusicAdapter;
@@ -59,12 +60,13 @@ import com.felle.fusic.ui.collection.CollectionManager;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-
-import static com.felle.fusic.ui.collection.CollectionFragment.ACTION_COLLECTION_CREATED;
-import static com.felle.fusic.ui.collection.CollectionFragment.ACTION_SONG_ADDED_TO_COLLECTION;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SearchFragment extends Fragment {
 
@@ -72,15 +74,24 @@ public class SearchFragment extends Fragment {
 
     private SearchFragmentBinding binding;
     private MusicAdapter searchAdapter;
-    private List<MusicItem> allMusicList = new ArrayList<>();
-    private List<MusicItem> searchResults = new ArrayList<>();
+    private List<MusicItem> searchResults = Collections.emptyList();
     private ExecutorService executorService;
     private Handler searchHandler;
     private Runnable searchRunnable;
     private static final int PERMISSION_REQUEST_CODE = 124;
     private static final int SEARCH_DELAY = 300;
-    private boolean isSearching = false;
+    // Ranked results are built and bound a page at a time
+    private static final int SEARCH_PAGE_SIZE = 50;
+    private static final int LOAD_MORE_THRESHOLD = 10;
+    // Bumped for every new query; a search only publishes if it is still the latest
+    private final AtomicInteger searchGeneration = new AtomicInteger();
+    private Future<?> searchTask;
+    private boolean isSearchInFlight = false;
+    private String lastSearchQuery;
+    private int searchLimit = 0;
+    private boolean hasMoreResults = false;
     private CollectionManager collectionManager;
+    private MediaLibraryRepository libraryRepository;
 
     private MaterialCardView miniPlayerContainer;
     private ImageView miniAlbumArt;
@@ -138,6 +149,26 @@ public class SearchFragment extends Fragment {
         }
     };
 
+    private final MediaLibraryRepository.OnLibraryChangedListener libraryListener =
+            new MediaLibraryRepository.OnLibraryChangedListener() {
+        @Override
+        public void onLibraryChanged() {
+            if (binding == null) return;
+
+            // Results come from the library index, so rerun the current query against it
+            String currentQuery = binding.searchEditText.getText().toString().trim();
+            if (!currentQuery.isEmpty()) {
+                performSearch(currentQuery, Math.max(searchLimit, SEARCH_PAGE_SIZE));
+            }
+        }
+
+        @Override
+        public void onLibraryLoadFailed() {
+            if (isFragmentDestroyed) return;
+            Toast.makeText(getContext(), "Error loading music files", Toast.LENGTH_SHORT).show();
+        }
+    };
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         binding = SearchFragmentBinding.inflate(inflater, container, false);
@@ -146,6 +177,8 @@ public class SearchFragment extends Fragment {
         executorService = Executors.newSingleThreadExecutor();
         searchHandler = new Handler(Looper.getMainLooper());
         collectionManager = new CollectionManager(requireContext());
+        libraryRepository = MediaLibraryRepository.getInstance(requireContext());
+        libraryRepository.addListener(libraryListener);
 
         setupDeletePermissionLauncher();
         initializeMiniPlayer();
@@ -237,6 +270,14 @@ public class SearchFragment extends Fragment {
         searchAdapter = new MusicAdapter(searchResults, getContext());
         binding.searchRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
         binding.searchRecyclerView.setAdapter(searchAdapter);
+        binding.searchRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) {
+                    loadMoreResultsIfNeeded(recyclerView);
+                }
+            }
+        });
 
         searchAdapter.setOnMusicItemClickListener(new MusicAdapter.OnMusicItemClickListener() {
             @Override
@@ -464,19 +505,8 @@ public class SearchFragment extends Fragment {
     private void onSongDeleteSuccess(MusicItem musicItem) {
         Toast.makeText(requireContext(), "Song deleted successfully", Toast.LENGTH_SHORT).show();
 
-        // Remove from search results
-        searchResults.remove(musicItem);
-
-        // Also remove from all music list
-        allMusicList.remove(musicItem);
-
-        if (searchAdapter != null) {
-            searchAdapter.notifyDataSetChanged();
-        }
-
-        // Update UI based on current search state
-        String currentQuery = binding.searchEditText.getText().toString().trim();
-        updateUI(currentQuery);
+        // Removing it from the library reruns the search, which drops it from the results
+        libraryRepository.removeSong(musicItem.getId());
 
         // Broadcast to update other fragments/activities
         Intent intent = new Intent("SONG_DELETED");
@@ -524,7 +554,6 @@ public class SearchFragment extends Fragment {
                             Toast.makeText(requireContext(),
                                     "Added to " + collection.getName(),
                                     Toast.LENGTH_SHORT).show();
-                            broadcastCollectionChange(ACTION_SONG_ADDED_TO_COLLECTION);
                             bottomSheetDialog.dismiss();
                         } else {
                             Toast.makeText(requireContext(),
@@ -598,26 +627,10 @@ public class SearchFragment extends Fragment {
             Toast.makeText(requireContext(),
                     "Created \"" + collectionName + "\" and added song",
                     Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
         } else {
             Toast.makeText(requireContext(),
                     "Collection created",
                     Toast.LENGTH_SHORT).show();
-            broadcastCollectionChange(ACTION_COLLECTION_CREATED);
-        }
-    }
-
-    private void broadcastCollectionChange(String action) {
-        if (getContext() == null) {
-            return;
-        }
-
-        try {
-            Intent intent = new Intent(action);
-            intent.setPackage(requireContext().getPackageName());
-            requireContext().sendBroadcast(intent);
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
@@ -677,44 +690,84 @@ public class SearchFragment extends Fragment {
     }
 
     private void performSearch(String query) {
+        performSearch(query, SEARCH_PAGE_SIZE);
+    }
+
+    /**
+     * Rank the library against the query and show the best {@code limit} songs. Asking
+     * again for the same query with a larger limit pages further down the ranking.
+     */
+    private void performSearch(String query, int limit) {
+        int generation = searchGeneration.incrementAndGet();
+        if (searchTask != null) {
+            searchTask.cancel(false);
+        }
+
         if (query.isEmpty()) {
+            lastSearchQuery = null;
+            hasMoreResults = false;
+            isSearchInFlight = false;
+            showLoading(false);
             showInitialState();
             return;
         }
 
-        if (isSearching) return;
+        boolean isLoadingMore = query.equals(lastSearchQuery) && limit > searchLimit;
+        if (!isLoadingMore) {
+            showLoading(true);
+        }
+        isSearchInFlight = true;
 
-        isSearching = true;
-        showLoading(true);
+        List<MusicItem> previousResults = searchResults;
 
-        executorService.execute(() -> {
-            List<MusicItem> results = new ArrayList<>();
-            String lowerQuery = query.toLowerCase();
+        searchTask = executorService.submit(() -> {
+            if (generation != searchGeneration.get()) return;
 
-            for (MusicItem item : allMusicList) {
-                if (item.getTitle().toLowerCase().contains(lowerQuery) ||
-                        item.getArtist().toLowerCase().contains(lowerQuery) ||
-                        item.getAlbum().toLowerCase().contains(lowerQuery)) {
-                    results.add(item);
-                }
-            }
+            MediaLibraryRepository.RankedSongs ranked = libraryRepository.searchRanked(query, limit);
+            if (generation != searchGeneration.get()) return;
+
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                    new SearchDiffCallback(previousResults, ranked.songs));
 
             if (getActivity() != null) {
                 getActivity().runOnUiThread(() -> {
+                    if (generation != searchGeneration.get() || binding == null) return;
                     showLoading(false);
-                    isSearching = false;
-                    updateSearchResults(results, query);
+                    isSearchInFlight = false;
+                    lastSearchQuery = query;
+                    searchLimit = limit;
+                    hasMoreResults = ranked.hasMore();
+                    updateSearchResults(previousResults, ranked.songs, diff, query);
                 });
             }
         });
     }
 
-    private void updateSearchResults(List<MusicItem> results, String query) {
+    private void loadMoreResultsIfNeeded(RecyclerView recyclerView) {
+        if (!hasMoreResults || isSearchInFlight || lastSearchQuery == null) return;
+
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        if (layoutManager == null) return;
+
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible >= searchResults.size() - LOAD_MORE_THRESHOLD) {
+            performSearch(lastSearchQuery, searchLimit + SEARCH_PAGE_SIZE);
+        }
+    }
+
+    private void updateSearchResults(List<MusicItem> previousResults, List<MusicItem> results,
+                                     DiffUtil.DiffResult diff, String query) {
         if (binding == null) return;
 
-        searchResults.clear();
-        searchResults.addAll(results);
-        searchAdapter.notifyDataSetChanged();
+        // The diff is only valid against the list it was computed from
+        boolean canDispatchDiff = searchResults == previousResults;
+        searchResults = results;
+        searchAdapter.setMusicList(results);
+        if (canDispatchDiff) {
+            diff.dispatchUpdatesTo(searchAdapter);
+        } else {
+            searchAdapter.notifyDataSetChanged();
+        }
 
         updateUI(query);
     }
@@ -797,68 +850,11 @@ public class SearchFragment extends Fragment {
     }
 
     private void loadMusicFromDevice() {
-        executorService.execute(() -> {
-            List<MusicItem> tempMusicList = new ArrayList<>();
-
-            ContentResolver contentResolver = requireContext().getContentResolver();
-            Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-            String[] projection = {
-                    MediaStore.Audio.Media._ID,
-                    MediaStore.Audio.Media.TITLE,
-                    MediaStore.Audio.Media.ARTIST,
-                    MediaStore.Audio.Media.ALBUM,
-                    MediaStore.Audio.Media.DURATION,
-                    MediaStore.Audio.Media.DATA,
-                    MediaStore.Audio.Media.ALBUM_ID
-            };
-
-            String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-            String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
-
-            try (Cursor cursor = contentResolver.query(musicUri, projection, selection, null, sortOrder)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                    int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
-                    int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                    int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                    int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-                    int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
-                    int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-
-                    do {
-                        long id = cursor.getLong(idColumn);
-                        String title = cursor.getString(titleColumn);
-                        String artist = cursor.getString(artistColumn);
-                        String album = cursor.getString(albumColumn);
-                        long duration = cursor.getLong(durationColumn);
-                        String path = cursor.getString(pathColumn);
-                        long albumId = cursor.getLong(albumIdColumn);
-
-                        Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
-
-                        MusicItem musicItem = new MusicItem(id, title, artist, album, duration, path, albumArtUri);
-                        tempMusicList.add(musicItem);
-
-                    } while (cursor.moveToNext());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(() -> {
-                        Toast.makeText(getContext(), "Error loading music files", Toast.LENGTH_SHORT).show();
-                    });
-                }
-                return;
-            }
+        if (libraryRepository.isLoaded()) {
+            return;
+        }
 
-            if (getActivity() != null) {
-                getActivity().runOnUiThread(() -> {
-                    allMusicList.clear();
-                    allMusicList.addAll(tempMusicList);
-                });
-            }
-        });
+        libraryRepository.load();
     }
 
     private void startMusicServiceAndOpenNowPlaying(MusicItem musicItem) {
@@ -880,7 +876,7 @@ public class SearchFragment extends Fragment {
 
         int selectedIndex = -1;
         for (int i = 0; i < searchResults.size(); i++) {
-            if (searchResults.get(i).getId() == selectedSong.getId()) {
+            if (SearchDiffCallback.idAt(searchResults, i) == selectedSong.getId()) {
                 selectedIndex = i;
                 break;
             }
@@ -1122,6 +1118,9 @@ public class SearchFragment extends Fragment {
             }
         }
 
+        if (libraryRepository != null) {
+            libraryRepository.removeListener(libraryListener);
+        }
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
         }
@@ -1143,4 +1142,47 @@ public class SearchFragment extends Fragment {
 
         binding = null;
     }
-}
\ No newline at end of file
+
+    private static final class SearchDiffCallback extends DiffUtil.Callback {
+        private final List<MusicItem> oldList;
+        private final List<MusicItem> newList;
+
+        SearchDiffCallback(List<MusicItem> oldList, List<MusicItem> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return idAt(oldList, oldPosition) == idAt(newList, newPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            if (oldList instanceof TrackList && newList instanceof TrackList) {
+                TrackList oldTracks = (TrackList) oldList;
+                TrackList newTracks = (TrackList) newList;
+                return Objects.equals(oldTracks.getTitle(oldPosition), newTracks.getTitle(newPosition)) &&
+                        Objects.equals(oldTracks.getArtist(oldPosition), newTracks.getArtist(newPosition)) &&
+                        Objects.equals(oldTracks.getAlbumArtUri(oldPosition), newTracks.getAlbumArtUri(newPosition));
+            }
+            return false;
+        }
+
+        private static long idAt(List<MusicItem> list, int position) {
+            return list instanceof TrackList
+                    ? ((TrackList) list).getId(position)
+                    : list.get(position).getId();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
@@ -13,7 +14,10 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.felle.fusic.R;
 import com.felle.fusic.databinding.FragmentSettingsBinding;
+import com.felle.fusic.service.PlaybackPreferences;
 import com.google.android.material.bottomsheet.BottomSheetDialog;
+import com.google.android.material.materialswitch.MaterialSwitch;
+import com.google.android.material.slider.Slider;
 
 public class SettingsFragment extends Fragment {
     private FragmentSettingsBinding binding;
@@ -32,6 +36,7 @@ public class SettingsFragment extends Fragment {
 
     private void setupCardListeners() {
         binding.scanFoldersCard.setOnClickListener(v -> showScanFoldersBottomSheet());
+        binding.playbackCard.setOnClickListener(v -> showPlaybackBottomSheet());
         binding.feedbackCard.setOnClickListener(v -> openEmailFeedback());
         binding.aboutCard.setOnClickListener(v -> showAboutBottomSheet());
         binding.privacyCard.setOnClickListener(v -> showPrivacyBottomSheet());
@@ -59,6 +64,36 @@ public class SettingsFragment extends Fragment {
         bottomSheet.show();
     }
 
+    private void showPlaybackBottomSheet() {
+        BottomSheetDialog bottomSheet = new BottomSheetDialog(requireContext());
+        View sheetView = getLayoutInflater().inflate(R.layout.bottom_sheet_playback, null);
+
+        MaterialSwitch gaplessSwitch = sheetView.findViewById(R.id.gapless_switch);
+        Slider crossfadeSlider = sheetView.findViewById(R.id.crossfade_slider);
+        TextView crossfadeValue = sheetView.findViewById(R.id.crossfade_value);
+
+        gaplessSwitch.setChecked(PlaybackPreferences.isGaplessEnabled(requireContext()));
+        gaplessSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                PlaybackPreferences.setGaplessEnabled(requireContext(), isChecked));
+
+        int crossfadeSeconds = PlaybackPreferences.getCrossfadeSeconds(requireContext());
+        crossfadeSlider.setValue(crossfadeSeconds);
+        crossfadeValue.setText(formatCrossfade(crossfadeSeconds));
+        crossfadeSlider.addOnChangeListener((slider, value, fromUser) -> {
+            crossfadeValue.setText(formatCrossfade((int) value));
+            if (fromUser) {
+                PlaybackPreferences.setCrossfadeSeconds(requireContext(), (int) value);
+            }
+        });
+
+        bottomSheet.setContentView(sheetView);
+        bottomSheet.show();
+    }
+
+    private static String formatCrossfade(int seconds) {
+        return seconds == 0 ? "Off" : seconds + " s between songs";
+    }
+
     private void openEmailFeedback() {
         Intent emailIntent = new Intent(Intent.ACTION_SENDTO);
         emailIntent.setData(Uri.parse("mailto:"));
@@ -0,0 +1,144 @@
+package com.felle.fusic.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to int values without boxing.
+ * Lookups of absent keys return {@link #NO_VALUE}.
+ */
+public final class LongIntHashMap {
+
+    public static final int NO_VALUE = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR) + 1) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /** Independent copy of another map */
+    public LongIntHashMap(LongIntHashMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        used = other.used.clone();
+        size = other.size;
+        mask = other.mask;
+        resizeThreshold = other.resizeThreshold;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public int get(long key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : NO_VALUE;
+    }
+
+    public void put(long key, int value) {
+        int index = slot(key);
+        while (used[index]) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    public int remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return NO_VALUE;
+        }
+
+        int previous = values[index];
+        used[index] = false;
+        size--;
+
+        // Shift the rest of the probe chain back so later lookups do not stop early
+        int next = (index + 1) & mask;
+        while (used[next]) {
+            int ideal = slot(keys[next]);
+            if (((next - ideal) & mask) >= ((next - index) & mask)) {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                used[index] = true;
+                used[next] = false;
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int indexOf(long key) {
+        int index = slot(key);
+        while (used[index]) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
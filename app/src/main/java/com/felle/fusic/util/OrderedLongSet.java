@@ -0,0 +1,145 @@
+package com.felle.fusic.util;
+
+import java.util.Arrays;
+
+/**
+ * Insertion-ordered set of long values without boxing. Values sit in order in a long
+ * array and a {@link LongIntHashMap} maps each one to its slot, so add, remove and
+ * contains are constant time. A removal only drops the value from the map; the hole it
+ * leaves is squeezed out the next time the order is read.
+ */
+public final class OrderedLongSet {
+
+    private long[] values;
+    // Slots in use including holes; a slot is live when the map still points at it
+    private int end;
+    private final LongIntHashMap slots;
+
+    public OrderedLongSet() {
+        this(16);
+    }
+
+    public OrderedLongSet(int expectedSize) {
+        values = new long[Math.max(4, expectedSize)];
+        slots = new LongIntHashMap(expectedSize);
+    }
+
+    /** Set holding the values in order, with later duplicates dropped */
+    public OrderedLongSet(long[] initial) {
+        this(initial.length);
+        for (long value : initial) {
+            add(value);
+        }
+    }
+
+    /** Independent copy of another set, without rehashing */
+    public OrderedLongSet(OrderedLongSet other) {
+        values = Arrays.copyOf(other.values, Math.max(4, other.end));
+        end = other.end;
+        slots = new LongIntHashMap(other.slots);
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    public boolean contains(long value) {
+        return slots.containsKey(value);
+    }
+
+    /** Append the value unless it is already present */
+    public boolean add(long value) {
+        if (slots.containsKey(value)) {
+            return false;
+        }
+        if (end == values.length) {
+            // A slot array mostly made of holes is compacted instead of grown
+            if (end - slots.size() > end / 2) {
+                compact();
+            } else {
+                values = Arrays.copyOf(values, values.length << 1);
+            }
+        }
+        values[end] = value;
+        slots.put(value, end++);
+        return true;
+    }
+
+    public boolean remove(long value) {
+        return slots.remove(value) != LongIntHashMap.NO_VALUE;
+    }
+
+    public void clear() {
+        slots.clear();
+        end = 0;
+    }
+
+    /** The value at the given position in insertion order */
+    public long get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        compact();
+        return values[index];
+    }
+
+    /** Position of the value in insertion order, or -1 if absent */
+    public int indexOf(long value) {
+        if (!slots.containsKey(value)) {
+            return -1;
+        }
+        compact();
+        return slots.get(value);
+    }
+
+    /**
+     * Move the value at one position to another, shifting the values in between.
+     * Costs time proportional to the distance moved.
+     */
+    public void move(int from, int to) {
+        int size = size();
+        if (from < 0 || from >= size || to < 0 || to >= size) {
+            throw new IndexOutOfBoundsException("Move " + from + " -> " + to + ", Size: " + size);
+        }
+        if (from == to) return;
+
+        compact();
+        long moved = values[from];
+        if (from < to) {
+            System.arraycopy(values, from + 1, values, from, to - from);
+        } else {
+            System.arraycopy(values, to, values, to + 1, from - to);
+        }
+        values[to] = moved;
+
+        for (int slot = Math.min(from, to); slot <= Math.max(from, to); slot++) {
+            slots.put(values[slot], slot);
+        }
+    }
+
+    /** The values in insertion order, as a new array */
+    public long[] toArray() {
+        compact();
+        return Arrays.copyOf(values, end);
+    }
+
+    private void compact() {
+        if (end == slots.size()) return;
+
+        int write = 0;
+        for (int read = 0; read < end; read++) {
+            long value = values[read];
+            // A value removed and added again is live only at its newer slot
+            if (slots.get(value) == read) {
+                values[write] = value;
+                slots.put(value, write);
+                write++;
+            }
+        }
+        end = write;
+    }
+}
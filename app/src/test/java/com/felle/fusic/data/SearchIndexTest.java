@@ -0,0 +1,207 @@
+package com.felle.fusic.data;
+
+import com.felle.fusic.util.LongIntHashMap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+
+    @Test
+    public void foldStripsDiacriticsAndCase() {
+        assertEquals("beyonce", SearchIndex.fold("Beyoncé"));
+        assertEquals("sigur ros", SearchIndex.fold("Sigur Rós"));
+    }
+
+    @Test
+    public void foldMapsCompatibilityForms() {
+        assertEquals("abc 123", SearchIndex.fold("ＡＢＣ １２３"));
+        assertEquals("fine", SearchIndex.fold("ﬁne"));
+    }
+
+    @Test
+    public void foldCollapsesPunctuationAndSpaces() {
+        assertEquals("ac dc live", SearchIndex.fold("  AC/DC -- Live!! "));
+        assertEquals("", SearchIndex.fold("?!"));
+        assertEquals("", SearchIndex.fold(null));
+    }
+
+    @Test
+    public void searchFindsEveryFieldAndConfirmsTheWholeQuery() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Yellow", "Coldplay", "Parachutes"));
+        index.put(2, SearchIndex.searchKey("Clocks", "Coldplay", "A Rush of Blood"));
+        index.put(3, SearchIndex.searchKey("Blood Bank", "Bon Iver", "Blood Bank"));
+
+        assertEquals(ids(1, 2), search(index, "coldplay"));
+        assertEquals(ids(2, 3), search(index, "blood"));
+        assertEquals(ids(1), search(index, "yellow"));
+        // Every trigram occurs, but not in this order
+        assertEquals(ids(), search(index, "lowyel"));
+    }
+
+    @Test
+    public void searchDoesNotMatchAcrossFields() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("ab", "cd", "ef"));
+        assertEquals(ids(), search(index, "bcd"));
+    }
+
+    @Test
+    public void shortQueriesScanTheKeys() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Back in Black", "AC/DC", "Back in Black"));
+        index.put(2, SearchIndex.searchKey("Yellow", "Coldplay", "Parachutes"));
+
+        assertEquals(ids(1), search(index, "dc"));
+        assertEquals(ids(1, 2), search(index, "l"));
+        assertEquals(ids(), search(index, ""));
+    }
+
+    @Test
+    public void putReplacesAndRemoveForgets() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Old Title", "Artist", "Album"));
+        index.put(1, SearchIndex.searchKey("New Title", "Artist", "Album"));
+        assertEquals(1, index.size());
+        assertEquals(ids(), search(index, "old"));
+        assertEquals(ids(1), search(index, "new"));
+
+        index.remove(1);
+        assertEquals(0, index.size());
+        assertEquals(ids(), search(index, "new"));
+        assertEquals(ids(), search(index, "ne"));
+
+        // The freed slot is reused without leaking the old postings
+        index.put(2, SearchIndex.searchKey("Other", "Artist", "Album"));
+        assertEquals(ids(2), search(index, "artist"));
+    }
+
+    @Test
+    public void searchMatchesAScanAfterRandomPutsAndRemoves() {
+        String[] words = {"love", "glove", "lover", "over", "clover", "dove", "vole"};
+        Random random = new Random(3);
+        SearchIndex index = new SearchIndex();
+        Map<Long, String> keys = new HashMap<>();
+        for (int step = 0; step < 2000; step++) {
+            long id = random.nextInt(40);
+            if (random.nextInt(3) == 0) {
+                index.remove(id);
+                keys.remove(id);
+            } else {
+                String key = SearchIndex.searchKey(words[random.nextInt(words.length)],
+                        words[random.nextInt(words.length)], words[random.nextInt(words.length)]);
+                index.put(id, key);
+                keys.put(id, key);
+            }
+
+            String query = words[random.nextInt(words.length)].substring(random.nextInt(2));
+            List<Long> expected = new ArrayList<>();
+            for (Map.Entry<Long, String> entry : keys.entrySet()) {
+                if (entry.getValue().contains(query)) expected.add(entry.getKey());
+            }
+            expected.sort(null);
+            assertEquals(query, expected, search(index, query));
+        }
+    }
+
+        @Test
+    public void clearEmptiesTheIndex() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Yellow", "Coldplay", "Parachutes"));
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(ids(), search(index, "yellow"));
+        assertEquals(ids(), search(index, "ye"));
+    }
+
+    @Test
+    public void rankOrdersByMatchKindTimesFieldWeight() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Love", "X", "Y"));           // whole title, 21
+        index.put(2, SearchIndex.searchKey("Love Song", "X", "Y"));      // title prefix, 18
+        index.put(3, SearchIndex.searchKey("Z", "Love", "Y"));           // whole artist, 14
+        index.put(4, SearchIndex.searchKey("My Love", "X", "Y"));        // title word, 15
+        index.put(5, SearchIndex.searchKey("Z", "X", "Glove"));          // album infix, 3
+        index.put(6, SearchIndex.searchKey("Hate", "X", "Y"));
+
+        // Rows run against the expected rank so row order alone cannot pass
+        LongIntHashMap rows = rows(1, 50, 2, 40, 3, 30, 4, 20, 5, 10, 6, 0);
+        SearchIndex.Ranked ranked = index.rank("love", 10, rows);
+
+        assertArrayEquals(new int[]{50, 40, 20, 30, 10}, ranked.rows);
+        assertEquals(5, ranked.totalMatches);
+    }
+
+    @Test
+    public void rankBreaksTiesByRowAndKeepsOnlyTheLimit() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Love", "X", "Y"));
+        index.put(2, SearchIndex.searchKey("Love", "X", "Y"));
+        index.put(3, SearchIndex.searchKey("Love", "X", "Y"));
+
+        SearchIndex.Ranked ranked = index.rank("love", 2, rows(1, 7, 2, 3, 3, 5));
+        assertArrayEquals(new int[]{3, 5}, ranked.rows);
+        assertEquals(3, ranked.totalMatches);
+    }
+
+    @Test
+    public void rankAdmitsSmallTyposInLongerQueries() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Help", "The Beatles", "Help"));
+        index.put(2, SearchIndex.searchKey("Beach", "Someone", "Sand"));
+
+        SearchIndex.Ranked ranked = index.rank("beatls", 10, rows(1, 0, 2, 1));
+        assertArrayEquals(new int[]{0}, ranked.rows);
+        assertEquals(1, ranked.totalMatches);
+    }
+
+    @Test
+    public void rankIsExactForShortQueries() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Cat", "X", "Y"));
+        index.put(2, SearchIndex.searchKey("Car", "X", "Y"));
+
+        assertArrayEquals(new int[]{0}, index.rank("cat", 10, rows(1, 0, 2, 1)).rows);
+    }
+
+    @Test
+    public void rankSkipsSongsMissingFromTheRows() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, SearchIndex.searchKey("Love", "X", "Y"));
+        index.put(2, SearchIndex.searchKey("Love", "X", "Y"));
+
+        SearchIndex.Ranked ranked = index.rank("love", 10, rows(2, 4));
+        assertArrayEquals(new int[]{4}, ranked.rows);
+        assertEquals(1, ranked.totalMatches);
+    }
+
+    private static List<Long> search(SearchIndex index, String query) {
+        List<Long> found = new ArrayList<>();
+        index.search(query, found::add);
+        found.sort(null);
+        return found;
+    }
+
+    private static List<Long> ids(long... ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) list.add(id);
+        return list;
+    }
+
+    /** Alternating id, row pairs */
+    private static LongIntHashMap rows(int... idRowPairs) {
+        LongIntHashMap rows = new LongIntHashMap();
+        for (int i = 0; i < idRowPairs.length; i += 2) {
+            rows.put(idRowPairs[i], idRowPairs[i + 1]);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,265 @@
+package com.felle.fusic.service;
+
+import com.felle.fusic.ui.music.MusicItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PlayQueueTest {
+
+    // MusicItem compares by identity, so each id maps to one instance
+    private static final Map<Long, MusicItem> SONGS = new HashMap<>();
+
+    @Test
+    public void startsInTheGivenOrderWithNoCurrentSong() {
+        PlayQueue queue = queueOf(5);
+        assertEquals(songs(0, 1, 2, 3, 4), queue.toList());
+        assertEquals(-1, queue.getCurrentIndex());
+        assertFalse(queue.isShuffled());
+        assertEquals(3, queue.indexOf(3));
+        assertEquals(-1, queue.indexOf(99));
+    }
+
+    @Test
+    public void setCurrentIndexOutOfRangeClearsIt() {
+        PlayQueue queue = queueOf(3);
+        queue.setCurrentIndex(1);
+        assertEquals(1, queue.getCurrentIndex());
+        queue.setCurrentIndex(3);
+        assertEquals(-1, queue.getCurrentIndex());
+    }
+
+    @Test
+    public void shuffleMovesTheCurrentSongToTheFront() {
+        PlayQueue queue = queueOf(50);
+        queue.setCurrentIndex(17);
+        queue.shuffle(new Random(3));
+
+        assertTrue(queue.isShuffled());
+        assertEquals(0, queue.getCurrentIndex());
+        assertEquals(17, queue.get(0).getId());
+        assertEquals(new HashSet<>(songs(range(50))), new HashSet<>(queue.toList()));
+        assertPositionsConsistent(queue);
+    }
+
+    @Test
+    public void unshuffleRestoresTheOrderAndKeepsTheCurrentSong() {
+        PlayQueue queue = queueOf(20);
+        queue.setCurrentIndex(4);
+        queue.shuffle(new Random(5));
+        queue.setCurrentIndex(9);
+        long current = queue.get(9).getId();
+
+        queue.unshuffle();
+        assertFalse(queue.isShuffled());
+        assertEquals(songs(range(20)), queue.toList());
+        assertEquals(current, queue.getCurrentIndex());
+    }
+
+    @Test
+    public void moveShiftsTheSongsInBetweenAndFollowsTheCurrentSong() {
+        PlayQueue queue = queueOf(5);
+        queue.setCurrentIndex(2);
+
+        queue.move(0, 3);
+        assertEquals(songs(1, 2, 3, 0, 4), queue.toList());
+        assertEquals(1, queue.getCurrentIndex());
+
+        queue.move(4, 0);
+        assertEquals(songs(4, 1, 2, 3, 0), queue.toList());
+        assertEquals(2, queue.getCurrentIndex());
+        assertPositionsConsistent(queue);
+    }
+
+    @Test
+    public void moveWhileShuffledLeavesTheOriginalOrder() {
+        PlayQueue queue = queueOf(10);
+        queue.shuffle(new Random(1));
+        queue.move(0, 9);
+        assertPositionsConsistent(queue);
+
+        queue.unshuffle();
+        assertEquals(songs(range(10)), queue.toList());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void moveRejectsPositionsOutOfRange() {
+        queueOf(3).move(0, 3);
+    }
+
+    @Test
+    public void removeTakesTheSongOutOfBothOrders() {
+        PlayQueue queue = queueOf(6);
+        queue.setCurrentIndex(5);
+        queue.shuffle(new Random(2));
+
+        MusicItem removed = queue.remove(3);
+        assertEquals(5, queue.size());
+        assertEquals(-1, queue.indexOf(removed.getId()));
+        assertEquals(0, queue.getCurrentIndex());
+        assertPositionsConsistent(queue);
+
+        queue.unshuffle();
+        List<MusicItem> expected = songs(range(6));
+        expected.remove(removed);
+        assertEquals(expected, queue.toList());
+        assertEquals(5, queue.get(queue.getCurrentIndex()).getId());
+    }
+
+    @Test
+    public void removingTheCurrentSongClearsIt() {
+        PlayQueue queue = queueOf(3);
+        queue.setCurrentIndex(1);
+        assertEquals(1, queue.remove(1).getId());
+        assertEquals(-1, queue.getCurrentIndex());
+        assertEquals(songs(0, 2), queue.toList());
+    }
+
+    @Test
+    public void appendAddsToTheEndOfBothOrders() {
+        PlayQueue queue = queueOf(4);
+        queue.shuffle(new Random(4));
+        assertEquals(4, queue.append(song(10)));
+        assertEquals(10, queue.get(4).getId());
+        assertEquals(4, queue.indexOf(10));
+
+        queue.unshuffle();
+        assertEquals(songs(0, 1, 2, 3, 10), queue.toList());
+    }
+
+    @Test
+    public void appendGrowsAnEmptyQueue() {
+        PlayQueue queue = new PlayQueue();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, queue.append(song(i)));
+        }
+        assertEquals(songs(range(100)), queue.toList());
+        assertPositionsConsistent(queue);
+    }
+
+    @Test
+    public void repeatedSongsAreFoundAtTheirFirstPosition() {
+        PlayQueue queue = new PlayQueue();
+        queue.setSongs(songs(1, 2, 1));
+        assertEquals(0, queue.indexOf(1));
+    }
+
+    @Test
+    public void snapshotIsUnaffectedByLaterChanges() {
+        PlayQueue queue = queueOf(6);
+        queue.setCurrentIndex(2);
+        PlayQueue.Snapshot unshuffled = queue.snapshot();
+
+        queue.move(0, 5);
+        queue.remove(0);
+        queue.append(song(7));
+        queue.shuffle(new Random(6));
+        PlayQueue.Snapshot shuffled = queue.snapshot();
+        List<MusicItem> shuffledList = queue.toList();
+        queue.move(1, 4);
+        queue.remove(0);
+
+        assertEquals(6, unshuffled.size());
+        assertEquals(2, unshuffled.getCurrentIndex());
+        assertEquals(songs(range(6)), unshuffled.toList(0));
+        assertEquals(songs(3, 4, 5), unshuffled.toList(3));
+        assertEquals(shuffledList, shuffled.toList(0));
+        assertEquals(0, shuffled.getCurrentIndex());
+    }
+
+    @Test
+    public void matchesAListModelUnderRandomOperations() {
+        Random random = new Random(11);
+        for (int round = 0; round < 200; round++) {
+            int count = random.nextInt(20);
+            List<MusicItem> original = songs(range(count));
+            List<MusicItem> playing = new ArrayList<>(original);
+            PlayQueue queue = new PlayQueue();
+            queue.setSongs(original);
+            MusicItem current = null;
+            long nextId = 1000;
+
+            for (int step = 0; step < 50; step++) {
+                switch (random.nextInt(6)) {
+                    case 0:
+                        queue.shuffle(random);
+                        playing = queue.toList();
+                        if (current != null) assertSame(current, playing.get(0));
+                        break;
+                    case 1:
+                        queue.unshuffle();
+                        playing = new ArrayList<>(original);
+                        break;
+                    case 2:
+                        if (playing.size() < 2) break;
+                        int from = random.nextInt(playing.size());
+                        int to = random.nextInt(playing.size());
+                        queue.move(from, to);
+                        playing.add(to, playing.remove(from));
+                        if (!queue.isShuffled()) original = new ArrayList<>(playing);
+                        break;
+                    case 3:
+                        if (playing.isEmpty()) break;
+                        MusicItem removed = queue.remove(random.nextInt(playing.size()));
+                        playing.remove(removed);
+                        original.remove(removed);
+                        if (removed == current) current = null;
+                        break;
+                    case 4:
+                        MusicItem added = song(nextId++);
+                        assertEquals(playing.size(), queue.append(added));
+                        playing.add(added);
+                        original.add(added);
+                        break;
+                    default:
+                        if (playing.isEmpty()) break;
+                        int position = random.nextInt(playing.size());
+                        queue.setCurrentIndex(position);
+                        current = playing.get(position);
+                        break;
+                }
+
+                assertEquals(playing, queue.toList());
+                assertEquals(current == null ? -1 : playing.indexOf(current), queue.getCurrentIndex());
+                assertPositionsConsistent(queue);
+            }
+        }
+    }
+
+    private static void assertPositionsConsistent(PlayQueue queue) {
+        for (int position = 0; position < queue.size(); position++) {
+            assertEquals(position, queue.indexOf(queue.get(position).getId()));
+        }
+    }
+
+    private static PlayQueue queueOf(int count) {
+        PlayQueue queue = new PlayQueue();
+        queue.setSongs(songs(range(count)));
+        return queue;
+    }
+
+    private static long[] range(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) ids[i] = i;
+        return ids;
+    }
+
+    private static List<MusicItem> songs(long... ids) {
+        List<MusicItem> songs = new ArrayList<>();
+        for (long id : ids) songs.add(song(id));
+        return songs;
+    }
+
+    private static MusicItem song(long id) {
+        return SONGS.computeIfAbsent(id, key ->
+                new MusicItem(key, "Song " + key, "Artist", "Album", 1000, "/music/" + key + ".mp3", 1));
+    }
+}
@@ -0,0 +1,141 @@
+package com.felle.fusic.ui.collection;
+
+import com.felle.fusic.ui.music.MusicItem;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class M3uPlaylistTest {
+
+    @Test
+    public void readResolvesPathsAndSkipsCommentsAndBlanks() throws IOException {
+        Map<String, Long> library = library("/music/a.mp3", 1, "/music/b.mp3", 2);
+        M3uPlaylist.ImportResult result = read(library,
+                "#EXTM3U\n#EXTINF:120,Artist - A\n/music/a.mp3\n\n   \n#EXTINF:90,B\n  /music/b.mp3  \n");
+
+        assertArrayEquals(new long[]{1, 2}, result.musicIds);
+        assertEquals(0, result.unresolvedCount);
+        assertTrue(result.unresolvedSamples.isEmpty());
+    }
+
+    @Test
+    public void readStripsTheByteOrderMark() throws IOException {
+        Map<String, Long> library = library("/music/a.mp3", 1);
+        assertArrayEquals(new long[]{1}, read(library, "\uFEFF/music/a.mp3\n").musicIds);
+        assertArrayEquals(new long[]{1}, read(library, "\uFEFF#EXTM3U\r\n/music/a.mp3\r\n").musicIds);
+    }
+
+    @Test
+    public void readNormalisesBackslashes() throws IOException {
+        Map<String, Long> library = library("/music/sub/a.mp3", 1);
+        assertArrayEquals(new long[]{1}, read(library, "\\music\\sub\\a.mp3\n").musicIds);
+    }
+
+    @Test
+    public void readDecodesFileUris() throws IOException {
+        Map<String, Long> library = library("/music/My Song.mp3", 1, "/music/Café.mp3", 2,
+                "/music/b.mp3", 3);
+        M3uPlaylist.ImportResult result = read(library,
+                "file:///music/My%20Song.mp3\nfile:///music/Caf%C3%A9.mp3\nfile://localhost/music/b.mp3\n");
+        assertArrayEquals(new long[]{1, 2, 3}, result.musicIds);
+    }
+
+    @Test
+    public void readTakesUnescapedFileUrisAsWritten() throws IOException {
+        Map<String, Long> library = library("/music/My Song.mp3", 1);
+        assertArrayEquals(new long[]{1}, read(library, "file:///music/My Song.mp3\n").musicIds);
+    }
+
+    @Test
+    public void readKeepsTheFirstPositionOfRepeatedSongs() throws IOException {
+        Map<String, Long> library = library("/a.mp3", 1, "/b.mp3", 2);
+        assertArrayEquals(new long[]{1, 2}, read(library, "/a.mp3\n/b.mp3\n/a.mp3\n").musicIds);
+    }
+
+    @Test
+    public void readCountsEveryUnresolvedEntryButKeepsFewSamples() throws IOException {
+        StringBuilder playlist = new StringBuilder("/known.mp3\n");
+        for (int i = 0; i < 30; i++) {
+            playlist.append("/missing/").append(i).append(".mp3\n");
+        }
+        M3uPlaylist.ImportResult result = read(library("/known.mp3", 5), playlist.toString());
+
+        assertArrayEquals(new long[]{5}, result.musicIds);
+        assertEquals(30, result.unresolvedCount);
+        assertEquals(20, result.unresolvedSamples.size());
+        assertEquals("/missing/0.mp3", result.unresolvedSamples.get(0));
+    }
+
+    @Test
+    public void writeProducesExtendedM3u() throws IOException {
+        Map<Long, MusicItem> songs = new HashMap<>();
+        songs.put(1L, new MusicItem(1, "Yellow", "Coldplay", "Parachutes", 266_500, "/music/yellow.mp3", 10));
+        songs.put(2L, new MusicItem(2, "Untitled", null, null, 1_000, "/music/untitled.mp3", 11));
+        songs.put(3L, new MusicItem(3, "No Path", "X", "Y", 1_000, null, 12));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int written = M3uPlaylist.write(output, new long[]{1, 4, 3, 2}, songs::get);
+
+        assertEquals(2, written);
+        assertEquals("#EXTM3U\n" +
+                        "#EXTINF:266,Coldplay - Yellow\n/music/yellow.mp3\n" +
+                        "#EXTINF:1,Untitled\n/music/untitled.mp3\n",
+                new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writtenPlaylistReadsBack() throws IOException {
+        Map<Long, MusicItem> songs = new HashMap<>();
+        songs.put(1L, new MusicItem(1, "Café", "Sigur Rós", "Ágætis byrjun", 5_000, "/music/Café.mp3", 10));
+        songs.put(2L, new MusicItem(2, "B", "A", "C", 5_000, "/music/b.mp3", 11));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        M3uPlaylist.write(output, new long[]{2, 1}, songs::get);
+
+        Map<String, Long> library = library("/music/Café.mp3", 1, "/music/b.mp3", 2);
+        M3uPlaylist.ImportResult result = M3uPlaylist.read(
+                new ByteArrayInputStream(output.toByteArray()), path -> lookup(library, path));
+        assertArrayEquals(new long[]{2, 1}, result.musicIds);
+    }
+
+    private static M3uPlaylist.ImportResult read(Map<String, Long> library, String playlist)
+            throws IOException {
+        List<String> lookedUp = new ArrayList<>();
+        M3uPlaylist.ImportResult result = M3uPlaylist.read(
+                new ByteArrayInputStream(playlist.getBytes(StandardCharsets.UTF_8)),
+                path -> {
+                    lookedUp.add(path);
+                    return lookup(library, path);
+                });
+        // Only entries reach the library, never comments or blank lines
+        for (String path : lookedUp) {
+            assertFalse(path, path.isEmpty() || path.startsWith("#"));
+        }
+        return result;
+    }
+
+    private static long lookup(Map<String, Long> library, String path) {
+        Long id = library.get(path);
+        return id != null ? id : -1;
+    }
+
+    /** Alternating path, id pairs */
+    private static Map<String, Long> library(Object... pathIdPairs) {
+        Map<String, Long> library = new HashMap<>();
+        for (int i = 0; i < pathIdPairs.length; i += 2) {
+            library.put((String) pathIdPairs[i], ((Number) pathIdPairs[i + 1]).longValue());
+        }
+        assertEquals(pathIdPairs.length / 2, library.size());
+        return library;
+    }
+}
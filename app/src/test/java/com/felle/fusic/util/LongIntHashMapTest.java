@@ -0,0 +1,118 @@
+package com.felle.fusic.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void getReturnsNoValueForAbsentKeys() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(42));
+        assertFalse(map.containsKey(42));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void putReplacesTheValueOfAnExistingKey() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(7, 1);
+        map.put(7, 2);
+        assertEquals(2, map.get(7));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 31L, i);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, map.get(i * 31L));
+        }
+    }
+
+    @Test
+    public void removeReturnsThePreviousValue() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(5, 50);
+        assertEquals(50, map.remove(5));
+        assertEquals(LongIntHashMap.NO_VALUE, map.remove(5));
+        assertFalse(map.containsKey(5));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void removeKeepsTheRestOfAProbeChainReachable() {
+        // A small table fills up with collisions, so removals have to backshift
+        LongIntHashMap map = new LongIntHashMap(8);
+        for (long key = 0; key < 8; key++) {
+            map.put(key, (int) key);
+        }
+        for (long key = 0; key < 8; key += 2) {
+            map.remove(key);
+        }
+        for (long key = 0; key < 8; key++) {
+            if (key % 2 == 0) {
+                assertFalse(map.containsKey(key));
+            } else {
+                assertEquals((int) key, map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomPutsAndRemoves() {
+        Random random = new Random(1);
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            // A narrow key range keeps probe chains long and removals frequent
+            long key = random.nextInt(512);
+            if (random.nextInt(3) == 0) {
+                Integer previous = expected.remove(key);
+                assertEquals(previous != null ? previous : LongIntHashMap.NO_VALUE, map.remove(key));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 512; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value != null ? value : LongIntHashMap.NO_VALUE, map.get(key));
+        }
+    }
+
+    @Test
+    public void copyIsIndependentOfTheOriginal() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(1, 10);
+        LongIntHashMap copy = new LongIntHashMap(map);
+        copy.put(2, 20);
+        copy.remove(1);
+
+        assertEquals(10, map.get(1));
+        assertFalse(map.containsKey(2));
+        assertEquals(20, copy.get(2));
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(1, 1);
+        map.put(2, 2);
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(1));
+        map.put(1, 3);
+        assertEquals(3, map.get(1));
+    }
+}
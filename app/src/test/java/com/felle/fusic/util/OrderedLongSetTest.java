@@ -0,0 +1,117 @@
+package com.felle.fusic.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OrderedLongSetTest {
+
+    @Test
+    public void keepsInsertionOrderAndDropsDuplicates() {
+        OrderedLongSet set = new OrderedLongSet(new long[]{3, 1, 3, 2, 1});
+        assertArrayEquals(new long[]{3, 1, 2}, set.toArray());
+        assertEquals(3, set.size());
+        assertFalse(set.add(1));
+        assertTrue(set.add(4));
+        assertArrayEquals(new long[]{3, 1, 2, 4}, set.toArray());
+    }
+
+    @Test
+    public void removeClosesTheGapInPositions() {
+        OrderedLongSet set = new OrderedLongSet(new long[]{10, 20, 30, 40});
+        assertTrue(set.remove(20));
+        assertFalse(set.remove(20));
+
+        assertEquals(3, set.size());
+        assertEquals(30, set.get(1));
+        assertEquals(2, set.indexOf(40));
+        assertEquals(-1, set.indexOf(20));
+        assertFalse(set.contains(20));
+    }
+
+    @Test
+    public void readdedValueMovesToTheEnd() {
+        OrderedLongSet set = new OrderedLongSet(new long[]{1, 2, 3});
+        set.remove(1);
+        set.add(1);
+        assertArrayEquals(new long[]{2, 3, 1}, set.toArray());
+        assertEquals(2, set.indexOf(1));
+    }
+
+    @Test
+    public void moveShiftsTheValuesInBetween() {
+        OrderedLongSet set = new OrderedLongSet(new long[]{1, 2, 3, 4, 5});
+        set.move(0, 3);
+        assertArrayEquals(new long[]{2, 3, 4, 1, 5}, set.toArray());
+        set.move(4, 1);
+        assertArrayEquals(new long[]{2, 5, 3, 4, 1}, set.toArray());
+        for (int i = 0; i < set.size(); i++) {
+            assertEquals(i, set.indexOf(set.get(i)));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void moveRejectsPositionsOutOfRange() {
+        new OrderedLongSet(new long[]{1, 2}).move(0, 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getRejectsPositionsPastTheEnd() {
+        OrderedLongSet set = new OrderedLongSet(new long[]{1, 2});
+        set.remove(2);
+        set.get(1);
+    }
+
+    @Test
+    public void copyIsIndependentOfTheOriginal() {
+        OrderedLongSet set = new OrderedLongSet(new long[]{1, 2, 3});
+        set.remove(2);
+        OrderedLongSet copy = new OrderedLongSet(set);
+        copy.add(4);
+        copy.remove(1);
+
+        assertArrayEquals(new long[]{1, 3}, set.toArray());
+        assertArrayEquals(new long[]{3, 4}, copy.toArray());
+    }
+
+    @Test
+    public void matchesAListUnderRandomOperations() {
+        Random random = new Random(7);
+        OrderedLongSet set = new OrderedLongSet();
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            long value = random.nextInt(200);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(!expected.contains(value), set.add(value));
+                    if (!expected.contains(value)) expected.add(value);
+                    break;
+                case 1:
+                    assertEquals(expected.remove(value), set.remove(value));
+                    break;
+                default:
+                    if (expected.size() > 1) {
+                        int from = random.nextInt(expected.size());
+                        int to = random.nextInt(expected.size());
+                        set.move(from, to);
+                        expected.add(to, expected.remove(from));
+                    }
+                    break;
+            }
+            assertEquals(expected.size(), set.size());
+            if (!expected.isEmpty()) {
+                long probe = expected.get(random.nextInt(expected.size()));
+                assertEquals(expected.indexOf(probe), set.indexOf(probe));
+            }
+        }
+        long[] values = set.toArray();
+        assertEquals(expected.size(), values.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals((long) expected.get(i), values[i]);
+        }
+    }
+}